@@ -0,0 +1,28 @@
+package edu.demian.benchmark;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.Geometry;
+
+/**
+ * Mounts a file system living in memory for a benchmark. Messages the simulator prints on the thread setting the
+ * benchmark up are dropped meanwhile; the benchmarks run on one thread, which JMH sets them up on as well.
+ */
+final class BenchmarkFileSystem {
+
+    static final int BLOCK_SIZE = 4096;
+
+    private BenchmarkFileSystem() {
+    }
+
+    // the root directory takes a descriptor as well
+    static FileSystem initialize(int numberOfDescriptors) {
+        FileSystem.redirectOutput(null);
+        FileSystem.initializeFileSystem(Geometry.createInstance(numberOfDescriptors, BLOCK_SIZE, 0));
+        return FileSystem.getInstance();
+    }
+
+    static void unmount() {
+        FileSystem.unmountFileSystem();
+        FileSystem.restoreOutput();
+    }
+}
@@ -0,0 +1,54 @@
+package edu.demian.benchmark;
+
+import edu.demian.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds a hard link to a file in a directory of {@code directorySize} entries and removes it again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int directorySize;
+
+    private FileSystem fileSystem;
+
+    @Setup
+    public void setUp() {
+        fileSystem = BenchmarkFileSystem.initialize(directorySize + 2);
+        fileSystem.createDirectory("/directory");
+        for (int i = 0; i < directorySize; i++) {
+            fileSystem.createRegularFile("/directory/f" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFileSystem.unmount();
+    }
+
+    @Benchmark
+    public void linkAndUnlink() {
+        fileSystem.link("/directory/f0", "/directory/link");
+        fileSystem.unlink("/directory/link");
+    }
+}
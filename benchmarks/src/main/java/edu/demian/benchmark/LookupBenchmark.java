@@ -0,0 +1,85 @@
+package edu.demian.benchmark;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.util.FileSystemUtils;
+import edu.demian.filesystem.util.LookupResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the path of a file at the bottom of a chain of {@code depth} directories, each of them holding
+ * {@code width} entries.
+ * <p>
+ * {@link #cachedLookup()} resolves the same path again and again, so it measures a hit in the dentry cache.
+ * {@link #uncachedLookup(EmptyDentryCache)} empties the cache before every call and measures the walk through
+ * the directories; the timestamps JMH takes around every call are part of its result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+    @Param({"1", "8", "32"})
+    private int depth;
+
+    @Param({"10", "1000", "10000"})
+    private int width;
+
+    private String pathname;
+
+    @Setup
+    public void setUp() {
+        FileSystem fileSystem = BenchmarkFileSystem.initialize(depth * width + 2);
+        StringBuilder directory = new StringBuilder();
+        for (int level = 0; level < depth; level++) {
+            directory.append("/d").append(level);
+            fileSystem.createDirectory(directory.toString());
+            // the next directory or the file looked up is the last entry
+            for (int i = 0; i < width - 1; i++) {
+                fileSystem.createRegularFile(directory + "/f" + i);
+            }
+        }
+        pathname = directory + "/target";
+        fileSystem.createRegularFile(pathname);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFileSystem.unmount();
+    }
+
+    @Benchmark
+    public LookupResponse cachedLookup() {
+        return FileSystemUtils.lookup(pathname, true);
+    }
+
+    @Benchmark
+    public LookupResponse uncachedLookup(EmptyDentryCache emptyDentryCache) {
+        return FileSystemUtils.lookup(pathname, true);
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyDentryCache {
+
+        @Setup(Level.Invocation)
+        public void clear() {
+            FileSystem.getInstance().getDentryCache().clear();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package edu.demian.benchmark;
+
+import edu.demian.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes {@code ioSize} bytes of a file of {@code fileSize} bytes, either at the offset following
+ * the previous call or at random offsets aligned to the io size. {@link FileSystem#readFromFile(int, int)}
+ * formats every byte it reads for the console, the {@code read} benchmarks measure the data path alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteBenchmark {
+
+    private static final int RANDOM_OFFSET_COUNT = 4096;
+
+    @Param({"65536", "1048576", "16777216"})
+    private int fileSize;
+
+    @Param({"512", "4096", "65536"})
+    private int ioSize;
+
+    private FileSystem fileSystem;
+    private int fileDescriptor;
+    private ByteBuffer buffer;
+    private int[] randomOffsets;
+    private int nextOffset;
+    private int nextRandomOffset;
+
+    @Setup
+    public void setUp() {
+        fileSystem = BenchmarkFileSystem.initialize(2);
+        fileSystem.createRegularFile("/file");
+        fileSystem.changeFileSize("/file", fileSize);
+        fileDescriptor = fileSystem.openFile("/file");
+        // the whole file is allocated, so reads and writes never hit a hole
+        fileSystem.writeToFile(fileDescriptor, fileSize);
+        buffer = ByteBuffer.allocate(ioSize);
+        Random random = new Random(1);
+        randomOffsets = new int[RANDOM_OFFSET_COUNT];
+        for (int i = 0; i < RANDOM_OFFSET_COUNT; i++) {
+            randomOffsets[i] = random.nextInt(fileSize / ioSize) * ioSize;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fileSystem.closeFile(fileDescriptor);
+        BenchmarkFileSystem.unmount();
+    }
+
+    @Benchmark
+    public void sequentialReadFromFile() {
+        fileSystem.changeOffsetForFile(fileDescriptor, sequentialOffset());
+        fileSystem.readFromFile(fileDescriptor, ioSize);
+    }
+
+    @Benchmark
+    public void randomReadFromFile() {
+        fileSystem.changeOffsetForFile(fileDescriptor, randomOffset());
+        fileSystem.readFromFile(fileDescriptor, ioSize);
+    }
+
+    @Benchmark
+    public void sequentialWriteToFile() {
+        fileSystem.changeOffsetForFile(fileDescriptor, sequentialOffset());
+        fileSystem.writeToFile(fileDescriptor, ioSize);
+    }
+
+    @Benchmark
+    public void randomWriteToFile() {
+        fileSystem.changeOffsetForFile(fileDescriptor, randomOffset());
+        fileSystem.writeToFile(fileDescriptor, ioSize);
+    }
+
+    @Benchmark
+    public int sequentialRead() {
+        buffer.clear();
+        return fileSystem.pread(fileDescriptor, buffer, sequentialOffset());
+    }
+
+    @Benchmark
+    public int randomRead() {
+        buffer.clear();
+        return fileSystem.pread(fileDescriptor, buffer, randomOffset());
+    }
+
+    private int sequentialOffset() {
+        int offset = nextOffset;
+        nextOffset = offset + 2 * ioSize > fileSize ? 0 : offset + ioSize;
+        return offset;
+    }
+
+    private int randomOffset() {
+        int offset = randomOffsets[nextRandomOffset];
+        nextRandomOffset = (nextRandomOffset + 1) % RANDOM_OFFSET_COUNT;
+        return offset;
+    }
+}
@@ -0,0 +1,63 @@
+package edu.demian.benchmark;
+
+import edu.demian.filesystem.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changes the size of files of {@code fileSize} bytes: an empty file grows into a hole and shrinks back, a
+ * written file loses half of its last block and grows back, which zeroes the cut off tail.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResizeBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    private int fileSize;
+
+    private FileSystem fileSystem;
+
+    @Setup
+    public void setUp() {
+        fileSystem = BenchmarkFileSystem.initialize(3);
+        fileSystem.createRegularFile("/empty");
+        fileSystem.createRegularFile("/written");
+        fileSystem.changeFileSize("/written", fileSize);
+        int fileDescriptor = fileSystem.openFile("/written");
+        fileSystem.writeToFile(fileDescriptor, fileSize);
+        fileSystem.closeFile(fileDescriptor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFileSystem.unmount();
+    }
+
+    @Benchmark
+    public void growAndShrink() {
+        fileSystem.changeFileSize("/empty", fileSize);
+        fileSystem.changeFileSize("/empty", 0);
+    }
+
+    @Benchmark
+    public void shrinkAndGrow() {
+        fileSystem.changeFileSize("/written", fileSize - BenchmarkFileSystem.BLOCK_SIZE / 2);
+        fileSystem.changeFileSize("/written", fileSize);
+    }
+}
@@ -6,6 +6,12 @@ public class Main {
 
     public static void main(String[] args) {
 
+        // RUN A SCRIPT OF COMMANDS: java edu.demian.Main <script> [<output file>], the output is dropped without one
+        if (args.length > 0) {
+            OperatingSystem.getInstance().batch(args[0], args.length > 1 ? args[1] : null);
+            return;
+        }
+
         // WORK WITH CREATING, OPENING AND CLOSING FILES; TRUNCATE THEM, WRITE, READ TO THEM
 //        OperatingSystem operatingSystem = OperatingSystem.getInstance();
 //        operatingSystem.mkfs(16);
@@ -92,5 +98,32 @@ public class Main {
         operatingSystem.cd("symlink1");
         operatingSystem.ls();
 
+
+        // LOAD THE FILE SYSTEM WITH SIMULATED PROCESSES
+//        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+//        operatingSystem.mkfs(Geometry.createInstance(16384, 4096, 0));
+//        WorkloadDriver driver = WorkloadDriver.createInstance(OperationMix.createDefaultInstance(), PathDistribution.zipfian(1000, 1.1));
+//        driver.prepare();
+//        driver.run(2000, 100, 1).print();
+
+
+        // MEASURE THE SYSTEM CALLS, THE METRICS ARE ALSO IN JCONSOLE UNDER edu.demian.filesystem
+//        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+//        operatingSystem.mkfs(16);
+//        operatingSystem.metrics(true);
+//        operatingSystem.create("/a.txt");
+//        operatingSystem.stat("/a.txt");
+//        operatingSystem.metricsStat();
+
+
+        // TRACE THE SYSTEM CALLS AND REPLAY THEM ON A NEW FILE SYSTEM
+//        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+//        operatingSystem.mkfs(16);
+//        operatingSystem.trace("calls.trace");
+//        operatingSystem.create("/a.txt");
+//        operatingSystem.truncate("/a.txt", 64);
+//        operatingSystem.stopTrace();
+//        operatingSystem.replay("calls.trace", 1, TraceReplayer.AS_FAST_AS_POSSIBLE);
+
     }
 }
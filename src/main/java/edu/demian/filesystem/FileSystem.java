@@ -1,77 +1,613 @@
 package edu.demian.filesystem;
 
+import edu.demian.filesystem.cache.PageCache;
+import edu.demian.filesystem.compression.CompressionStatistics;
+import edu.demian.filesystem.compression.Compressor;
+import edu.demian.filesystem.dedup.Deduplicator;
 import edu.demian.filesystem.file.DirectoryFile;
 import edu.demian.filesystem.file.File;
 import edu.demian.filesystem.file.RegularFile;
 import edu.demian.filesystem.file.SymbolicLinkFile;
+import edu.demian.filesystem.file.descriptor.BlockMap;
 import edu.demian.filesystem.file.descriptor.FileDescriptor;
+import edu.demian.filesystem.file.descriptor.InodeAllocator;
 import edu.demian.filesystem.file.descriptor.OpenFileDescriptor;
-import edu.demian.filesystem.file.util.Block;
 import edu.demian.filesystem.file.util.ConsoleColors;
 import edu.demian.filesystem.file.util.FileType;
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.device.DirectBlockDevice;
+import edu.demian.filesystem.image.DiskImage;
+import edu.demian.filesystem.journal.Journal;
+import edu.demian.filesystem.process.ProcessContext;
+import edu.demian.filesystem.snapshot.Snapshot;
+import edu.demian.filesystem.snapshot.SnapshotManager;
+import edu.demian.filesystem.util.DentryCache;
 import edu.demian.filesystem.util.FileSystemUtils;
 import edu.demian.filesystem.util.LookupResponse;
 
-import java.io.ByteArrayOutputStream;
-import java.io.Console;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Namespace shared by all simulated processes.
+ * <p>
+ * Every process has its own current directory and open files, see {@link ProcessContext}; a thread works
+ * on behalf of the process attached to it or of the initial process otherwise. There is no global lock:
+ * directories guard their entries and file descriptors their blocks with read/write locks of their own,
+ * so operations on different files never wait for each other.
+ */
 public class FileSystem {
 
+    private final Geometry geometry;
     private final int numberOfDescriptors;
     public static final String LINK_TO_ROOT_DIRECTORY = "/";
     public static final String LINK_TO_CURRENT_DIRECTORY = ".";
     public static final String LINK_TO_UPPER_DIRECTORY = "..";
 
-    private static DirectoryFile rootDirectory;
-    private static DirectoryFile currentDirectory;
+    private volatile DirectoryFile rootDirectory;
 
-    private final AtomicInteger descriptorIdCounter = new AtomicInteger(0);
-    private final AtomicInteger openFileDescriptorIdCounter = new AtomicInteger(0);
+    private final InodeAllocator inodeAllocator;
+    private final AtomicInteger processIdCounter = new AtomicInteger(0);
 
-    private final Map<FileDescriptor, List<File>> fileDescriptors = new HashMap<>();
-    private final Map<Integer, OpenFileDescriptor> openFileDescriptors = new HashMap<>();
+    private volatile ProcessContext initialProcess;
+    private final ThreadLocal<ProcessContext> attachedProcess = new ThreadLocal<>();
+
+    private final DentryCache dentryCache = new DentryCache(DentryCache.DEFAULT_CAPACITY);
+    private final SnapshotManager snapshots = new SnapshotManager();
+
+    private final BlockDevice blockDevice;
+    private final Deduplicator deduplicator;
+    private final PageCache pageCache;
+    private final Compressor compressor = new Compressor();
+    // null for file systems living in memory only
+    private final DiskImage diskImage;
+    // null for file systems living in memory only and while the journal is replayed
+    private volatile Journal journal;
 
     private static volatile FileSystem instance;
 
-    private FileSystem(int numberOfDescriptors) {
-        this.numberOfDescriptors = numberOfDescriptors;
+    private static final PrintStream DISCARDED_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+    // not set for threads printing on the console; kept across file systems, a script may format one in between
+    private static final ThreadLocal<PrintStream> redirectedOutput = new ThreadLocal<>();
+
+    private FileSystem(Geometry geometry, BlockDevice blockDevice, DiskImage diskImage) {
+        this.geometry = geometry;
+        this.numberOfDescriptors = geometry.getNumberOfDescriptors();
+        this.inodeAllocator = new InodeAllocator(numberOfDescriptors);
+        this.blockDevice = blockDevice;
+        this.deduplicator = new Deduplicator(blockDevice);
+        this.pageCache = new PageCache(blockDevice, deduplicator, PageCache.DEFAULT_CAPACITY_IN_BYTES);
+        this.diskImage = diskImage;
     }
 
     public int getAvailableFileDescriptorId() {
-        return descriptorIdCounter.incrementAndGet();
+        return inodeAllocator.allocate();
+    }
+
+    /**
+     * Returns the id of a deleted file, so it can be handed out again.
+     */
+    public void releaseFileDescriptorId(int fileDescriptorId) {
+        inodeAllocator.release(fileDescriptorId);
+        if (diskImage != null) {
+            diskImage.freeInode(fileDescriptorId);
+        }
+    }
+
+    /**
+     * Frees the blocks and the id of a file nothing refers to anymore, the content of a directory is removed first.
+     */
+    public void releaseFile(File file) {
+        if (file instanceof DirectoryFile) {
+            DirectoryFile directory = (DirectoryFile) file;
+            for (File entry : directory.getContent()) {
+                if (entry.getDescriptor() != null) {
+                    directory.removeFile(entry.getName());
+                }
+            }
+        }
+        FileDescriptor descriptor = file.getDescriptor();
+        descriptor.changeFileSize(0);
+        if (descriptor.getGeneration() < snapshots.getGeneration()) {
+            // a snapshot still sees the file, its id can't be reused while the snapshot may bring it back
+            snapshots.fileRetained(file);
+            if (diskImage != null) {
+                diskImage.freeInode(descriptor.getId());
+            }
+        } else {
+            releaseFileDescriptorId(descriptor.getId());
+        }
     }
 
     public int getOpenFileDescriptorId(RegularFile file) {
-        int openFileDescriptorId = openFileDescriptorIdCounter.incrementAndGet();
-        OpenFileDescriptor openFileDescriptor = new OpenFileDescriptor(openFileDescriptorId, 0, file);
-        openFileDescriptors.put(openFileDescriptorId, openFileDescriptor);
-        return openFileDescriptorId;
+        return currentProcess().openFile(file);
     }
 
-    public synchronized static FileSystem getInstance() {
+    public static FileSystem getInstance() {
         return instance;
     }
 
+    /**
+     * Sends what is printed on behalf of the calling thread to the stream until {@link #restoreOutput()},
+     * other threads keep printing where they did.
+     *
+     * @param output receives the messages, null to drop them
+     */
+    public static void redirectOutput(PrintStream output) {
+        redirectedOutput.set(output == null ? DISCARDED_OUTPUT : output);
+    }
+
+    public static void restoreOutput() {
+        redirectedOutput.remove();
+    }
+
+    /**
+     * @return where the calling thread prints, the console unless it redirected its output
+     */
+    public static PrintStream getOutput() {
+        PrintStream output = redirectedOutput.get();
+        return output == null ? System.out : output;
+    }
+
+    // what nobody reads needn't be formatted
+    private static boolean isOutputDiscarded() {
+        return redirectedOutput.get() == DISCARDED_OUTPUT;
+    }
+
+    /**
+     * Creates a process which starts in the current directory of the calling one and inherits its limit of open files.
+     */
+    public ProcessContext createProcess() {
+        return createProcess(currentProcess().getMaxOpenFiles());
+    }
+
+    public ProcessContext createProcess(int maxOpenFiles) {
+        return new ProcessContext(processIdCounter.incrementAndGet(), getCurrentDirectory(), maxOpenFiles);
+    }
+
+    /**
+     * Makes the calling thread work on behalf of the process until {@link #detachProcess()}.
+     */
+    public void attachProcess(ProcessContext process) {
+        attachedProcess.set(process);
+    }
+
+    public void detachProcess() {
+        attachedProcess.remove();
+    }
+
+    public ProcessContext currentProcess() {
+        ProcessContext process = attachedProcess.get();
+        return process == null ? initialProcess : process;
+    }
+
+    // the root can only be created once the instance is published, descriptors take their device from it
+    private void setRootDirectory(DirectoryFile rootDirectory) {
+        this.rootDirectory = rootDirectory;
+        this.initialProcess = new ProcessContext(processIdCounter.incrementAndGet(), rootDirectory);
+    }
+
     public synchronized static void initializeFileSystem(final int numberOfDescriptors) {
+        initializeFileSystem(Geometry.createDefaultInstance(numberOfDescriptors));
+    }
+
+    public synchronized static void initializeFileSystem(final Geometry geometry) {
+        if (instance != null) {
+            throw new RuntimeException("File system is already initialized");
+        }
+        instance = new FileSystem(geometry, new DirectBlockDevice(geometry.getBlockSize(), Integer.MAX_VALUE), null);
+        instance.setRootDirectory(DirectoryFile.createRootInstance(LINK_TO_ROOT_DIRECTORY));
+    }
+
+    /**
+     * Creates an empty file system in the image file and mounts it.
+     */
+    public synchronized static void formatFileSystem(final String imagePathname, final int numberOfDescriptors, final int numberOfBlocks) {
+        formatFileSystem(imagePathname, Geometry.createDefaultInstance(numberOfDescriptors), numberOfBlocks);
+    }
+
+    /**
+     * Creates an empty file system of the given geometry in the image file and mounts it.
+     */
+    public synchronized static void formatFileSystem(final String imagePathname, final Geometry geometry, final int numberOfBlocks) {
         if (instance != null) {
             throw new RuntimeException("File system is already initialized");
         }
-        instance = new FileSystem(numberOfDescriptors);
-        rootDirectory = DirectoryFile.createInstance(LINK_TO_ROOT_DIRECTORY, null);
-        currentDirectory = rootDirectory;
+        DiskImage diskImage = DiskImage.format(Paths.get(imagePathname), geometry.getNumberOfDescriptors() + 1,
+                geometry.getBlockSize(), numberOfBlocks, geometry.getInitialBlockCount());
+        instance = new FileSystem(geometry, diskImage.getBlockDevice(), diskImage);
+        instance.setRootDirectory(DirectoryFile.createRootInstance(LINK_TO_ROOT_DIRECTORY));
+        diskImage.setRootDirectory(instance.rootDirectory);
+        try {
+            // a journal left by a previous image must not be replayed on this one
+            Files.deleteIfExists(journalPathOf(imagePathname));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't format the journal", e);
+        }
+        instance.journal = Journal.open(journalPathOf(imagePathname));
+        instance.sync();
+    }
+
+    /**
+     * Attaches the file system stored in the image file, nothing but the root directory is read up front.
+     * If the image was not unmounted cleanly, its bitmap is rebuilt and the changes logged in the journal
+     * since its last sync are applied again.
+     */
+    public synchronized static void mountFileSystem(final String imagePathname) {
+        if (instance != null) {
+            throw new RuntimeException("File system is already initialized");
+        }
+        DiskImage diskImage = DiskImage.mount(Paths.get(imagePathname));
+        Geometry geometry = new Geometry(diskImage.getInodeCount() - 1, diskImage.getBlockDevice().getBlockSize(), diskImage.getInitialBlockCount());
+        instance = new FileSystem(geometry, diskImage.getBlockDevice(), diskImage);
+        if (!diskImage.isClean()) {
+            diskImage.rebuildBitmap();
+        }
+        diskImage.forEachUsedInode(instance.inodeAllocator::reserve);
+        instance.setRootDirectory(diskImage.loadRootDirectory(LINK_TO_ROOT_DIRECTORY));
+        Journal journal = Journal.open(journalPathOf(imagePathname));
+        if (!journal.isEmpty()) {
+            instance.replayJournal(journal);
+        }
+        instance.journal = journal;
+        instance.sync();
+    }
+
+    /**
+     * Writes all pending changes of a mounted image and detaches the file system.
+     */
+    public synchronized static void unmountFileSystem() {
+        if (instance == null) {
+            return;
+        }
+        // the references of the index are not stored in the image
+        instance.deduplicator.setMode(Deduplicator.Mode.OFF);
+        instance.compressor.configure(false, instance.compressor.getColdAfterMillis());
+        if (instance.diskImage != null) {
+            instance.removeSnapshots();
+            instance.sync();
+            instance.diskImage.close();
+            instance.journal.close();
+        }
+        instance = null;
+    }
+
+    public void sync() {
+        pageCache.flushAll();
+        deduplicator.deduplicateFlushed();
+        if (diskImage != null) {
+            Journal journal = this.journal;
+            long lsn = journal == null ? 0 : journal.getAppendedLsn();
+            diskImage.sync();
+            if (journal != null) {
+                journal.checkpoint(lsn);
+            }
+            if (snapshots.getGeneration() > 0) {
+                // blocks only snapshots refer to are not in the image, they are found again by rebuilding the bitmap
+                diskImage.markImageDirty();
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of the whole namespace. Nothing is copied: directories and files save their state the
+     * first time they change afterwards and blocks shared with the snapshot are copied on write, so the cost
+     * is proportional to what changes later. Only dirty pages are written back up front.
+     * <p>
+     * Snapshots live in memory until the file system is unmounted. They are taken and rolled back to between
+     * phases of work, no other thread may change the namespace meanwhile.
+     *
+     * @return false if a snapshot with this name already exists
+     */
+    public boolean createSnapshot(String name) {
+        pageCache.flushAll();
+        if (snapshots.create(name) == null) {
+            getOutput().println("This snapshot already exists");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Brings the namespace back to the state of the snapshot, snapshots taken after it are dropped. Only
+     * directories and files changed since the snapshot are touched. Files created since then are gone,
+     * open ones stay usable until they are closed.
+     *
+     * @return false if there is no such snapshot
+     */
+    public boolean rollbackSnapshot(String name) {
+        Snapshot snapshot = snapshots.get(name);
+        if (snapshot == null) {
+            getOutput().println("No such snapshot");
+            return false;
+        }
+        pageCache.flushAll();
+        deduplicator.pause();
+        compressor.pause();
+        try {
+            rollback(snapshot);
+        } finally {
+            compressor.resume();
+            deduplicator.resume();
+        }
+        return true;
+    }
+
+    private void rollback(Snapshot snapshot) {
+        int generation = snapshot.getGeneration();
+
+        // the state seen by the snapshot is the one saved by the oldest snapshot not older than it
+        List<Snapshot> newerSnapshots = snapshots.getNewerThan(snapshot);
+        Map<FileDescriptor, FileDescriptor.SavedState> descriptors = new HashMap<>();
+        Map<DirectoryFile, Map<String, File>> directories = new HashMap<>();
+        Set<File> createdFiles = new HashSet<>(snapshot.getCreatedFiles());
+        Set<File> retainedFiles = new HashSet<>(snapshot.getRetainedFiles());
+        for (Snapshot newerSnapshot : newerSnapshots) {
+            descriptors.putAll(newerSnapshot.getDescriptors());
+            directories.putAll(newerSnapshot.getDirectories());
+            createdFiles.addAll(newerSnapshot.getCreatedFiles());
+            retainedFiles.addAll(newerSnapshot.getRetainedFiles());
+        }
+        descriptors.putAll(snapshot.getDescriptors());
+        directories.putAll(snapshot.getDirectories());
+        Set<FileDescriptor> createdDescriptors = new HashSet<>();
+        for (File file : createdFiles) {
+            createdDescriptors.add(file.getDescriptor());
+        }
+        descriptors.keySet().removeAll(createdDescriptors);
+        directories.keySet().removeIf(directory -> createdDescriptors.contains(directory.getDescriptor()));
+
+        // blocks referred to since the snapshot are not shared with it, neither by the files nor by newer
+        // snapshots; a file and the states it saved share their references, a reference is counted once
+        Map<FileDescriptor, Set<BlockMap.BlockReference>> freedReferences = new HashMap<>();
+        for (Snapshot newerSnapshot : newerSnapshots) {
+            for (Map.Entry<FileDescriptor, FileDescriptor.SavedState> entry : newerSnapshot.getDescriptors().entrySet()) {
+                entry.getValue().getBlockMap().forEachReferenceSince(generation, freedReferences.computeIfAbsent(entry.getKey(), descriptor -> new HashSet<>())::add);
+            }
+        }
+        for (FileDescriptor descriptor : descriptors.keySet()) {
+            descriptor.getBlockMap().forEachReferenceSince(generation, freedReferences.computeIfAbsent(descriptor, key -> new HashSet<>())::add);
+        }
+        for (FileDescriptor descriptor : createdDescriptors) {
+            descriptor.getBlockMap().forEachReferenceSince(generation, freedReferences.computeIfAbsent(descriptor, key -> new HashSet<>())::add);
+        }
+
+        snapshots.removeNewerThan(snapshot);
+        snapshot.getCreatedFiles().clear();
+        snapshot.getRetainedFiles().clear();
+        for (Map.Entry<DirectoryFile, Map<String, File>> entry : directories.entrySet()) {
+            entry.getKey().restoreContent(entry.getValue(), snapshot.getDirectories().containsKey(entry.getKey()) ? generation : 0);
+        }
+        List<File> releasedFiles = new ArrayList<>();
+        for (Map.Entry<FileDescriptor, FileDescriptor.SavedState> entry : descriptors.entrySet()) {
+            FileDescriptor descriptor = entry.getKey();
+            if (descriptor.restore(entry.getValue(), snapshot.getDescriptors().containsKey(descriptor) ? generation : 0)) {
+                releasedFiles.add(descriptor.getFile());
+            }
+        }
+        for (File file : createdFiles) {
+            // a file released while a newer snapshot existed still holds its id
+            if (file.discard() || retainedFiles.contains(file)) {
+                releaseFileDescriptorId(file.getDescriptor().getId());
+            }
+        }
+        for (Set<BlockMap.BlockReference> references : freedReferences.values()) {
+            for (BlockMap.BlockReference reference : references) {
+                blockDevice.free(reference.getPhysicalBlock(), 1);
+            }
+        }
+        pageCache.clear();
+        dentryCache.clear();
+        for (File file : releasedFiles) {
+            releaseFile(file);
+        }
+
+        if (diskImage != null) {
+            for (DirectoryFile directory : directories.keySet()) {
+                markDirty(directory);
+            }
+            for (FileDescriptor descriptor : descriptors.keySet()) {
+                markDirty(descriptor.getFile());
+            }
+            sync();
+        }
+    }
+
+    public SnapshotManager getSnapshots() {
+        return snapshots;
+    }
+
+    // frees what only the snapshots refer to
+    private void removeSnapshots() {
+        Map<FileDescriptor, Set<BlockMap.BlockReference>> heldReferences = new HashMap<>();
+        List<Snapshot> removedSnapshots = snapshots.removeAll();
+        for (Snapshot snapshot : removedSnapshots) {
+            for (Map.Entry<FileDescriptor, FileDescriptor.SavedState> entry : snapshot.getDescriptors().entrySet()) {
+                entry.getValue().getBlockMap().forEachReferenceSince(0, heldReferences.computeIfAbsent(entry.getKey(), descriptor -> new HashSet<>())::add);
+            }
+        }
+        for (Map.Entry<FileDescriptor, Set<BlockMap.BlockReference>> entry : heldReferences.entrySet()) {
+            entry.getKey().getBlockMap().forEachReferenceSince(0, entry.getValue()::remove);
+            for (BlockMap.BlockReference reference : entry.getValue()) {
+                blockDevice.free(reference.getPhysicalBlock(), 1);
+            }
+        }
+        for (Snapshot snapshot : removedSnapshots) {
+            for (File file : snapshot.getRetainedFiles()) {
+                releaseFileDescriptorId(file.getDescriptor().getId());
+            }
+        }
+    }
+
+    /**
+     * Logs an entry added to the directory, called under the lock of the directory.
+     *
+     * @return log sequence number to pass to {@link #commitJournal(long)}, 0 if nothing was logged
+     */
+    public long logFileAdded(DirectoryFile directory, File file) {
+        Journal journal = this.journal;
+        if (journal == null) {
+            return 0;
+        }
+        String content = file instanceof SymbolicLinkFile ? ((SymbolicLinkFile) file).getContent() : null;
+        return journal.logAdded(directory.getDescriptor().getId(), file.getName(), file.getDescriptor().getId(), journalTypeOf(file), content);
+    }
+
+    /**
+     * Logs an entry removed from the directory, called under the lock of the directory.
+     *
+     * @return log sequence number to pass to {@link #commitJournal(long)}, 0 if nothing was logged
+     */
+    public long logFileRemoved(DirectoryFile directory, String name) {
+        Journal journal = this.journal;
+        return journal == null ? 0 : journal.logRemoved(directory.getDescriptor().getId(), name);
+    }
+
+    /**
+     * Waits until the journal is durable up to the log sequence number.
+     */
+    public void commitJournal(long lsn) {
+        Journal journal = this.journal;
+        if (journal != null && lsn > 0) {
+            journal.commit(lsn);
+        }
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    private long logFileResized(FileDescriptor descriptor) {
+        Journal journal = this.journal;
+        return journal == null ? 0 : journal.logResized(descriptor.getId(), descriptor.getFileSizeInBytes());
+    }
+
+    private static int journalTypeOf(File file) {
+        if (file instanceof DirectoryFile) {
+            return Journal.TYPE_DIRECTORY;
+        }
+        if (file instanceof SymbolicLinkFile) {
+            return Journal.TYPE_SYMBOLIC_LINK;
+        }
+        return Journal.TYPE_REGULAR;
+    }
+
+    private static Path journalPathOf(String imagePathname) {
+        return Paths.get(imagePathname + ".journal");
+    }
+
+    /**
+     * Applies the logged changes to the tree loaded from the image. The image may already contain some of
+     * them, changes which are already there are skipped.
+     */
+    private void replayJournal(Journal journal) {
+        Map<Integer, File> files = new HashMap<>();
+        collectFiles(rootDirectory, files);
+        journal.replay(new Journal.RecordVisitor() {
+            @Override
+            public void added(int directoryInode, String name, int inode, int type, String content) {
+                File directory = findLiveFile(files, directoryInode);
+                if (!(directory instanceof DirectoryFile) || ((DirectoryFile) directory).containsFile(name)) {
+                    return;
+                }
+                File existingFile = findLiveFile(files, inode);
+                File file;
+                if (existingFile instanceof RegularFile) {
+                    file = RegularFile.createInstance(existingFile.getDescriptor(), name);
+                } else if (existingFile != null) {
+                    return;
+                } else {
+                    inodeAllocator.reserve(inode);
+                    FileDescriptor descriptor = new FileDescriptor(inode);
+                    if (type == Journal.TYPE_DIRECTORY) {
+                        file = DirectoryFile.createInstance(descriptor, name, (DirectoryFile) directory);
+                    } else if (type == Journal.TYPE_SYMBOLIC_LINK) {
+                        file = SymbolicLinkFile.createInstance(descriptor, name, content);
+                    } else {
+                        file = RegularFile.createInstance(descriptor, name);
+                    }
+                }
+                if (((DirectoryFile) directory).addFile(file)) {
+                    files.put(inode, file);
+                }
+            }
+
+            @Override
+            public void removed(int directoryInode, String name) {
+                File directory = findLiveFile(files, directoryInode);
+                if (directory instanceof DirectoryFile) {
+                    ((DirectoryFile) directory).removeFile(name);
+                }
+            }
+
+            @Override
+            public void resized(int inode, int fileSizeInBytes) {
+                File file = findLiveFile(files, inode);
+                if (file instanceof RegularFile) {
+                    file.getDescriptor().changeFileSize(fileSizeInBytes);
+                    markDirty(file);
+                }
+            }
+        });
+    }
+
+    private static void collectFiles(DirectoryFile directory, Map<Integer, File> files) {
+        files.put(directory.getDescriptor().getId(), directory);
+        for (File file : directory.getContent()) {
+            if (file instanceof DirectoryFile && file.getDescriptor() != null) {
+                collectFiles((DirectoryFile) file, files);
+            } else if (file.getDescriptor() != null) {
+                files.put(file.getDescriptor().getId(), file);
+            }
+        }
+    }
+
+    // files released by replayed changes stay in the map, their inodes may be reused later in the journal
+    private static File findLiveFile(Map<Integer, File> files, int inode) {
+        File file = files.get(inode);
+        return file != null && file.getDescriptor().getLinkCount() > 0 ? file : null;
+    }
+
+    public void markDirty(File file) {
+        // a file without names is not stored, it is gone from the image as soon as it is released
+        if (diskImage != null && file.getDescriptor() != null && file.getDescriptor().getLinkCount() > 0) {
+            diskImage.markDirty(file);
+        }
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public int getNumberOfDescriptors() {
+        return numberOfDescriptors;
     }
 
     public boolean isFileDescriptorAvailable() {
-        return fileDescriptors.size() <= numberOfDescriptors;
+        return inodeAllocator.getFreeCount() > 0;
     }
 
-    public void printFileInformation(String pathname) {
+    public boolean printFileInformation(String pathname) {
         File file = FileSystemUtils.findFileByPathname(pathname);
+        if (file == null) {
+            getOutput().println("No such file");
+            return false;
+        }
         FileType fileType = FileSystemUtils.getFileType(file);
-        System.out.printf("File information: [name = %s; type = %s; descriptor = %d]%n", file.getName(), fileType, file.getDescriptor().getId());
+        FileDescriptor descriptor = file.getDescriptor();
+        getOutput().printf("File information: [name = %s; type = %s; descriptor = %d; size = %d; allocated = %d]%n",
+                file.getName(), fileType, descriptor.getId(), descriptor.getFileSizeInBytes(), descriptor.getAllocatedSizeInBytes());
+        return true;
     }
 
     public DirectoryFile getRootDirectory() {
@@ -79,276 +615,680 @@ public class FileSystem {
     }
 
     public DirectoryFile getCurrentDirectory() {
-        return currentDirectory;
+        return currentProcess().getCurrentDirectory();
+    }
+
+    public DentryCache getDentryCache() {
+        return dentryCache;
     }
 
+    public BlockDevice getBlockDevice() {
+        return blockDevice;
+    }
+
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    public Deduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    public void printDedupInformation() {
+        getOutput().printf("Dedup information: [mode = %s; indexed blocks = %d; deduplicated blocks = %d; ratio = %.2f; index size = %d]%n",
+                deduplicator.getMode(), deduplicator.getIndexedBlockCount(), deduplicator.getDeduplicatedBlocks(),
+                deduplicator.getDedupRatio(), deduplicator.getIndexSizeInBytes());
+    }
+
+    public Compressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Switches compression of cold files, see {@link Compressor}. Compressed data is not stored in images, so only
+     * file systems living in memory compress.
+     *
+     * @return false if the file system is stored in an image
+     */
+    public boolean configureCompression(boolean enabled, long coldAfterMillis) {
+        if (diskImage != null) {
+            getOutput().println("Compression is only supported in memory");
+            return false;
+        }
+        compressor.configure(enabled, coldAfterMillis);
+        return true;
+    }
+
+    public boolean printCompressionInformation(String pathname) {
+        File file = FileSystemUtils.findFileByPathname(pathname);
+        if (file == null) {
+            getOutput().println("No such file");
+            return false;
+        }
+        FileDescriptor descriptor = file.getDescriptor();
+        CompressionStatistics statistics = descriptor.getCompressionStatistics();
+        long compressedSize = (long) descriptor.getCompressedBlockCount() * blockDevice.getBlockSize();
+        long storedSize = descriptor.getCompressedSizeInBytes();
+        getOutput().printf("Compression information: [name = %s; compressed = %d; stored = %d; ratio = %.2f; compression time = %d us; decompression time = %d us]%n",
+                file.getName(), compressedSize, storedSize, storedSize == 0 ? 1 : (double) compressedSize / storedSize,
+                TimeUnit.NANOSECONDS.toMicros(statistics.getCompressionNanos()), TimeUnit.NANOSECONDS.toMicros(statistics.getDecompressionNanos()));
+        return true;
+    }
+
+    // printed at once, a print per entry is slow on a console
     public void listCurrentDirectory() {
-        System.out.print("ls: ");
-        List<File> currentDirectoryContent = currentDirectory.getContent();
+        if (isOutputDiscarded()) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("ls: ");
+        Collection<File> currentDirectoryContent = getCurrentDirectory().getContent();
         currentDirectoryContent.forEach(file -> {
             if (file instanceof DirectoryFile) {
-                System.out.print(ConsoleColors.BLUE + file.getName() + ConsoleColors.RESET + " ");
+                line.append(ConsoleColors.BLUE).append(file.getName()).append(ConsoleColors.RESET).append(' ');
             } else if (file instanceof SymbolicLinkFile) {
-                System.out.print(ConsoleColors.PURPLE + file.getName() + " -> " + ((SymbolicLinkFile) file).getContent() + ConsoleColors.RESET + " ");
+                line.append(ConsoleColors.PURPLE).append(file.getName()).append(" -> ")
+                        .append(((SymbolicLinkFile) file).getContent()).append(ConsoleColors.RESET).append(' ');
             } else {
-                System.out.print(ConsoleColors.GREEN + file.getName() + ConsoleColors.RESET + " ");
+                line.append(ConsoleColors.GREEN).append(file.getName()).append(ConsoleColors.RESET).append(' ');
             }
         });
-        System.out.println();
+        getOutput().println(line);
     }
 
-    public void createRegularFile(String pathname) {
+    public boolean createRegularFile(String pathname) {
         if (pathname.startsWith(LINK_TO_ROOT_DIRECTORY)) {
             // absolute path
             // /a/b/c/123.txt
             LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
             DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
+            if (currDirectory == null) {
+                getOutput().println("No such directory");
+                return false;
+            }
+            if (currDirectory.containsFile(lookupResponse.getFileName())) {
+                getOutput().println("This file already exists");
+                return false;
+            }
             RegularFile regularFile = RegularFile.createInstance(lookupResponse.getFileName());
-            currDirectory.getContent().add(regularFile);
+            return addFile(currDirectory, regularFile);
         } else if (pathname.contains("/")) {
             // relative path a/b/c/123.txt
             LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
-            DirectoryFile currDirectory = lookupResponse.getParentDirectory();
+            DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
+            if (currDirectory == null) {
+                getOutput().println("No such directory");
+                return false;
+            }
+            if (currDirectory.containsFile(lookupResponse.getFileName())) {
+                getOutput().println("This file already exists");
+                return false;
+            }
             RegularFile regularFile = RegularFile.createInstance(lookupResponse.getFileName());
-            currDirectory.getContent().add(regularFile);
+            return addFile(currDirectory, regularFile);
         } else {
             // create a regular file in current directory
+            DirectoryFile currentDirectory = getCurrentDirectory();
+            if (currentDirectory.containsFile(pathname)) {
+                getOutput().println("This file already exists");
+                return false;
+            }
             RegularFile regularFile = RegularFile.createInstance(pathname);
-            FileSystem.getInstance().getCurrentDirectory().getContent().add(regularFile);
-            FileDescriptor descriptor = regularFile.getDescriptor();
-            List<File> fileList = new LinkedList<>();
-            fileList.add(regularFile);
-            fileDescriptors.put(descriptor, fileList);
+            return addFile(currentDirectory, regularFile);
         }
     }
 
-    public void createDirectory(String pathname) {
+    // another process may have taken the name since the check, the new file is thrown away then
+    private boolean addFile(DirectoryFile directory, File file) {
+        if (directory.addFile(file)) {
+            return true;
+        }
+        getOutput().println("This file already exists");
+        releaseFile(file);
+        return false;
+    }
+
+    public boolean createDirectory(String pathname) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, false);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
-        if (currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName)).findFirst().orElse(null) != null) {
-            System.out.println("This directory already exists");
-            return;
+        if (currDirectory == null) {
+            getOutput().println("No such directory");
+            return false;
+        }
+        if (currDirectory.containsFile(fileName)) {
+            getOutput().println("This directory already exists");
+            return false;
         }
 
         DirectoryFile directoryFile = DirectoryFile.createInstance(lookupResponse.getFileName(), currDirectory);
-        currDirectory.getContent().add(directoryFile);
+        return addFile(currDirectory, directoryFile);
     }
 
-    public void removeDirectory(String pathname) {
+    public boolean removeDirectory(String pathname) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
+        if (currDirectory == null) {
+            getOutput().println("No such directory");
+            return false;
+        }
 
-        currDirectory.getContent().removeIf(file -> file.getName().equals(fileName) && file instanceof DirectoryFile);
+        return currDirectory.removeFile(fileName, DirectoryFile.class) != null;
     }
 
-    public void changeDirectory(String pathname) {
+    public boolean changeDirectory(String pathname) {
         if (LINK_TO_ROOT_DIRECTORY.equals(pathname)) {
-            currentDirectory = rootDirectory;
-            return;
+            setCurrentDirectory(rootDirectory);
+            return true;
         }
 
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         String fileName = lookupResponse.getFileName();
         if (LINK_TO_ROOT_DIRECTORY.equals(fileName)) {
-            currentDirectory = rootDirectory;
-            return;
+            setCurrentDirectory(rootDirectory);
+            return true;
         }
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
-        DirectoryFile directoryToChange = (DirectoryFile) currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName) && file instanceof DirectoryFile).findFirst().orElse(null);
+        File fileFound = currDirectory == null ? null : currDirectory.getFile(fileName);
+        if (!(fileFound instanceof DirectoryFile)) {
+            getOutput().println("No such directory");
+            return false;
+        }
 
-        currentDirectory = directoryToChange;
+        setCurrentDirectory((DirectoryFile) fileFound);
+        return true;
+    }
+
+    private void setCurrentDirectory(DirectoryFile directory) {
+        currentProcess().setCurrentDirectory(directory);
     }
 
     public void printWorkingDirectory() {
         final List<String> response = new LinkedList<>();
-        for (DirectoryFile currDirectory = currentDirectory; currDirectory != null; currDirectory = currDirectory.getParentDirectory()) {
+        for (DirectoryFile currDirectory = getCurrentDirectory(); currDirectory != null; currDirectory = currDirectory.getParentDirectory()) {
             response.add(currDirectory.getName());
         }
-        System.out.print("PWD: ");
+        StringBuilder line = new StringBuilder("PWD: ");
         for (int i = response.size() - 1; i > 0; i--) {
             String pathPart = response.get(i);
-            if (pathPart.equals(LINK_TO_ROOT_DIRECTORY)) {
-                System.out.print(pathPart);
-            } else {
-                System.out.print(pathPart + "/");
+            line.append(pathPart);
+            if (!pathPart.equals(LINK_TO_ROOT_DIRECTORY)) {
+                line.append('/');
             }
         }
-        System.out.println(response.get(0));
+        getOutput().println(line.append(response.get(0)));
     }
 
     public int openFile(String pathname) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
-        RegularFile fileToOpen = (RegularFile) currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName) && file instanceof RegularFile).findFirst().orElse(null);
-        if (fileToOpen == null) {
-            System.out.println("No such file to open");
+        RegularFile fileToOpen = findRegularFile(currDirectory, fileName);
+        // the file may have lost its last name since the lookup
+        if (fileToOpen == null || !fileToOpen.getDescriptor().open()) {
+            getOutput().println("No such file to open");
             return -1;
         }
 
-        return getOpenFileDescriptorId(fileToOpen);
+        int openFileDescriptorId = getOpenFileDescriptorId(fileToOpen);
+        if (openFileDescriptorId < 0) {
+            getOutput().println("Too many open files");
+            closeRegularFile(fileToOpen);
+        }
+        return openFileDescriptorId;
+    }
+
+    public boolean closeFile(int fileDescriptor) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().closeFile(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return false;
+        }
+        closeRegularFile(openFileDescriptor.getRegularFile());
+        return true;
     }
 
-    public void closeFile(int fileDescriptor) {
-        openFileDescriptors.remove(fileDescriptor);
+    private void closeRegularFile(RegularFile file) {
+        if (file.getDescriptor().close()) {
+            releaseFile(file);
+        } else {
+            pageCache.flush(file.getDescriptor());
+            deduplicator.deduplicate(file.getDescriptor());
+        }
     }
 
-    public void readFromFile(int fileDescriptor, int sizeInBytes) {
-        OpenFileDescriptor openFileDescriptor = openFileDescriptors.get(fileDescriptor);
+    /**
+     * Writes back the cached data of the open file.
+     *
+     * @return 0 on success, -1 for an unknown file descriptor
+     */
+    public int fsync(int fileDescriptor) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
         if (openFileDescriptor == null) {
-            System.out.println("Unknown file descriptor");
-            return;
+            return -1;
+        }
+        pageCache.flush(openFileDescriptor.getRegularFile().getDescriptor());
+        deduplicator.deduplicate(openFileDescriptor.getRegularFile().getDescriptor());
+        Journal journal = this.journal;
+        if (journal != null) {
+            journal.commit(journal.getAppendedLsn());
         }
+        return 0;
+    }
 
-        RegularFile file = openFileDescriptor.getRegularFile();
+    /**
+     * Prints the bytes from the current offset of the open file, the offset is not changed.
+     *
+     * @return number of bytes printed, -1 for an unknown file descriptor or an offset beyond the end of the file
+     */
+    public int readFromFile(int fileDescriptor, int sizeInBytes) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            getOutput().println("Unknown file descriptor");
+            return -1;
+        }
 
-        List<Block> fileBlockList = file.getDescriptor().getBlockList();
+        FileDescriptor descriptor = openFileDescriptor.getRegularFile().getDescriptor();
 
         int offset = openFileDescriptor.getOffset();
 
-        int fileSizeInBytes = file.getDescriptor().getFileSizeInBytes();
+        int fileSizeInBytes = descriptor.getFileSizeInBytes();
         if (offset > fileSizeInBytes) {
-            System.out.printf("Offset is bigger that fileSize: [offset = %d, filesize = %d]%n", offset, fileSizeInBytes);
-            return;
+            getOutput().printf("Offset is bigger that fileSize: [offset = %d, filesize = %d]%n", offset, fileSizeInBytes);
+            return -1;
         }
 
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        for (Block block : fileBlockList) {
-            try {
-                outputStream.write(block.getData());
-            } catch (IOException e) {
-                System.out.println("Can't read file data");
-                return;
+        ByteBuffer fileContent = ByteBuffer.allocate(Math.max(Math.min(sizeInBytes, fileSizeInBytes - offset), 0));
+        descriptor.read(offset, fileContent);
+        fileContent.flip();
+        if (isOutputDiscarded()) {
+            return fileContent.limit();
+        }
+        // printed at once, a print per byte is slow on a console
+        StringBuilder line = new StringBuilder(fileContent.remaining() * 3);
+        while (fileContent.hasRemaining()) {
+            line.append(fileContent.get()).append(' ');
+        }
+        getOutput().println(line);
+        return fileContent.limit();
+    }
+
+    /**
+     * Fills the file with ones from its current offset up to its size at most, the offset is not changed.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor or an offset beyond the end of the file
+     */
+    public int writeToFile(int fileDescriptor, int sizeInBytes) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            getOutput().println("Unknown file descriptor");
+            return -1;
+        }
+
+        FileDescriptor descriptor = openFileDescriptor.getRegularFile().getDescriptor();
+
+        int offset = openFileDescriptor.getOffset();
+
+        int fileSizeInBytes = descriptor.getFileSizeInBytes();
+        if (offset > fileSizeInBytes) {
+            getOutput().printf("Offset is bigger that fileSize: [offset = %d, filesize = %d]%n", offset, fileSizeInBytes);
+            return -1;
+        }
+
+        byte[] data = new byte[Math.max(Math.min(sizeInBytes, fileSizeInBytes - offset), 0)];
+        Arrays.fill(data, (byte) 1);
+        descriptor.write(offset, ByteBuffer.wrap(data));
+        return data.length;
+    }
+
+    /**
+     * Reads from the current offset of the open file into {@code dst} and advances the offset.
+     *
+     * @return number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor
+     */
+    public int read(int fileDescriptor, ByteBuffer dst) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return -1;
+        }
+        // threads sharing an open file must not read from the same offset twice
+        synchronized (openFileDescriptor) {
+            int readBytes = readAt(openFileDescriptor.getRegularFile().getDescriptor(), openFileDescriptor.getOffset(), dst);
+            if (readBytes > 0) {
+                openFileDescriptor.setOffset(openFileDescriptor.getOffset() + readBytes);
             }
+            return readBytes;
         }
+    }
 
-        byte[] fileContent = outputStream.toByteArray();
+    /**
+     * Reads from the given position of the open file into {@code dst}, the offset of the file is not changed.
+     *
+     * @return number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor or a negative position
+     */
+    public int pread(int fileDescriptor, ByteBuffer dst, int position) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return -1;
+        }
+        return readAt(openFileDescriptor.getRegularFile().getDescriptor(), position, dst);
+    }
 
-        int readBytes = 0;
-        for (int i = offset; i < fileSizeInBytes; i++) {
-            System.out.print(fileContent[i] + " ");
-            readBytes++;
-            if (readBytes >= sizeInBytes) {
-                System.out.println();
-                return;
+    /**
+     * Reads from the current offset of the open file filling the buffers one after another and advances the offset.
+     *
+     * @return total number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor
+     */
+    public long readv(int fileDescriptor, ByteBuffer[] dsts) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return -1;
+        }
+        FileDescriptor descriptor = openFileDescriptor.getRegularFile().getDescriptor();
+        synchronized (openFileDescriptor) {
+            int offset = openFileDescriptor.getOffset();
+            for (ByteBuffer dst : dsts) {
+                int readBytes = readAt(descriptor, offset, dst);
+                if (readBytes < 0) {
+                    return -1;
+                }
+                offset += readBytes;
+                if (dst.hasRemaining()) {
+                    break;
+                }
             }
+            long readBytes = offset - openFileDescriptor.getOffset();
+            openFileDescriptor.setOffset(offset);
+            return readBytes;
         }
-        System.out.println();
     }
 
-    public void writeToFile(int fileDescriptor, int sizeInBytes) {
-        OpenFileDescriptor openFileDescriptor = openFileDescriptors.get(fileDescriptor);
+    /**
+     * Writes {@code src} at the current offset of the open file and advances the offset,
+     * the file grows when the data goes past its end.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor or data going past the largest file size
+     */
+    public int write(int fileDescriptor, ByteBuffer src) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
         if (openFileDescriptor == null) {
-            System.out.println("Unknown file descriptor");
-            return;
+            return -1;
+        }
+        synchronized (openFileDescriptor) {
+            int wroteBytes = writeAt(openFileDescriptor.getRegularFile(), openFileDescriptor.getOffset(), src);
+            if (wroteBytes > 0) {
+                openFileDescriptor.setOffset(openFileDescriptor.getOffset() + wroteBytes);
+            }
+            return wroteBytes;
+        }
+    }
+
+    /**
+     * Writes {@code src} at the given position of the open file, the offset of the file is not changed.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor, a negative position or data going past
+     * the largest file size
+     */
+    public int pwrite(int fileDescriptor, ByteBuffer src, int position) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return -1;
         }
+        return writeAt(openFileDescriptor.getRegularFile(), position, src);
+    }
 
+    /**
+     * Writes the buffers one after another at the current offset of the open file and advances the offset.
+     *
+     * @return total number of bytes written, -1 for an unknown file descriptor or data going past the largest file size
+     */
+    public long writev(int fileDescriptor, ByteBuffer[] srcs) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
+        if (openFileDescriptor == null) {
+            return -1;
+        }
         RegularFile file = openFileDescriptor.getRegularFile();
+        long totalBytes = 0;
+        for (ByteBuffer src : srcs) {
+            totalBytes += src.remaining();
+        }
+        synchronized (openFileDescriptor) {
+            int offset = openFileDescriptor.getOffset();
+            if (offset + totalBytes > Integer.MAX_VALUE) {
+                return -1;
+            }
+            // grow once for the whole batch instead of once per buffer
+            ensureFileSize(file, (int) (offset + totalBytes));
+            for (ByteBuffer src : srcs) {
+                offset += writeAt(file, offset, src);
+            }
+            openFileDescriptor.setOffset(offset);
+        }
+        return totalBytes;
+    }
 
-        List<Block> fileBlockList = file.getDescriptor().getBlockList();
+    /**
+     * Copies {@code length} bytes at {@code offset} of one open file to the same offset of another one, the
+     * target grows if needed. Whole blocks are not copied but shared by both files until either is written,
+     * so the cost depends on the metadata only. Offsets of the open files are not moved.
+     *
+     * @return number of bytes copied, 0 at the end of the source file, -1 for an unknown file descriptor or
+     * a range which is negative or goes past the largest file size
+     */
+    public long copyFileRange(int fileDescriptorIn, int fileDescriptorOut, int offset, int length) {
+        OpenFileDescriptor openFileDescriptorIn = currentProcess().getOpenFileDescriptor(fileDescriptorIn);
+        OpenFileDescriptor openFileDescriptorOut = currentProcess().getOpenFileDescriptor(fileDescriptorOut);
+        if (openFileDescriptorIn == null || openFileDescriptorOut == null) {
+            return -1;
+        }
+        if (offset < 0 || length < 0 || length > Integer.MAX_VALUE - offset) {
+            return -1;
+        }
+        FileDescriptor source = openFileDescriptorIn.getRegularFile().getDescriptor();
+        RegularFile target = openFileDescriptorOut.getRegularFile();
+        length = Math.max(Math.min(length, source.getFileSizeInBytes() - offset), 0);
+        if (length == 0) {
+            return 0;
+        }
+        ensureFileSize(target, offset + length);
+        int blockSize = blockDevice.getBlockSize();
+        int fromBlockIndex = (offset + blockSize - 1) / blockSize;
+        int toBlockIndex = (offset + length) / blockSize;
+        // a file doesn't share blocks with itself
+        if (source == target.getDescriptor() || fromBlockIndex >= toBlockIndex) {
+            copyBytes(source, target, offset, length);
+            return length;
+        }
+        copyBytes(source, target, offset, fromBlockIndex * blockSize - offset);
+        target.getDescriptor().shareBlocks(source, fromBlockIndex, toBlockIndex);
+        copyBytes(source, target, toBlockIndex * blockSize, offset + length - toBlockIndex * blockSize);
+        markDirty(target);
+        return length;
+    }
 
-        int offset = openFileDescriptor.getOffset();
+    private void copyBytes(FileDescriptor source, RegularFile target, int position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readAt(source, position, buffer);
+        buffer.flip();
+        writeAt(target, position, buffer);
+    }
 
-        int fileSizeInBytes = file.getDescriptor().getFileSizeInBytes();
-        if (offset > fileSizeInBytes) {
-            System.out.printf("Offset is bigger that fileSize: [offset = %d, filesize = %d]%n", offset, fileSizeInBytes);
-            return;
+    // -1 for a negative position
+    private int readAt(FileDescriptor descriptor, int position, ByteBuffer dst) {
+        if (position < 0) {
+            return -1;
+        }
+        if (position >= descriptor.getFileSizeInBytes()) {
+            return 0;
         }
+        return descriptor.read(position, dst);
+    }
 
-        int startBlockToWritePosition = 0;
-        int remainderInStartBlock = 0;
-        if (offset > 0) {
-            startBlockToWritePosition = offset / Block.BLOCK_SIZE;
-            remainderInStartBlock = offset - startBlockToWritePosition * Block.BLOCK_SIZE;
+    // -1 for a negative position or data going past the largest file size
+    private int writeAt(RegularFile file, int position, ByteBuffer src) {
+        if (position < 0 || src.remaining() > Integer.MAX_VALUE - position) {
+            return -1;
         }
+        ensureFileSize(file, position + src.remaining());
+        return file.getDescriptor().write(position, src);
+    }
 
-        Block startBlock = fileBlockList.get(startBlockToWritePosition);
-        int wroteBytes = 0;
-        // write to the start block from the offset
-        while (wroteBytes < sizeInBytes && wroteBytes + remainderInStartBlock < Block.BLOCK_SIZE && offset + wroteBytes < fileSizeInBytes) {
-            byte[] data = startBlock.getData();
-            for (int i = remainderInStartBlock; i < data.length; i++) {
-                data[i] = (byte) 1;
-                wroteBytes++;
-                if (wroteBytes >= sizeInBytes || offset + wroteBytes == fileSizeInBytes) {
-                    return;
-                }
-            }
+    // growing by a write is logged but not waited for, it becomes durable with the next commit or fsync
+    private void ensureFileSize(RegularFile file, int sizeInBytes) {
+        FileDescriptor descriptor = file.getDescriptor();
+        if (sizeInBytes <= descriptor.getFileSizeInBytes()) {
+            return;
         }
-        for (int i = startBlockToWritePosition + 1; i < fileBlockList.size(); i++) {
-            Block blockToWrite = fileBlockList.get(i);
-            byte[] data = blockToWrite.getData();
-            for (int j = 0; j < data.length; j++) {
-                data[j] = (byte) 1;
-                wroteBytes++;
-                if (wroteBytes >= sizeInBytes || offset + wroteBytes == fileSizeInBytes) {
-                    return;
-                }
+        descriptor.getLock().writeLock().lock();
+        try {
+            if (!descriptor.growFileSize(sizeInBytes)) {
+                return;
             }
+            logFileResized(descriptor);
+        } finally {
+            descriptor.getLock().writeLock().unlock();
         }
+        markDirty(file);
     }
 
-    public void changeOffsetForFile(int fileDescriptor, int offset) {
-        OpenFileDescriptor openFileDescriptor = openFileDescriptors.get(fileDescriptor);
+    public boolean changeOffsetForFile(int fileDescriptor, int offset) {
+        OpenFileDescriptor openFileDescriptor = currentProcess().getOpenFileDescriptor(fileDescriptor);
         if (openFileDescriptor == null) {
-            System.out.println("Unknown file descriptor");
-            return;
+            getOutput().println("Unknown file descriptor");
+            return false;
+        }
+        if (offset < 0) {
+            getOutput().println("Offset can't be negative");
+            return false;
         }
-        openFileDescriptor.setOffset(offset);
+        synchronized (openFileDescriptor) {
+            openFileDescriptor.setOffset(offset);
+        }
+        return true;
     }
 
-    public void changeFileSize(String pathname, int sizeInBytes) {
+    public boolean changeFileSize(String pathname, int sizeInBytes) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
-        RegularFile fileToChangeSize = (RegularFile) currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName) && file instanceof RegularFile).findFirst().orElse(null);
+        RegularFile fileToChangeSize = findRegularFile(currDirectory, fileName);
         if (fileToChangeSize == null) {
-            System.out.println("No such file to truncate");
-            return;
+            getOutput().println("No such file to truncate");
+            return false;
         }
-        fileToChangeSize.getDescriptor().changeFileSize(sizeInBytes);
+        FileDescriptor descriptor = fileToChangeSize.getDescriptor();
+        long lsn;
+        // logged under the lock, so resizes of the file are logged in the order they are made
+        descriptor.getLock().writeLock().lock();
+        try {
+            descriptor.changeFileSize(sizeInBytes);
+            lsn = logFileResized(descriptor);
+        } finally {
+            descriptor.getLock().writeLock().unlock();
+        }
+        markDirty(fileToChangeSize);
+        commitJournal(lsn);
+        return true;
     }
 
-    public void link(String pathname, String hardLinkPathname) {
+    public boolean link(String pathname, String hardLinkPathname) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
-        RegularFile fileToLink = (RegularFile) currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName) && file instanceof RegularFile).findFirst().orElse(null);
+        RegularFile fileToLink = findRegularFile(currDirectory, fileName);
         if (fileToLink == null) {
-            System.out.println("No such file to link");
-            return;
+            getOutput().println("No such file to link");
+            return false;
         }
         FileDescriptor descriptor = fileToLink.getDescriptor();
-        List<File> files = fileDescriptors.get(descriptor);
 
         // TODO: check if hardlink pathname is OK
         RegularFile regularFile = RegularFile.createInstance(descriptor, hardLinkPathname);
-        currDirectory.getContent().add(regularFile);
-        files.add(regularFile);
+        if (!currDirectory.addFile(regularFile)) {
+            getOutput().println("This file already exists");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates a copy of the regular file which shares all blocks with it, see {@link #copyFileRange(int, int, int, int)}.
+     */
+    public boolean cloneFile(String pathname, String clonePathname) {
+        LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
+        RegularFile fileToClone = findRegularFile(lookupResponse.getCurrentDirectory(), lookupResponse.getFileName());
+        if (fileToClone == null) {
+            getOutput().println("No such file to clone");
+            return false;
+        }
+        LookupResponse cloneLookupResponse = FileSystemUtils.lookup(clonePathname, true);
+        DirectoryFile currDirectory = cloneLookupResponse.getCurrentDirectory();
+        if (currDirectory == null) {
+            getOutput().println("No such directory");
+            return false;
+        }
+        if (currDirectory.containsFile(cloneLookupResponse.getFileName())) {
+            getOutput().println("This file already exists");
+            return false;
+        }
+        FileDescriptor source = fileToClone.getDescriptor();
+        RegularFile clone = RegularFile.createInstance(cloneLookupResponse.getFileName());
+        FileDescriptor descriptor = clone.getDescriptor();
+        // the clone is not visible yet, so its size and blocks are set before it gets its name
+        int fileSizeInBytes = source.getFileSizeInBytes();
+        descriptor.changeFileSize(fileSizeInBytes);
+        descriptor.shareBlocks(source, 0, (fileSizeInBytes + blockDevice.getBlockSize() - 1) / blockDevice.getBlockSize());
+        if (!addFile(currDirectory, clone)) {
+            return false;
+        }
+        long lsn;
+        descriptor.getLock().writeLock().lock();
+        try {
+            lsn = logFileResized(descriptor);
+        } finally {
+            descriptor.getLock().writeLock().unlock();
+        }
+        markDirty(clone);
+        commitJournal(lsn);
+        return true;
     }
 
-    public void unlink(String pathname) {
+    public boolean unlink(String pathname) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
-        RegularFile fileFound = (RegularFile) currDirectory.getContent().stream().filter(file -> file.getName().equals(fileName) && file instanceof RegularFile).findFirst().orElse(null);
+        RegularFile fileFound = findRegularFile(currDirectory, fileName);
         if (fileFound == null) {
-            System.out.println("No such file to unlink");
-            return;
+            getOutput().println("No such file to unlink");
+            return false;
         }
-        FileDescriptor descriptor = fileFound.getDescriptor();
-        List<File> files = fileDescriptors.get(descriptor);
-        files.remove(fileFound);
-        currDirectory.getContent().removeIf(file -> file.getName().equals(fileName) && file instanceof RegularFile);
+        if (currDirectory.removeFile(fileName, RegularFile.class) == null) {
+            getOutput().println("No such file to unlink");
+            return false;
+        }
+        return true;
     }
 
-    public void createSymbolicLink(String pathname, String content) {
+    public boolean createSymbolicLink(String pathname, String content) {
         LookupResponse lookupResponse = FileSystemUtils.lookup(pathname, true);
         DirectoryFile currDirectory = lookupResponse.getCurrentDirectory();
         String fileName = lookupResponse.getFileName();
+        if (currDirectory == null) {
+            getOutput().println("No such directory");
+            return false;
+        }
+        if (currDirectory.containsFile(fileName)) {
+            getOutput().println("This file already exists");
+            return false;
+        }
         SymbolicLinkFile symbolicLinkFile = SymbolicLinkFile.createInstance(fileName, content);
-        currDirectory.getContent().add(symbolicLinkFile);
+        return addFile(currDirectory, symbolicLinkFile);
+    }
+
+    private static RegularFile findRegularFile(DirectoryFile directory, String fileName) {
+        if (directory == null) {
+            return null;
+        }
+        File file = directory.getFile(fileName);
+        return file instanceof RegularFile ? (RegularFile) file : null;
     }
 }
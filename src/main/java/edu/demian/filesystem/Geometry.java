@@ -0,0 +1,67 @@
+package edu.demian.filesystem;
+
+import edu.demian.filesystem.device.BlockDevice;
+
+/**
+ * Layout chosen when a file system is created: the number of file descriptors, the size of a block and the
+ * number of blocks a new file starts with. New files are holes, so the initial blocks only set their size.
+ */
+public class Geometry {
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_INITIAL_BLOCK_COUNT = 4;
+
+    private final int numberOfDescriptors;
+    private final int blockSize;
+    private final int initialBlockCount;
+
+    // not checked, images keep the geometry they were formatted with
+    Geometry(int numberOfDescriptors, int blockSize, int initialBlockCount) {
+        this.numberOfDescriptors = numberOfDescriptors;
+        this.blockSize = blockSize;
+        this.initialBlockCount = initialBlockCount;
+    }
+
+    /**
+     * @param blockSize power of two from {@link #MIN_BLOCK_SIZE} to {@link #MAX_BLOCK_SIZE}
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public static Geometry createInstance(int numberOfDescriptors, int blockSize, int initialBlockCount) {
+        if (numberOfDescriptors <= 0) {
+            throw new IllegalArgumentException("Number of file descriptors must be positive: " + numberOfDescriptors);
+        }
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException(String.format("Block size must be a power of two from %d to %d: %d",
+                    MIN_BLOCK_SIZE, MAX_BLOCK_SIZE, blockSize));
+        }
+        if (initialBlockCount < 0 || (long) initialBlockCount * blockSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Initial block count is out of range: " + initialBlockCount);
+        }
+        return new Geometry(numberOfDescriptors, blockSize, initialBlockCount);
+    }
+
+    /**
+     * @return the geometry of file systems created without one, with blocks of {@link BlockDevice#DEFAULT_BLOCK_SIZE}
+     */
+    public static Geometry createDefaultInstance(int numberOfDescriptors) {
+        return new Geometry(numberOfDescriptors, BlockDevice.DEFAULT_BLOCK_SIZE, DEFAULT_INITIAL_BLOCK_COUNT);
+    }
+
+    public int getNumberOfDescriptors() {
+        return numberOfDescriptors;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getInitialBlockCount() {
+        return initialBlockCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[descriptors = %d; block size = %d; initial blocks = %d]", numberOfDescriptors, blockSize, initialBlockCount);
+    }
+}
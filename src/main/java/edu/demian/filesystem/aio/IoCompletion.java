@@ -0,0 +1,36 @@
+package edu.demian.filesystem.aio;
+
+/**
+ * Outcome of an {@link IoRequest}: what the matching call of the file system returned, or -1 and the error it threw.
+ */
+public class IoCompletion {
+
+    private final IoRequest request;
+    private final long result;
+    private final Throwable error;
+
+    IoCompletion(IoRequest request, long result, Throwable error) {
+        this.request = request;
+        this.result = result;
+        this.error = error;
+    }
+
+    public IoRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the new file descriptor for an open, the number of bytes for a read or a write, 0 for a close or an fsync
+     * and -1 on failure
+     */
+    public long getResult() {
+        return result;
+    }
+
+    /**
+     * @return the exception thrown by the call or null
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
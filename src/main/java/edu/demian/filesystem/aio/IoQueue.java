@@ -0,0 +1,323 @@
+package edu.demian.filesystem.aio;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.process.ProcessContext;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Submission and completion queue in front of the file system, so a caller can keep many operations in flight.
+ * <p>
+ * Requests are submitted in batches on behalf of the calling process. A worker takes the batches waiting in
+ * the submission queue at once, up to {@link #MAX_MERGED_REQUESTS} requests, and runs them one after another
+ * in the order they were submitted. Reads or writes of the same open file which directly follow each other
+ * in that order and cover adjacent ranges are coalesced into a single call, up to {@link #MAX_COALESCED_BYTES}.
+ * Batches taken by different workers run concurrently, so requests which depend on each other belong to one
+ * batch or wait for the completion of the previous one.
+ * <p>
+ * Every request completes its future. A queue created with a completion queue also posts every completion
+ * there, the workers wait while it is full until the caller {@link #poll() polls} it.
+ * <p>
+ * Calls are made through the {@link Handler} the queue is created with, while the process which submitted
+ * the request is attached to the worker.
+ */
+public class IoQueue implements AutoCloseable {
+
+    public static final int MAX_MERGED_REQUESTS = 256;
+    public static final int MAX_COALESCED_BYTES = 1024 * 1024;
+
+    private final BlockingQueue<List<Submission>> submissions = new LinkedBlockingQueue<>();
+    // null if completions are only passed to the futures
+    private final BlockingQueue<IoCompletion> completions;
+    private final Handler handler;
+    private final List<Thread> workers = new ArrayList<>();
+    // guarded by this, so no batch is submitted after the workers were told to stop
+    private boolean closed;
+
+    private final LongAdder submittedRequests = new LongAdder();
+    private final LongAdder executedCalls = new LongAdder();
+
+    private IoQueue(int completionQueueCapacity, Handler handler) {
+        this.handler = handler;
+        this.completions = completionQueueCapacity > 0 ? new ArrayBlockingQueue<>(completionQueueCapacity) : null;
+    }
+
+    /**
+     * @param completionQueueCapacity 0 for a queue whose completions are only passed to the futures
+     */
+    public static IoQueue createInstance(int workerCount, int completionQueueCapacity, Handler handler) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Number of workers must be positive: " + workerCount);
+        }
+        IoQueue queue = new IoQueue(completionQueueCapacity, handler);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(queue::work, "io-worker-" + i);
+            worker.setDaemon(true);
+            queue.workers.add(worker);
+            worker.start();
+        }
+        return queue;
+    }
+
+    public CompletableFuture<IoCompletion> submit(IoRequest request) {
+        return submit(Collections.singletonList(request)).get(0);
+    }
+
+    /**
+     * Submits requests which run in this order on behalf of the calling process.
+     *
+     * @return futures of the requests in the same order
+     * @throws IllegalStateException if the queue is closed
+     */
+    public List<CompletableFuture<IoCompletion>> submit(List<IoRequest> requests) {
+        ProcessContext process = FileSystem.getInstance().currentProcess();
+        List<Submission> batch = new ArrayList<>(requests.size());
+        List<CompletableFuture<IoCompletion>> futures = new ArrayList<>(requests.size());
+        for (IoRequest request : requests) {
+            Submission submission = new Submission(process, request);
+            batch.add(submission);
+            futures.add(submission.future);
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("I/O queue is closed");
+            }
+            submittedRequests.add(requests.size());
+            submissions.add(batch);
+        }
+        return futures;
+    }
+
+    /**
+     * @return the oldest completion or null if there is none
+     * @throws IllegalStateException if the queue has no completion queue
+     */
+    public IoCompletion poll() {
+        return completionQueue().poll();
+    }
+
+    /**
+     * Waits up to {@code timeout} for a completion.
+     *
+     * @return the oldest completion or null if there is none yet
+     */
+    public IoCompletion poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return completionQueue().poll(timeout, unit);
+    }
+
+    private BlockingQueue<IoCompletion> completionQueue() {
+        if (completions == null) {
+            throw new IllegalStateException("I/O queue has no completion queue");
+        }
+        return completions;
+    }
+
+    /**
+     * @return number of requests submitted so far
+     */
+    public long getSubmittedRequests() {
+        return submittedRequests.sum();
+    }
+
+    /**
+     * @return number of calls to the file system made so far, fewer than the requests if some were coalesced
+     */
+    public long getExecutedCalls() {
+        return executedCalls.sum();
+    }
+
+    /**
+     * Runs the requests submitted so far and stops the workers. Completions not polled yet stay in the queue.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (int i = 0; i < workers.size(); i++) {
+                // an empty batch stops the worker which takes it, after the batches submitted before it
+                submissions.add(Collections.emptyList());
+            }
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        List<Submission> merged = new ArrayList<>();
+        while (true) {
+            List<Submission> batch;
+            try {
+                batch = submissions.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            merged.addAll(batch);
+            // takes the batches waiting behind it as well, unless another worker takes them first
+            for (List<Submission> next = submissions.peek(); next != null && !next.isEmpty()
+                    && merged.size() + next.size() <= MAX_MERGED_REQUESTS && submissions.remove(next); next = submissions.peek()) {
+                merged.addAll(next);
+            }
+            execute(merged);
+            merged.clear();
+        }
+    }
+
+    private void execute(List<Submission> merged) {
+        for (int start = 0; start < merged.size(); ) {
+            int end = start + 1;
+            int length = merged.get(start).length();
+            while (end < merged.size() && continues(merged.get(end - 1), merged.get(end))
+                    && length + merged.get(end).length() <= MAX_COALESCED_BYTES) {
+                length += merged.get(end).length();
+                end++;
+            }
+            List<Submission> run = merged.subList(start, end);
+            FileSystem fileSystem = FileSystem.getInstance();
+            fileSystem.attachProcess(run.get(0).process);
+            try {
+                if (run.size() == 1) {
+                    complete(run.get(0), call(run.get(0).request), null);
+                } else {
+                    callCoalesced(run, length);
+                }
+            } catch (RuntimeException e) {
+                for (Submission submission : run) {
+                    complete(submission, -1, e);
+                }
+            } finally {
+                fileSystem.detachProcess();
+            }
+            executedCalls.increment();
+            start = end;
+        }
+    }
+
+    private long call(IoRequest request) {
+        switch (request.getType()) {
+            case OPEN:
+                return handler.open(request.getPathname());
+            case CLOSE:
+                return handler.close(request.getFileDescriptor());
+            case FSYNC:
+                return handler.fsync(request.getFileDescriptor());
+            case READ:
+                return handler.pread(request.getFileDescriptor(), request.getBuffer(), request.getPosition());
+            case WRITE:
+                return handler.pwrite(request.getFileDescriptor(), request.getBuffer(), request.getPosition());
+            default:
+                throw new IllegalStateException("Unknown request type: " + request.getType());
+        }
+    }
+
+    // one read or write covering the adjacent ranges of all the requests, each gets its part of the result
+    private void callCoalesced(List<Submission> run, int length) {
+        IoRequest first = run.get(0).request;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        int result;
+        if (first.getType() == IoRequest.Type.WRITE) {
+            for (Submission submission : run) {
+                buffer.put(submission.request.getBuffer().duplicate());
+            }
+            buffer.flip();
+            result = handler.pwrite(first.getFileDescriptor(), buffer, first.getPosition());
+        } else {
+            result = handler.pread(first.getFileDescriptor(), buffer, first.getPosition());
+        }
+        int offset = 0;
+        for (Submission submission : run) {
+            ByteBuffer requestBuffer = submission.request.getBuffer();
+            int requestLength = submission.length();
+            if (result < 0) {
+                complete(submission, -1, null);
+                continue;
+            }
+            int transferred = Math.max(0, Math.min(requestLength, result - offset));
+            if (first.getType() == IoRequest.Type.WRITE) {
+                requestBuffer.position(requestBuffer.position() + transferred);
+            } else {
+                // requests past a short read get nothing
+                requestBuffer.put(buffer.array(), offset, transferred);
+            }
+            complete(submission, transferred, null);
+            offset += requestLength;
+        }
+    }
+
+    private static boolean continues(Submission previous, Submission next) {
+        IoRequest.Type type = previous.request.getType();
+        return (type == IoRequest.Type.READ || type == IoRequest.Type.WRITE)
+                && next.request.getType() == type
+                && next.process == previous.process
+                && next.request.getFileDescriptor() == previous.request.getFileDescriptor()
+                && next.request.getPosition() == (long) previous.request.getPosition() + previous.length();
+    }
+
+    private void complete(Submission submission, long result, Throwable error) {
+        IoCompletion completion = new IoCompletion(submission.request, result, error);
+        if (completions != null) {
+            try {
+                completions.put(completion);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error != null) {
+            submission.future.completeExceptionally(error);
+        } else {
+            submission.future.complete(completion);
+        }
+    }
+
+    /**
+     * Calls made by the queue, each returns -1 on failure like the calls of the operating system.
+     */
+    public interface Handler {
+
+        int open(String pathname);
+
+        int close(int fileDescriptor);
+
+        int fsync(int fileDescriptor);
+
+        int pread(int fileDescriptor, ByteBuffer dst, int position);
+
+        int pwrite(int fileDescriptor, ByteBuffer src, int position);
+    }
+
+    private static class Submission {
+
+        private final ProcessContext process;
+        private final IoRequest request;
+        private final CompletableFuture<IoCompletion> future = new CompletableFuture<>();
+
+        private Submission(ProcessContext process, IoRequest request) {
+            this.process = process;
+            this.request = request;
+        }
+
+        private int length() {
+            ByteBuffer buffer = request.getBuffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package edu.demian.filesystem.aio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Operation submitted to an {@link IoQueue}. Reads and writes are positioned like pread and pwrite and advance
+ * the position of their buffer, the offset of the open file is never used.
+ */
+public class IoRequest {
+
+    public enum Type {
+        OPEN,
+        CLOSE,
+        FSYNC,
+        READ,
+        WRITE
+    }
+
+    private final Type type;
+    private final String pathname;
+    private final int fileDescriptor;
+    private final ByteBuffer buffer;
+    private final int position;
+
+    private IoRequest(Type type, String pathname, int fileDescriptor, ByteBuffer buffer, int position) {
+        this.type = type;
+        this.pathname = pathname;
+        this.fileDescriptor = fileDescriptor;
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    public static IoRequest open(String pathname) {
+        return new IoRequest(Type.OPEN, pathname, -1, null, 0);
+    }
+
+    public static IoRequest close(int fileDescriptor) {
+        return new IoRequest(Type.CLOSE, null, fileDescriptor, null, 0);
+    }
+
+    public static IoRequest fsync(int fileDescriptor) {
+        return new IoRequest(Type.FSYNC, null, fileDescriptor, null, 0);
+    }
+
+    public static IoRequest read(int fileDescriptor, ByteBuffer dst, int position) {
+        return new IoRequest(Type.READ, null, fileDescriptor, dst, position);
+    }
+
+    public static IoRequest write(int fileDescriptor, ByteBuffer src, int position) {
+        return new IoRequest(Type.WRITE, null, fileDescriptor, src, position);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPathname() {
+        return pathname;
+    }
+
+    public int getFileDescriptor() {
+        return fileDescriptor;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.OPEN ? String.format("[%s %s]", type, pathname)
+                : String.format("[%s fd = %d; position = %d]", type, fileDescriptor, position);
+    }
+}
@@ -0,0 +1,399 @@
+package edu.demian.filesystem.cache;
+
+import edu.demian.filesystem.dedup.Deduplicator;
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.file.descriptor.BlockMap;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of file data between file descriptors and the block device.
+ * <p>
+ * A page holds {@link #PAGE_SIZE_IN_BYTES} of a file (or a single block if blocks are bigger) and is keyed by
+ * the descriptor id and the page index. Written pages stay dirty in memory until they are evicted, flushed
+ * for their file on close or fsync, or flushed all at once on sync. A page remembers which of its blocks were
+ * written, only those are written back.
+ * <p>
+ * Pages are evicted with the CLOCK algorithm: every access sets the referenced bit of a page, the hand clears
+ * bits until it meets a page which was not referenced since its last pass. The cache is split into
+ * independently locked segments, each with a clock of its own. A segment also indexes its pages by file, so
+ * flushing or invalidating a file visits the pages of that file only.
+ * <p>
+ * Callers hold the read lock of the descriptor while reading or writing, so its block map does not change
+ * underneath. A page remembers the physical blocks it was read from, so it can be written back later without
+ * the descriptor; a descriptor must {@link #invalidate(FileDescriptor, int)} its pages before freeing blocks.
+ * Holes of sparse files are filled with zeros without touching the device, a block allocated for a hole or
+ * instead of a block shared with a snapshot is reported by {@link #blockAllocated(FileDescriptor, int, int)}.
+ * Compressed blocks are decompressed by the descriptor when they are read, so cached pages hold plain data.
+ * Every block written back is reported to the {@link Deduplicator}.
+ */
+public class PageCache {
+
+    public static final long DEFAULT_CAPACITY_IN_BYTES = 16 * 1024 * 1024;
+    public static final int PAGE_SIZE_IN_BYTES = 4096;
+    private static final int SEGMENT_COUNT = 16;
+
+    private final BlockDevice blockDevice;
+    private final Deduplicator deduplicator;
+    private final int blockSize;
+    private final int blocksPerPage;
+    private final int pageSize;
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writeBacks = new LongAdder();
+
+    public PageCache(BlockDevice blockDevice, Deduplicator deduplicator, long capacityInBytes) {
+        this.blockDevice = blockDevice;
+        this.deduplicator = deduplicator;
+        this.blockSize = blockDevice.getBlockSize();
+        this.blocksPerPage = Math.max(1, PAGE_SIZE_IN_BYTES / blockSize);
+        this.pageSize = blocksPerPage * blockSize;
+        int pagesPerSegment = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacityInBytes / pageSize / SEGMENT_COUNT));
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(pagesPerSegment);
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Reads {@code length} bytes at {@code position} of the file, the range must lie within a single page
+     * and within blocks of the file.
+     */
+    public void read(FileDescriptor descriptor, int position, ByteBuffer dst, int length) {
+        int pageIndex = position / pageSize;
+        int offsetInPage = position - pageIndex * pageSize;
+        Segment segment = segmentFor(descriptor.getId(), pageIndex);
+        synchronized (segment) {
+            Page page = segment.getPage(descriptor, pageIndex, offsetInPage + length);
+            dst.put(page.data, offsetInPage, length);
+        }
+    }
+
+    /**
+     * Writes {@code length} bytes at {@code position} of the file, the range must lie within a single page
+     * and within blocks of the file.
+     */
+    public void write(FileDescriptor descriptor, int position, ByteBuffer src, int length) {
+        int pageIndex = position / pageSize;
+        int offsetInPage = position - pageIndex * pageSize;
+        Segment segment = segmentFor(descriptor.getId(), pageIndex);
+        synchronized (segment) {
+            Page page = segment.getPage(descriptor, pageIndex, offsetInPage + length);
+            src.get(page.data, offsetInPage, length);
+            page.markDirty(offsetInPage / blockSize, (offsetInPage + length + blockSize - 1) / blockSize);
+        }
+    }
+
+    /**
+     * Lets a cached page write the block back to its new place. The caller holds the write lock of the descriptor.
+     */
+    public void blockAllocated(FileDescriptor descriptor, int blockIndex, int physicalBlock) {
+        int pageIndex = blockIndex / blocksPerPage;
+        Segment segment = segmentFor(descriptor.getId(), pageIndex);
+        synchronized (segment) {
+            Integer slot = segment.index.get(keyOf(descriptor.getId(), pageIndex));
+            if (slot != null) {
+                Page page = segment.pages[slot];
+                int blockInPage = blockIndex - pageIndex * blocksPerPage;
+                if (blockInPage < page.mappedBlocks) {
+                    page.physicalBlocks[blockInPage] = physicalBlock;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back the dirty pages of the file.
+     */
+    public void flush(FileDescriptor descriptor) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                NavigableMap<Integer, Integer> pagesOfFile = segment.filePages.get(descriptor.getId());
+                if (pagesOfFile == null) {
+                    continue;
+                }
+                for (int slot : pagesOfFile.values()) {
+                    writeBack(segment.pages[slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back all dirty pages.
+     */
+    public void flushAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Page page : segment.pages) {
+                    if (page != null) {
+                        writeBack(page);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the pages of the file holding block {@code fromBlockIndex} and all blocks after it. A page which
+     * also holds blocks before it is written back first. The caller holds the write lock of the descriptor.
+     */
+    public void invalidate(FileDescriptor descriptor, int fromBlockIndex) {
+        invalidate(descriptor, fromBlockIndex, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drops the pages of the file holding blocks {@code [fromBlockIndex, toBlockIndex)}. A page which also holds
+     * blocks out of the range is written back first. The caller holds the write lock of the descriptor.
+     */
+    public void invalidate(FileDescriptor descriptor, int fromBlockIndex, int toBlockIndex) {
+        int fromPageIndex = fromBlockIndex / blocksPerPage;
+        int toPageIndex = (int) (((long) toBlockIndex + blocksPerPage - 1) / blocksPerPage);
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                NavigableMap<Integer, Integer> pagesOfFile = segment.filePages.get(descriptor.getId());
+                if (pagesOfFile == null) {
+                    continue;
+                }
+                // removing a page changes the index
+                List<Integer> slots = new ArrayList<>(pagesOfFile.subMap(fromPageIndex, true, toPageIndex, false).values());
+                for (int slot : slots) {
+                    Page page = segment.pages[slot];
+                    long firstBlockIndex = (long) page.pageIndex * blocksPerPage;
+                    long endBlockIndex = firstBlockIndex + blocksPerPage;
+                    if (firstBlockIndex < fromBlockIndex || endBlockIndex > toBlockIndex) {
+                        writeBack(page);
+                    }
+                    segment.remove(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all pages, dirty pages are lost. Used once the block maps of many files changed at once.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int i = 0; i < segment.pages.length; i++) {
+                    if (segment.pages[i] != null && segment.pages[i].descriptorId >= 0) {
+                        segment.remove(i);
+                    }
+                }
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hitCount = getHits();
+        long accessCount = hitCount + getMisses();
+        return accessCount == 0 ? 0 : (double) hitCount / accessCount;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getWriteBacks() {
+        return writeBacks.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.index.size();
+            }
+        }
+        return size;
+    }
+
+    private void writeBack(Page page) {
+        if (!page.dirty) {
+            return;
+        }
+        for (int word = 0; word < page.dirtyBlocks.length; word++) {
+            for (long bits = page.dirtyBlocks[word]; bits != 0; bits &= bits - 1) {
+                int block = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                // holes and compressed blocks are never written, they are allocated first
+                if (block >= page.mappedBlocks || page.physicalBlocks[block] < 0) {
+                    continue;
+                }
+                blockDevice.write(page.physicalBlocks[block], 0, ByteBuffer.wrap(page.data, block * blockSize, blockSize), blockSize);
+                deduplicator.blockWritten(page.descriptor, page.pageIndex * blocksPerPage + block, page.physicalBlocks[block]);
+            }
+        }
+        page.clearDirty();
+        writeBacks.increment();
+    }
+
+    private Segment segmentFor(int descriptorId, int pageIndex) {
+        int hash = descriptorId * 31 + pageIndex;
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static long keyOf(int descriptorId, int pageIndex) {
+        return ((long) descriptorId << 32) | (pageIndex & 0xFFFFFFFFL);
+    }
+
+    private class Segment {
+
+        private final Page[] pages;
+        private final Map<Long, Integer> index = new HashMap<>();
+        // slots of the pages of each file by page index
+        private final Map<Integer, NavigableMap<Integer, Integer>> filePages = new HashMap<>();
+        private int hand;
+        private int used;
+
+        private Segment(int capacity) {
+            this.pages = new Page[capacity];
+        }
+
+        private Page getPage(FileDescriptor descriptor, int pageIndex, int endInPage) {
+            Integer slot = index.get(keyOf(descriptor.getId(), pageIndex));
+            Page page;
+            if (slot != null) {
+                hits.increment();
+                page = pages[slot];
+            } else {
+                misses.increment();
+                page = load(descriptor, pageIndex);
+            }
+            page.referenced = true;
+            // the file may have grown since the page was read
+            map(page, descriptor, (endInPage + blockSize - 1) / blockSize);
+            return page;
+        }
+
+        private Page load(FileDescriptor descriptor, int pageIndex) {
+            int slot = used < pages.length ? used++ : evict();
+            Page page = pages[slot];
+            if (page == null) {
+                page = new Page(new byte[pageSize], new int[blocksPerPage], new long[(blocksPerPage + Long.SIZE - 1) / Long.SIZE]);
+                pages[slot] = page;
+            }
+            page.descriptorId = descriptor.getId();
+            page.descriptor = descriptor;
+            page.pageIndex = pageIndex;
+            page.mappedBlocks = 0;
+            page.clearDirty();
+            index.put(keyOf(page.descriptorId, pageIndex), slot);
+            filePages.computeIfAbsent(page.descriptorId, descriptorId -> new TreeMap<>()).put(pageIndex, slot);
+            int fileBlocks = (descriptor.getFileSizeInBytes() + blockSize - 1) / blockSize - pageIndex * blocksPerPage;
+            map(page, descriptor, Math.min(blocksPerPage, fileBlocks));
+            return page;
+        }
+
+        private void map(Page page, FileDescriptor descriptor, int blockCount) {
+            BlockMap blockMap = descriptor.getBlockMap();
+            for (int block = page.mappedBlocks; block < blockCount; block++) {
+                int physicalBlock = blockMap.getPhysicalBlock(page.pageIndex * blocksPerPage + block);
+                page.physicalBlocks[block] = physicalBlock;
+                if (physicalBlock == BlockMap.HOLE) {
+                    Arrays.fill(page.data, block * blockSize, (block + 1) * blockSize, (byte) 0);
+                } else if (physicalBlock == BlockMap.COMPRESSED) {
+                    descriptor.readCompressedBlock(page.pageIndex * blocksPerPage + block, page.data, block * blockSize);
+                } else {
+                    blockDevice.read(physicalBlock, 0, ByteBuffer.wrap(page.data, block * blockSize, blockSize), blockSize);
+                }
+            }
+            page.mappedBlocks = Math.max(page.mappedBlocks, blockCount);
+        }
+
+        private int evict() {
+            while (true) {
+                Page page = pages[hand];
+                int slot = hand;
+                hand = (hand + 1) % pages.length;
+                if (page.descriptorId < 0) {
+                    return slot;
+                }
+                if (page.referenced) {
+                    page.referenced = false;
+                    continue;
+                }
+                writeBack(page);
+                unindex(page);
+                evictions.increment();
+                return slot;
+            }
+        }
+
+        // the frame stays in place and is reused by the next load passing it
+        private void remove(int slot) {
+            Page page = pages[slot];
+            unindex(page);
+            page.descriptorId = -1;
+            page.descriptor = null;
+            page.clearDirty();
+        }
+
+        private void unindex(Page page) {
+            index.remove(keyOf(page.descriptorId, page.pageIndex));
+            NavigableMap<Integer, Integer> pagesOfFile = filePages.get(page.descriptorId);
+            pagesOfFile.remove(page.pageIndex);
+            if (pagesOfFile.isEmpty()) {
+                filePages.remove(page.descriptorId);
+            }
+        }
+    }
+
+    private static class Page {
+
+        private final byte[] data;
+        private final int[] physicalBlocks;
+        // a bit for every block of the page written since it was last written back
+        private final long[] dirtyBlocks;
+        private int descriptorId = -1;
+        private FileDescriptor descriptor;
+        private int pageIndex;
+        private int mappedBlocks;
+        // set while any bit of dirtyBlocks is
+        private boolean dirty;
+        private boolean referenced;
+
+        private Page(byte[] data, int[] physicalBlocks, long[] dirtyBlocks) {
+            this.data = data;
+            this.physicalBlocks = physicalBlocks;
+            this.dirtyBlocks = dirtyBlocks;
+        }
+
+        private void markDirty(int fromBlock, int toBlock) {
+            for (int block = fromBlock; block < toBlock; block++) {
+                dirtyBlocks[block / Long.SIZE] |= 1L << block;
+            }
+            dirty |= fromBlock < toBlock;
+        }
+
+        private void clearDirty() {
+            if (dirty) {
+                Arrays.fill(dirtyBlocks, 0);
+                dirty = false;
+            }
+        }
+    }
+}
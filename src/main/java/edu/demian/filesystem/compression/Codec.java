@@ -0,0 +1,24 @@
+package edu.demian.filesystem.compression;
+
+/**
+ * Lossless compression of byte arrays, the decompressed length is kept by the caller.
+ */
+public interface Codec {
+
+    /**
+     * @return size of the buffer {@link #compress(byte[], int, byte[])} needs for data of the given length
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses the first {@code length} bytes of {@code src} into {@code dst}.
+     *
+     * @return length of the compressed data
+     */
+    int compress(byte[] src, int length, byte[] dst);
+
+    /**
+     * Decompresses the first {@code length} bytes of {@code src} into {@code dst}, which must be filled exactly.
+     */
+    void decompress(byte[] src, int length, byte[] dst, int decompressedLength);
+}
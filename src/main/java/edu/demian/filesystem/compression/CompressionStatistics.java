@@ -0,0 +1,43 @@
+package edu.demian.filesystem.compression;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent compressing and decompressing the data of a file.
+ */
+public class CompressionStatistics {
+
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final LongAdder decompressedBytes = new LongAdder();
+    private final LongAdder decompressionNanos = new LongAdder();
+
+    public void compressed(int bytes, long nanos) {
+        compressedBytes.add(bytes);
+        compressionNanos.add(nanos);
+    }
+
+    public void decompressed(int bytes, long nanos) {
+        decompressedBytes.add(bytes);
+        decompressionNanos.add(nanos);
+    }
+
+    /**
+     * @return uncompressed bytes passed to the codec, including groups which were left uncompressed
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getCompressionNanos() {
+        return compressionNanos.sum();
+    }
+
+    public long getDecompressedBytes() {
+        return decompressedBytes.sum();
+    }
+
+    public long getDecompressionNanos() {
+        return decompressionNanos.sum();
+    }
+}
@@ -0,0 +1,119 @@
+package edu.demian.filesystem.compression;
+
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compresses the data of files which went cold.
+ * <p>
+ * Files report every read and write. While compression is enabled a background thread compresses the files
+ * which were not accessed for the configured time in groups of {@link #GROUP_SIZE_IN_BYTES}, a group stays
+ * uncompressed if compressing it saves no block. Compressed data is decompressed into the page cache when it is
+ * read, which keeps hot data uncompressed, and back into blocks of its own when it is written.
+ */
+public class Compressor {
+
+    public static final long DEFAULT_COLD_AFTER_MILLIS = 1000;
+    public static final long BACKGROUND_INTERVAL_MILLIS = 100;
+    public static final int GROUP_SIZE_IN_BYTES = 64 * 1024;
+
+    private final Codec codec = new Lz4Codec();
+    private volatile boolean enabled;
+    private volatile long coldAfterNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_COLD_AFTER_MILLIS);
+
+    // files accessed since they were compressed, by the time of the last access
+    private final Map<FileDescriptor, Long> accessedFiles = new ConcurrentHashMap<>();
+    // held by a pass over the accessed files, so the namespace can be rolled back in between
+    private final ReentrantLock passLock = new ReentrantLock();
+    private ScheduledExecutorService backgroundExecutor;
+
+    /**
+     * Switching compression off leaves the data compressed so far as it is.
+     */
+    public void configure(boolean enabled, long coldAfterMillis) {
+        // a running pass is finished first
+        passLock.lock();
+        try {
+            synchronized (this) {
+                this.coldAfterNanos = TimeUnit.MILLISECONDS.toNanos(coldAfterMillis);
+                if (this.enabled == enabled) {
+                    return;
+                }
+                this.enabled = enabled;
+                if (enabled) {
+                    backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "compressor");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    backgroundExecutor.scheduleWithFixedDelay(this::compressColdFiles, BACKGROUND_INTERVAL_MILLIS, BACKGROUND_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    backgroundExecutor.shutdown();
+                    backgroundExecutor = null;
+                    accessedFiles.clear();
+                }
+            }
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getColdAfterMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(coldAfterNanos);
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Called by a file on every read and write.
+     */
+    public void fileAccessed(FileDescriptor descriptor) {
+        if (enabled) {
+            accessedFiles.put(descriptor, System.nanoTime());
+        }
+    }
+
+    /**
+     * Compresses the files which were not accessed for the configured time.
+     */
+    public void compressColdFiles() {
+        passLock.lock();
+        try {
+            if (!enabled) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Map.Entry<FileDescriptor, Long> entry : accessedFiles.entrySet()) {
+                // a file accessed again meanwhile stays for a later pass
+                if (now - entry.getValue() >= coldAfterNanos && accessedFiles.remove(entry.getKey(), entry.getValue())) {
+                    entry.getKey().compress(codec);
+                }
+            }
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    /**
+     * Stops passes over the accessed files until {@link #resume()}, block maps of files may change wholesale meanwhile.
+     */
+    public void pause() {
+        passLock.lock();
+    }
+
+    public void resume() {
+        passLock.unlock();
+    }
+}
@@ -0,0 +1,130 @@
+package edu.demian.filesystem.compression;
+
+import java.util.Arrays;
+
+/**
+ * Codec writing the LZ4 block format: a sequence of literals and a match copied from up to 64 KiB back,
+ * repeated until the last literals. Matches are found through a single-probe hash table of 4-byte prefixes,
+ * which trades ratio for speed like the original.
+ */
+public class Lz4Codec implements Codec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    // the format requires the last bytes to be literals and the last match to start before the limit
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int HASH_BITS = 12;
+    private static final int RUN_MASK = 15;
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int position = 0;
+        int outputPosition = 0;
+        int matchLimit = length - LAST_LITERALS;
+        int findLimit = length - MATCH_FIND_LIMIT;
+        while (position < findLimit) {
+            int sequence = readInt(src, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int reference = table[hash];
+            table[hash] = position;
+            if (reference < 0 || position - reference > MAX_OFFSET || readInt(src, reference) != sequence) {
+                position++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && src[reference + matchLength] == src[position + matchLength]) {
+                matchLength++;
+            }
+            while (position > anchor && reference > 0 && src[position - 1] == src[reference - 1]) {
+                position--;
+                reference--;
+                matchLength++;
+            }
+            int tokenPosition = outputPosition;
+            outputPosition = writeLiterals(dst, outputPosition, src, anchor, position - anchor);
+            dst[outputPosition++] = (byte) (position - reference);
+            dst[outputPosition++] = (byte) ((position - reference) >>> 8);
+            dst[tokenPosition] |= (byte) Math.min(matchLength - MIN_MATCH, RUN_MASK);
+            outputPosition = writeLength(dst, outputPosition, matchLength - MIN_MATCH);
+            position += matchLength;
+            anchor = position;
+        }
+        return writeLiterals(dst, outputPosition, src, anchor, length - anchor);
+    }
+
+    @Override
+    public void decompress(byte[] src, int length, byte[] dst, int decompressedLength) {
+        int position = 0;
+        int outputPosition = 0;
+        while (position < length) {
+            int token = src[position++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int lengthByte;
+                do {
+                    lengthByte = src[position++] & 0xFF;
+                    literalLength += lengthByte;
+                } while (lengthByte == 255);
+            }
+            System.arraycopy(src, position, dst, outputPosition, literalLength);
+            position += literalLength;
+            outputPosition += literalLength;
+            // the last sequence has no match
+            if (position >= length) {
+                break;
+            }
+            int offset = (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8;
+            position += 2;
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int lengthByte;
+                do {
+                    lengthByte = src[position++] & 0xFF;
+                    matchLength += lengthByte;
+                } while (lengthByte == 255);
+            }
+            matchLength += MIN_MATCH;
+            // a match may overlap the bytes it produces, so it is copied byte by byte
+            for (int reference = outputPosition - offset, end = outputPosition + matchLength; outputPosition < end; ) {
+                dst[outputPosition++] = dst[reference++];
+            }
+        }
+        if (outputPosition != decompressedLength) {
+            throw new IllegalStateException("Compressed data is corrupted: " + outputPosition + " bytes instead of " + decompressedLength);
+        }
+    }
+
+    // writes the token with the literal length and the literals, the match length is added to the token later
+    private static int writeLiterals(byte[] dst, int outputPosition, byte[] src, int literalStart, int literalLength) {
+        dst[outputPosition++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        outputPosition = writeLength(dst, outputPosition, literalLength);
+        System.arraycopy(src, literalStart, dst, outputPosition, literalLength);
+        return outputPosition + literalLength;
+    }
+
+    private static int writeLength(byte[] dst, int outputPosition, int length) {
+        if (length < RUN_MASK) {
+            return outputPosition;
+        }
+        length -= RUN_MASK;
+        while (length >= 255) {
+            dst[outputPosition++] = (byte) 255;
+            length -= 255;
+        }
+        dst[outputPosition++] = (byte) length;
+        return outputPosition;
+    }
+
+    private static int readInt(byte[] src, int position) {
+        return (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8 | (src[position + 2] & 0xFF) << 16 | (src[position + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,280 @@
+package edu.demian.filesystem.dedup;
+
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed index of blocks, files writing the same data end up sharing one block.
+ * <p>
+ * The page cache reports every block it writes back. Depending on the {@link Mode} the files are deduplicated
+ * when they are flushed or by a background thread: every reported block is hashed and either stored in the index
+ * or, if the index already holds a block with the same data, replaced by it in the block map of the file. Hashes
+ * are only used to find candidates, the data of both blocks is compared before they are shared.
+ * <p>
+ * The index holds a reference to each of its blocks. A stored block is therefore shared and never written in
+ * place nor freed underneath the index: files copy it on write like any shared block. Blocks only the index
+ * refers to anymore are freed by {@link #collect()}.
+ */
+public class Deduplicator {
+
+    public static final long BACKGROUND_INTERVAL_MILLIS = 100;
+    // on a 64-bit JVM with compressed references: a HashMap.Node (12 header + 4 hash + 3 * 4 references = 32),
+    // its Long key (12 + 8, padded to 24) and its Integer value (12 + 4 = 16); the table slots are not counted
+    public static final int INDEX_ENTRY_SIZE_IN_BYTES = 32 + 24 + 16;
+
+    private final BlockDevice blockDevice;
+    private final int blockSize;
+    private volatile Mode mode = Mode.OFF;
+
+    // blocks written back since their file was deduplicated, by block index
+    private final Map<FileDescriptor, Map<Integer, Integer>> writtenBlocks = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<Long, Integer> blocksByHash = new HashMap<>();
+    // held by a pass over the written blocks, so the namespace can be rolled back in between
+    private final ReentrantLock passLock = new ReentrantLock();
+    private ScheduledExecutorService backgroundExecutor;
+
+    private final LongAdder deduplicatedBlocks = new LongAdder();
+    private final LongAdder hashCollisions = new LongAdder();
+
+    public Deduplicator(BlockDevice blockDevice) {
+        this.blockDevice = blockDevice;
+        this.blockSize = blockDevice.getBlockSize();
+    }
+
+    public enum Mode {
+        OFF,
+        // files are deduplicated when they are flushed on close, fsync or sync
+        INLINE,
+        // files are deduplicated by a background thread every BACKGROUND_INTERVAL_MILLIS
+        BACKGROUND
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Switching deduplication off drops the index, blocks already shared by files stay shared.
+     */
+    public void setMode(Mode mode) {
+        // a running pass is finished first
+        passLock.lock();
+        try {
+            synchronized (this) {
+                if (this.mode == mode) {
+                    return;
+                }
+                if (backgroundExecutor != null) {
+                    backgroundExecutor.shutdown();
+                    backgroundExecutor = null;
+                }
+                this.mode = mode;
+                if (mode == Mode.BACKGROUND) {
+                    backgroundExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "deduplicator");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    backgroundExecutor.scheduleWithFixedDelay(this::deduplicateAll, BACKGROUND_INTERVAL_MILLIS, BACKGROUND_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (mode == Mode.OFF) {
+                    clear();
+                }
+            }
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the page cache for every block written back.
+     */
+    public void blockWritten(FileDescriptor descriptor, int blockIndex, int physicalBlock) {
+        if (mode != Mode.OFF) {
+            writtenBlocks.computeIfAbsent(descriptor, key -> new ConcurrentHashMap<>()).put(blockIndex, physicalBlock);
+        }
+    }
+
+    /**
+     * Deduplicates the blocks of the file written back so far, called once the file was flushed in the inline mode.
+     */
+    public void deduplicate(FileDescriptor descriptor) {
+        if (mode != Mode.INLINE || !writtenBlocks.containsKey(descriptor)) {
+            return;
+        }
+        passLock.lock();
+        try {
+            descriptor.deduplicate(this);
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    /**
+     * Deduplicates all files once they were flushed on sync, in the inline mode.
+     */
+    public void deduplicateFlushed() {
+        if (mode == Mode.INLINE) {
+            deduplicateAll();
+        }
+    }
+
+    /**
+     * Deduplicates the blocks of all files written back so far and frees blocks only the index refers to.
+     */
+    public void deduplicateAll() {
+        passLock.lock();
+        try {
+            if (mode == Mode.OFF) {
+                return;
+            }
+            for (FileDescriptor descriptor : new ArrayList<>(writtenBlocks.keySet())) {
+                descriptor.deduplicate(this);
+            }
+            collect();
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    /**
+     * @return blocks of the file written back since the last call by block index, they are forgotten
+     */
+    public Map<Integer, Integer> drainWrittenBlocks(FileDescriptor descriptor) {
+        Map<Integer, Integer> blocks = writtenBlocks.remove(descriptor);
+        return blocks == null ? Collections.emptyMap() : blocks;
+    }
+
+    /**
+     * Looks up a block with the same data as the block of a file, the caller holds the write lock of the file and
+     * the block is not shared. The index takes a reference to the block if there is none yet.
+     *
+     * @return a block with the same data to be used instead, the caller owns a reference to it, or the given block
+     */
+    public int store(int physicalBlock) {
+        ByteBuffer data = ByteBuffer.allocate(blockSize);
+        blockDevice.read(physicalBlock, 0, data, blockSize);
+        long hash = hash(data.array());
+        synchronized (this) {
+            // a pass may still run after deduplication was switched off
+            if (mode == Mode.OFF) {
+                return physicalBlock;
+            }
+            Integer storedBlock = blocksByHash.get(hash);
+            if (storedBlock == null) {
+                blockDevice.share(physicalBlock, 1);
+                blocksByHash.put(hash, physicalBlock);
+                return physicalBlock;
+            }
+            ByteBuffer storedData = ByteBuffer.allocate(blockSize);
+            blockDevice.read(storedBlock, 0, storedData, blockSize);
+            if (!storedData.flip().equals(data.flip())) {
+                hashCollisions.increment();
+                return physicalBlock;
+            }
+            blockDevice.share(storedBlock, 1);
+            deduplicatedBlocks.increment();
+            return storedBlock;
+        }
+    }
+
+    /**
+     * Frees the blocks no file refers to anymore.
+     */
+    public synchronized void collect() {
+        for (Iterator<Integer> iterator = blocksByHash.values().iterator(); iterator.hasNext(); ) {
+            int block = iterator.next();
+            if (blockDevice.getReferenceCount(block) == 1) {
+                blockDevice.free(block, 1);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the index and its references, used before the references are stored in an image.
+     */
+    public synchronized void clear() {
+        for (int block : blocksByHash.values()) {
+            blockDevice.free(block, 1);
+        }
+        blocksByHash.clear();
+        writtenBlocks.clear();
+    }
+
+    /**
+     * Stops passes over the written blocks until {@link #resume()}, block maps of files may change wholesale meanwhile.
+     */
+    public void pause() {
+        passLock.lock();
+    }
+
+    public void resume() {
+        passLock.unlock();
+    }
+
+    public synchronized int getIndexedBlockCount() {
+        return blocksByHash.size();
+    }
+
+    /**
+     * @return references of files to the blocks of the index per block, 1 if nothing was deduplicated
+     */
+    public synchronized double getDedupRatio() {
+        long references = 0;
+        for (int block : blocksByHash.values()) {
+            references += blockDevice.getReferenceCount(block) - 1;
+        }
+        return blocksByHash.isEmpty() ? 1 : (double) references / blocksByHash.size();
+    }
+
+    /**
+     * @return heap the entries of the index take by {@link #INDEX_ENTRY_SIZE_IN_BYTES}, an estimate which is not
+     * measured; the table of the map adds 4 to 11 bytes per entry depending on how full it is
+     */
+    public synchronized long getIndexSizeInBytes() {
+        return (long) blocksByHash.size() * INDEX_ENTRY_SIZE_IN_BYTES;
+    }
+
+    public long getDeduplicatedBlocks() {
+        return deduplicatedBlocks.sum();
+    }
+
+    public long getHashCollisions() {
+        return hashCollisions.sum();
+    }
+
+    // 64-bit multiply-xorshift hash over 8 bytes at a time, collisions are caught by comparing the data
+    private static long hash(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long hash = 0x9E3779B97F4A7C15L ^ data.length;
+        while (buffer.remaining() >= Long.BYTES) {
+            hash = mix(hash ^ buffer.getLong());
+        }
+        while (buffer.hasRemaining()) {
+            hash = mix(hash ^ buffer.get());
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value *= 0xBF58476D1CE4E5B9L;
+        value ^= value >>> 31;
+        value *= 0x94D049BB133111EBL;
+        return value ^ (value >>> 29);
+    }
+}
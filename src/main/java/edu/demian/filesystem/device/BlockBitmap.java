@@ -0,0 +1,133 @@
+package edu.demian.filesystem.device;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Free-block bitmap stored in a {@link ByteBuffer}, one bit per block, set bits are used blocks.
+ * <p>
+ * Free blocks are searched next-fit from the end of the last allocation, a word (64 blocks) at a time.
+ */
+public class BlockBitmap {
+
+    private ByteBuffer words;
+    private int bitCount;
+    private int usedCount;
+    private int hint;
+
+    public BlockBitmap(ByteBuffer words, int bitCount) {
+        this.words = words;
+        this.bitCount = bitCount;
+        for (int i = 0; i < wordCount(bitCount); i++) {
+            usedCount += Long.bitCount(words.getLong(i * Long.BYTES));
+        }
+    }
+
+    public static int sizeInBytes(int bitCount) {
+        return wordCount(bitCount) * Long.BYTES;
+    }
+
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    public int getUsedCount() {
+        return usedCount;
+    }
+
+    public boolean isUsed(int bit) {
+        return (words.getLong((bit >>> 6) * Long.BYTES) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Finds up to {@code maxLength} consecutive free bits and marks them used.
+     *
+     * @return the run found or null if all bits are used
+     */
+    public BlockRun allocate(int maxLength) {
+        int start = findFree(hint);
+        if (start < 0) {
+            return null;
+        }
+        int length = 1;
+        while (length < maxLength && start + length < bitCount && !isUsed(start + length)) {
+            length++;
+        }
+        set(start, length, true);
+        usedCount += length;
+        hint = start + length < bitCount ? start + length : 0;
+        return new BlockRun(start, length);
+    }
+
+    /**
+     * Marks all bits free.
+     */
+    public void clear() {
+        set(0, bitCount, false);
+        usedCount = 0;
+        hint = 0;
+    }
+
+    /**
+     * Marks the bits used, they must be free.
+     */
+    public void setUsed(int start, int length) {
+        set(start, length, true);
+        usedCount += length;
+    }
+
+    public void free(int start, int length) {
+        set(start, length, false);
+        usedCount -= length;
+    }
+
+    /**
+     * Extends the bitmap, the new bits are free. The backing buffer must already hold them.
+     */
+    public void grow(ByteBuffer newWords, int newBitCount) {
+        for (int i = 0; i < wordCount(bitCount); i++) {
+            newWords.putLong(i * Long.BYTES, words.getLong(i * Long.BYTES));
+        }
+        words = newWords;
+        hint = bitCount;
+        bitCount = newBitCount;
+    }
+
+    private int findFree(int from) {
+        int wordCount = wordCount(bitCount);
+        if (wordCount == 0) {
+            return -1;
+        }
+        int startWord = from >>> 6;
+        for (int i = 0; i <= wordCount; i++) {
+            int wordIndex = (startWord + i) % wordCount;
+            long word = words.getLong(wordIndex * Long.BYTES);
+            if (i == 0) {
+                // ignore bits before the hint on the first pass over its word
+                word |= (1L << (from & 63)) - 1;
+            }
+            if (word != -1L) {
+                int bit = (wordIndex << 6) + Long.numberOfTrailingZeros(~word);
+                if (bit < bitCount) {
+                    return bit;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void set(int start, int length, boolean used) {
+        int end = start + length;
+        for (int bit = start; bit < end; ) {
+            int wordIndex = bit >>> 6;
+            int bitsInWord = Math.min(64 - (bit & 63), end - bit);
+            long mask = (bitsInWord == 64 ? -1L : ((1L << bitsInWord) - 1)) << (bit & 63);
+            long word = words.getLong(wordIndex * Long.BYTES);
+            words.putLong(wordIndex * Long.BYTES, used ? word | mask : word & ~mask);
+            bit += bitsInWord;
+        }
+    }
+
+    private static int wordCount(int bitCount) {
+        return (bitCount + 63) >>> 6;
+    }
+}
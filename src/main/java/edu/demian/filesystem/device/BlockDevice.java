@@ -0,0 +1,71 @@
+package edu.demian.filesystem.device;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Storage of fixed-size blocks addressed by block number.
+ * <p>
+ * The device owns the free-block bitmap: blocks are handed out in runs of consecutive numbers
+ * and are zeroed on allocation, so a freshly allocated block always reads as zeros.
+ * <p>
+ * A block may be {@link #share(int, int) shared} by several files. It is counted once for every reference and
+ * is freed once each reference was freed, a shared block is never written in place.
+ */
+public interface BlockDevice {
+
+    int DEFAULT_BLOCK_SIZE = 16;
+
+    int getBlockSize();
+
+    /**
+     * @return number of blocks the device can address right now
+     */
+    int getBlockCount();
+
+    int getUsedBlockCount();
+
+    /**
+     * Allocates up to {@code maxLength} consecutive free blocks, at least one.
+     *
+     * @throws edu.demian.filesystem.exception.NoSpaceLeftException if the device is full
+     */
+    BlockRun allocate(int maxLength);
+
+    /**
+     * Drops a reference to each of the blocks, blocks without references left are freed.
+     */
+    void free(int startBlock, int length);
+
+    /**
+     * Adds a reference to each of the allocated blocks.
+     */
+    void share(int startBlock, int length);
+
+    /**
+     * @return true if the block has more than one reference
+     */
+    boolean isShared(int block);
+
+    /**
+     * @return number of references to the allocated block
+     */
+    int getReferenceCount(int block);
+
+    /**
+     * @return number of blocks having more than one reference
+     */
+    int getSharedBlockCount();
+
+    /**
+     * Copies {@code length} bytes starting at {@code offsetInBlock} of the block into {@code dst},
+     * advancing its position.
+     */
+    void read(int block, int offsetInBlock, ByteBuffer dst, int length);
+
+    /**
+     * Copies {@code length} bytes from {@code src} into the block starting at {@code offsetInBlock},
+     * advancing the position of {@code src}.
+     */
+    void write(int block, int offsetInBlock, ByteBuffer src, int length);
+
+}
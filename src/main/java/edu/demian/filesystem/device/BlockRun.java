@@ -0,0 +1,23 @@
+package edu.demian.filesystem.device;
+
+/**
+ * Run of physically consecutive blocks of a {@link BlockDevice}.
+ */
+public class BlockRun {
+
+    private final int startBlock;
+    private final int length;
+
+    public BlockRun(int startBlock, int length) {
+        this.startBlock = startBlock;
+        this.length = length;
+    }
+
+    public int getStartBlock() {
+        return startBlock;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
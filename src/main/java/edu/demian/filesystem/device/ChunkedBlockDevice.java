@@ -0,0 +1,144 @@
+package edu.demian.filesystem.device;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Block device whose blocks live in equally sized {@link ByteBuffer} chunks,
+ * block {@code n} is stored in chunk {@code n / blocksPerChunk}.
+ * <p>
+ * Allocation is serialized on the device, data is read and written without locking:
+ * chunks are only ever appended and a block is written by a single file only.
+ */
+public abstract class ChunkedBlockDevice implements BlockDevice {
+
+    protected static final int CHUNK_SIZE_IN_BYTES = 8 * 1024 * 1024;
+
+    protected final int blockSize;
+    protected final int blocksPerChunk;
+
+    protected final List<ByteBuffer> chunks = new CopyOnWriteArrayList<>();
+    protected final BlockBitmap bitmap;
+    // references of shared blocks beyond the first one, changes are serialized on the device
+    protected final Map<Integer, Integer> sharedReferences = new ConcurrentHashMap<>();
+    private final byte[] zeroBlock;
+
+    protected ChunkedBlockDevice(int blockSize, BlockBitmap bitmap) {
+        this.blockSize = blockSize;
+        this.blocksPerChunk = Math.max(1, CHUNK_SIZE_IN_BYTES / blockSize);
+        this.bitmap = bitmap;
+        this.zeroBlock = new byte[blockSize];
+    }
+
+    /**
+     * Called when the bitmap has no free blocks left, either makes room or throws.
+     *
+     * @throws edu.demian.filesystem.exception.NoSpaceLeftException if the device can't grow
+     */
+    protected abstract void onFull();
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public synchronized int getBlockCount() {
+        return bitmap.getBitCount();
+    }
+
+    @Override
+    public synchronized int getUsedBlockCount() {
+        return bitmap.getUsedCount();
+    }
+
+    @Override
+    public BlockRun allocate(int maxLength) {
+        BlockRun blockRun;
+        synchronized (this) {
+            blockRun = bitmap.allocate(maxLength);
+            if (blockRun == null) {
+                onFull();
+                blockRun = bitmap.allocate(maxLength);
+            }
+        }
+        zero(blockRun);
+        return blockRun;
+    }
+
+    @Override
+    public synchronized void free(int startBlock, int length) {
+        if (sharedReferences.isEmpty()) {
+            bitmap.free(startBlock, length);
+            return;
+        }
+        // blocks still referenced split the range into runs which are freed
+        int runStart = startBlock;
+        for (int block = startBlock; block < startBlock + length; block++) {
+            Integer references = sharedReferences.get(block);
+            if (references == null) {
+                continue;
+            }
+            if (references == 1) {
+                sharedReferences.remove(block);
+            } else {
+                sharedReferences.put(block, references - 1);
+            }
+            bitmap.free(runStart, block - runStart);
+            runStart = block + 1;
+        }
+        bitmap.free(runStart, startBlock + length - runStart);
+    }
+
+    @Override
+    public synchronized void share(int startBlock, int length) {
+        for (int block = startBlock; block < startBlock + length; block++) {
+            sharedReferences.merge(block, 1, Integer::sum);
+        }
+    }
+
+    @Override
+    public boolean isShared(int block) {
+        return !sharedReferences.isEmpty() && sharedReferences.containsKey(block);
+    }
+
+    @Override
+    public int getReferenceCount(int block) {
+        return 1 + sharedReferences.getOrDefault(block, 0);
+    }
+
+    @Override
+    public int getSharedBlockCount() {
+        return sharedReferences.size();
+    }
+
+    @Override
+    public void read(int block, int offsetInBlock, ByteBuffer dst, int length) {
+        ByteBuffer chunk = chunks.get(block / blocksPerChunk).duplicate();
+        int position = (block % blocksPerChunk) * blockSize + offsetInBlock;
+        chunk.limit(position + length).position(position);
+        dst.put(chunk);
+    }
+
+    @Override
+    public void write(int block, int offsetInBlock, ByteBuffer src, int length) {
+        ByteBuffer chunk = chunks.get(block / blocksPerChunk).duplicate();
+        chunk.position((block % blocksPerChunk) * blockSize + offsetInBlock);
+        ByteBuffer data = src.duplicate();
+        data.limit(data.position() + length);
+        chunk.put(data);
+        src.position(src.position() + length);
+    }
+
+    private void zero(BlockRun blockRun) {
+        // a run may cross a chunk boundary, so zero it block by block
+        for (int block = blockRun.getStartBlock(); block < blockRun.getStartBlock() + blockRun.getLength(); block++) {
+            ByteBuffer chunk = chunks.get(block / blocksPerChunk).duplicate();
+            chunk.position((block % blocksPerChunk) * blockSize);
+            chunk.put(zeroBlock);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package edu.demian.filesystem.device;
+
+import edu.demian.filesystem.exception.NoSpaceLeftException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Block device kept in off-heap memory.
+ * <p>
+ * Chunks are direct {@link ByteBuffer}s added on demand. Neither the data nor the bitmap is kept
+ * on the Java heap, so heap usage does not depend on the amount of data stored.
+ */
+public class DirectBlockDevice extends ChunkedBlockDevice {
+
+    private final int maxBlockCount;
+
+    public DirectBlockDevice(int blockSize, int maxBlockCount) {
+        super(blockSize, new BlockBitmap(ByteBuffer.allocateDirect(0), 0));
+        this.maxBlockCount = maxBlockCount;
+    }
+
+    @Override
+    protected void onFull() {
+        int blockCount = bitmap.getBitCount();
+        if (blockCount + blocksPerChunk > maxBlockCount) {
+            throw new NoSpaceLeftException("Can't allocate a block: [no space left on device]");
+        }
+        chunks.add(ByteBuffer.allocateDirect(blocksPerChunk * blockSize));
+        int newBlockCount = blockCount + blocksPerChunk;
+        bitmap.grow(ByteBuffer.allocateDirect(BlockBitmap.sizeInBytes(newBlockCount)), newBlockCount);
+    }
+}
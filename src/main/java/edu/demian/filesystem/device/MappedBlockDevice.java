@@ -0,0 +1,102 @@
+package edu.demian.filesystem.device;
+
+import edu.demian.filesystem.exception.NoSpaceLeftException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Block device backed by a region of a memory-mapped file.
+ * <p>
+ * Both the bitmap and the data region are used in place, so attaching to an existing file
+ * costs only the mapping itself. The capacity is fixed when the file is formatted.
+ */
+public class MappedBlockDevice extends ChunkedBlockDevice {
+
+    private final MappedByteBuffer bitmapBuffer;
+
+    private MappedBlockDevice(int blockSize, MappedByteBuffer bitmapBuffer, int blockCount) {
+        super(blockSize, new BlockBitmap(bitmapBuffer, blockCount));
+        this.bitmapBuffer = bitmapBuffer;
+    }
+
+    /**
+     * Maps the device from the file.
+     *
+     * @param bitmapOffset position of the free-block bitmap in the file
+     * @param dataOffset   position of the first block in the file
+     */
+    public static MappedBlockDevice map(FileChannel channel, int blockSize, int blockCount, long bitmapOffset, long dataOffset) throws IOException {
+        MappedByteBuffer bitmapBuffer = channel.map(FileChannel.MapMode.READ_WRITE, bitmapOffset, BlockBitmap.sizeInBytes(blockCount));
+        MappedBlockDevice blockDevice = new MappedBlockDevice(blockSize, bitmapBuffer, blockCount);
+        long chunkSizeInBytes = (long) blockDevice.blocksPerChunk * blockSize;
+        long dataSizeInBytes = (long) blockCount * blockSize;
+        for (long position = 0; position < dataSizeInBytes; position += chunkSizeInBytes) {
+            blockDevice.chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, dataOffset + position, Math.min(chunkSizeInBytes, dataSizeInBytes - position)));
+        }
+        return blockDevice;
+    }
+
+    /**
+     * Writes the bitmap and all modified blocks back to the file.
+     */
+    public void force() {
+        bitmapBuffer.force();
+        for (ByteBuffer chunk : chunks) {
+            ((MappedByteBuffer) chunk).force();
+        }
+    }
+
+    /**
+     * Marks all blocks free and unshared, used to rebuild the bitmap from the metadata after a crash.
+     */
+    public synchronized void clearBitmap() {
+        bitmap.clear();
+        sharedReferences.clear();
+    }
+
+    /**
+     * Marks blocks referenced by the metadata used, blocks which are already used are skipped.
+     */
+    public synchronized void markUsed(int startBlock, int length) {
+        for (int block = startBlock; block < startBlock + length; block++) {
+            if (!bitmap.isUsed(block)) {
+                bitmap.setUsed(block, 1);
+            }
+        }
+    }
+
+    /**
+     * Counts a reference to blocks of a file found in the metadata, blocks which are already used become shared.
+     */
+    public synchronized void markReferenced(int startBlock, int length) {
+        for (int block = startBlock; block < startBlock + length; block++) {
+            if (bitmap.isUsed(block)) {
+                sharedReferences.merge(block, 1, Integer::sum);
+            } else {
+                bitmap.setUsed(block, 1);
+            }
+        }
+    }
+
+    /**
+     * @return references of shared blocks beyond the first one
+     */
+    public synchronized Map<Integer, Integer> getSharedReferences() {
+        return new HashMap<>(sharedReferences);
+    }
+
+    public synchronized void setSharedReferences(Map<Integer, Integer> sharedReferences) {
+        this.sharedReferences.clear();
+        this.sharedReferences.putAll(sharedReferences);
+    }
+
+    @Override
+    protected void onFull() {
+        throw new NoSpaceLeftException("Can't allocate a block: [no space left on device]");
+    }
+}
@@ -0,0 +1,11 @@
+package edu.demian.filesystem.exception;
+
+public class NoSpaceLeftException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public NoSpaceLeftException(String message) {
+        super(message);
+    }
+
+}
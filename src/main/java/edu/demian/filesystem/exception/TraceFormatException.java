@@ -0,0 +1,11 @@
+package edu.demian.filesystem.exception;
+
+public class TraceFormatException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TraceFormatException(String message) {
+        super(message);
+    }
+
+}
@@ -1,33 +1,265 @@
 package edu.demian.filesystem.file;
 
 import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class DirectoryFile extends File {
 
-    private final List<File> directoryContent = new LinkedList<>();
-    private static final File CURRENT_DIRECTORY_LINK = new DirectoryFile(FileSystem.LINK_TO_CURRENT_DIRECTORY, null);
-    private static final File UPPER_DIRECTORY_LINK = new DirectoryFile(FileSystem.LINK_TO_UPPER_DIRECTORY, null);
+    // name -> entry; LinkedHashMap keeps insertion order for ls while giving O(1) lookups by name
+    private final Map<String, File> directoryContent = new LinkedHashMap<>();
+    // placeholders listed by ls, path resolution handles "." and ".." itself, so they need no descriptor
+    private static final File CURRENT_DIRECTORY_LINK = new DirectoryFile(FileSystem.LINK_TO_CURRENT_DIRECTORY);
+    private static final File UPPER_DIRECTORY_LINK = new DirectoryFile(FileSystem.LINK_TO_UPPER_DIRECTORY);
     private DirectoryFile parentDirectory;
+    // fills the content of a directory restored from a disk image on first access
+    private volatile Consumer<DirectoryFile> contentLoader;
+    // guards the content, lookups share it while adding and removing entries is exclusive
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // generation of the newest snapshot the content is saved for, guarded by the lock
+    private int preservedGeneration;
 
     private DirectoryFile(String name, DirectoryFile parentDirectory) {
         super(name);
         this.parentDirectory = parentDirectory;
-        directoryContent.add(CURRENT_DIRECTORY_LINK);
-        directoryContent.add(UPPER_DIRECTORY_LINK);
+        this.preservedGeneration = getDescriptor().getGeneration();
+        addLinks();
+    }
+
+    private DirectoryFile(FileDescriptor descriptor, String name, DirectoryFile parentDirectory) {
+        super(descriptor, name);
+        this.parentDirectory = parentDirectory;
+        this.preservedGeneration = descriptor.getGeneration();
+        addLinks();
+    }
+
+    private DirectoryFile(String linkName) {
+        super(null, linkName);
     }
 
     public static DirectoryFile createInstance(String name, DirectoryFile directoryFile) {
         return new DirectoryFile(name, directoryFile);
     }
 
-    public List<File> getContent() {
-        return directoryContent;
+    public static DirectoryFile createInstance(FileDescriptor descriptor, String name, DirectoryFile directoryFile) {
+        return new DirectoryFile(descriptor, name, directoryFile);
+    }
+
+    public static DirectoryFile createRootInstance(String name) {
+        DirectoryFile rootDirectory = new DirectoryFile(name, null);
+        rootDirectory.getDescriptor().link();
+        rootDirectory.setLinked(true);
+        return rootDirectory;
+    }
+
+    public static DirectoryFile createRootInstance(FileDescriptor descriptor, String name) {
+        DirectoryFile rootDirectory = new DirectoryFile(descriptor, name, null);
+        rootDirectory.setLinked(true);
+        return rootDirectory;
+    }
+
+    /**
+     * @return snapshot of the entries in insertion order
+     */
+    public Collection<File> getContent() {
+        loadContent();
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(directoryContent.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public File getFile(String name) {
+        loadContent();
+        lock.readLock().lock();
+        try {
+            return directoryContent.get(name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsFile(String name) {
+        return getFile(name) != null;
+    }
+
+    /**
+     * Adds an entry to this directory.
+     *
+     * @return false if an entry with the same name already exists, the directory itself was removed
+     * or the file was released meanwhile, the directory is left untouched in this case
+     */
+    public boolean addFile(File file) {
+        loadContent();
+        long lsn;
+        lock.writeLock().lock();
+        try {
+            if (!isLinked() || directoryContent.containsKey(file.getName()) || !file.getDescriptor().link()) {
+                return false;
+            }
+            preserve();
+            directoryContent.put(file.getName(), file);
+            file.setLinked(true);
+            // logged under the lock, so changes of the directory are logged in the order they are made
+            lsn = FileSystem.getInstance().logFileAdded(this, file);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        FileSystem.getInstance().getDentryCache().entryAdded();
+        FileSystem.getInstance().markDirty(this);
+        FileSystem.getInstance().markDirty(file);
+        FileSystem.getInstance().commitJournal(lsn);
+        return true;
+    }
+
+    public File removeFile(String name) {
+        return removeFile(name, File.class);
+    }
+
+    /**
+     * Removes the entry only if it is of the given type, the check and the removal are atomic.
+     * The file is released once its last name and its last open file are gone.
+     *
+     * @return removed entry or null if there is no such entry of this type
+     */
+    public File removeFile(String name, Class<? extends File> fileType) {
+        loadContent();
+        File file;
+        boolean lastReference;
+        long lsn = 0;
+        lock.writeLock().lock();
+        try {
+            file = directoryContent.get(name);
+            if (!fileType.isInstance(file) || name.equals(FileSystem.LINK_TO_CURRENT_DIRECTORY) || name.equals(FileSystem.LINK_TO_UPPER_DIRECTORY)) {
+                return null;
+            }
+            preserve();
+            directoryContent.remove(name);
+            if (file instanceof DirectoryFile) {
+                ((DirectoryFile) file).detach();
+            } else {
+                file.setLinked(false);
+            }
+            lastReference = file.getDescriptor().unlink();
+            // the content of a removed directory is dropped together with it
+            if (isLinked()) {
+                lsn = FileSystem.getInstance().logFileRemoved(this, name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        FileSystem.getInstance().getDentryCache().entryRemoved(file);
+        FileSystem.getInstance().markDirty(this);
+        if (lastReference) {
+            FileSystem.getInstance().releaseFile(file);
+        }
+        FileSystem.getInstance().commitJournal(lsn);
+        return file;
+    }
+
+    public int size() {
+        loadContent();
+        lock.readLock().lock();
+        try {
+            return directoryContent.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public DirectoryFile getParentDirectory() {
         return parentDirectory;
     }
+
+    public void setContentLoader(Consumer<DirectoryFile> contentLoader) {
+        this.contentLoader = contentLoader;
+    }
+
+    /**
+     * Adds an entry restored from a disk image, the namespace itself does not change.
+     */
+    public void restoreFile(File file) {
+        directoryContent.put(file.getName(), file);
+        file.setLinked(true);
+    }
+
+    /**
+     * Brings back the content saved by a snapshot the namespace is rolled back to.
+     *
+     * @param preservedGeneration generation up to which the content is saved from now on
+     */
+    public void restoreContent(Map<String, File> content, int preservedGeneration) {
+        lock.writeLock().lock();
+        try {
+            Set<File> restoredFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+            restoredFiles.addAll(content.values());
+            for (File file : directoryContent.values()) {
+                if (file.getDescriptor() != null && !restoredFiles.contains(file)) {
+                    file.setLinked(false);
+                }
+            }
+            for (File file : restoredFiles) {
+                if (file.getDescriptor() != null) {
+                    file.setLinked(true);
+                }
+            }
+            directoryContent.clear();
+            directoryContent.putAll(content);
+            this.preservedGeneration = preservedGeneration;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // saves the content the newest snapshot sees before it changes, the caller holds the write lock
+    private void preserve() {
+        int snapshotGeneration = FileSystem.getInstance().getSnapshots().getGeneration();
+        if (preservedGeneration < snapshotGeneration) {
+            FileSystem.getInstance().getSnapshots().preserve(this, new LinkedHashMap<>(directoryContent));
+            preservedGeneration = snapshotGeneration;
+        }
+    }
+
+    private void loadContent() {
+        if (contentLoader == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Consumer<DirectoryFile> loader = contentLoader;
+            if (loader != null) {
+                loader.accept(this);
+                contentLoader = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // taken under the lock of the parent directory; once it is done no entry can be added here anymore
+    private void detach() {
+        lock.writeLock().lock();
+        try {
+            setLinked(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLinks() {
+        directoryContent.put(FileSystem.LINK_TO_CURRENT_DIRECTORY, CURRENT_DIRECTORY_LINK);
+        directoryContent.put(FileSystem.LINK_TO_UPPER_DIRECTORY, UPPER_DIRECTORY_LINK);
+    }
 }
@@ -10,17 +10,31 @@ public abstract class File {
 
     private String name;
 
+    // false once the entry was removed from its directory, lets cached path resolutions detect stale entries
+    private volatile boolean linked;
+
+    /**
+     * @throws FileCreationException if all file descriptor ids are taken
+     */
     public File(String name) {
-        if (!FileSystem.getInstance().isFileDescriptorAvailable()) {
-             throw new FileCreationException("Can't create a file: [no file descriptors available]");
-        }
         this.name = name;
-        this.descriptor = new FileDescriptor(FileSystem.getInstance().getAvailableFileDescriptorId());
+        int fileDescriptorId = FileSystem.getInstance().getAvailableFileDescriptorId();
+        try {
+            this.descriptor = new FileDescriptor(fileDescriptorId);
+        } catch (RuntimeException e) {
+            FileSystem.getInstance().releaseFileDescriptorId(fileDescriptorId);
+            throw e;
+        }
+        descriptor.setFile(this);
+        FileSystem.getInstance().getSnapshots().fileCreated(this);
     }
 
     public File(FileDescriptor descriptor, String name) {
         this.descriptor = descriptor;
         this.name = name;
+        if (descriptor != null && descriptor.getFile() == null) {
+            descriptor.setFile(this);
+        }
     }
 
     public FileDescriptor getDescriptor() {
@@ -31,4 +45,22 @@ public abstract class File {
         return name;
     }
 
+    public boolean isLinked() {
+        return linked;
+    }
+
+    void setLinked(boolean linked) {
+        this.linked = linked;
+    }
+
+    /**
+     * Drops a file created after the snapshot the namespace is rolled back to, see {@link FileDescriptor#discard()}.
+     *
+     * @return true if nothing refers to the file anymore, the caller must release it then
+     */
+    public boolean discard() {
+        setLinked(false);
+        return descriptor.discard();
+    }
+
 }
@@ -1,5 +1,7 @@
 package edu.demian.filesystem.file;
 
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
 public class SymbolicLinkFile extends File {
 
     private String content;
@@ -9,10 +11,19 @@ public class SymbolicLinkFile extends File {
         this.content = content;
     }
 
+    private SymbolicLinkFile(FileDescriptor descriptor, String name, String content) {
+        super(descriptor, name);
+        this.content = content;
+    }
+
     public static SymbolicLinkFile createInstance(String name, String content) {
         return new SymbolicLinkFile(name, content);
     }
 
+    public static SymbolicLinkFile createInstance(FileDescriptor descriptor, String name, String content) {
+        return new SymbolicLinkFile(descriptor, name, content);
+    }
+
     public String getContent() {
         return content;
     }
@@ -0,0 +1,509 @@
+package edu.demian.filesystem.file.descriptor;
+
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.device.BlockRun;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Maps logical block indexes of a file to block numbers of a {@link BlockDevice}.
+ * <p>
+ * Blocks are kept in extents - runs of consecutive logical blocks stored in consecutive physical
+ * blocks - indexed by their first logical block, so translating an offset costs O(log extents).
+ * Logical blocks not covered by any extent are holes: they read as zeros and take no space until
+ * they are {@link #allocate(int, int, int) allocated} on first write.
+ * <p>
+ * Every extent remembers the snapshot generation it was allocated in. Blocks allocated before the newest
+ * snapshot may be shared with snapshots, they are never written in place nor freed by the file.
+ * <p>
+ * An extent may be {@link #compress(int, int, byte[], int, int) compressed}: its data is stored in fewer blocks
+ * and is read through {@link #readCompressed(CompressedExtent)}. A compressed extent is never split, it must be
+ * {@link #decompress(int, byte[], int) decompressed} before a part of it is written, dropped or shared.
+ */
+public class BlockMap {
+
+    public static final int HOLE = -1;
+    public static final int COMPRESSED = -2;
+
+    private final BlockDevice blockDevice;
+    private final TreeMap<Integer, Extent> extents = new TreeMap<>();
+    private int allocatedBlockCount;
+
+    public BlockMap(BlockDevice blockDevice) {
+        this.blockDevice = blockDevice;
+    }
+
+    /**
+     * @return physical block, {@link #HOLE} if the block was never written or {@link #COMPRESSED}
+     */
+    public int getPhysicalBlock(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Block index: " + index);
+        }
+        Map.Entry<Integer, Extent> entry = extents.floorEntry(index);
+        if (entry == null || index >= entry.getKey() + entry.getValue().length) {
+            return HOLE;
+        }
+        Extent extent = entry.getValue();
+        return extent.compressed != null ? COMPRESSED : extent.physicalStart + index - extent.logicalStart;
+    }
+
+    /**
+     * @return the compressed extent holding the block or null if the block is not compressed
+     */
+    public CompressedExtent getCompressedExtent(int index) {
+        Map.Entry<Integer, Extent> entry = extents.floorEntry(index);
+        if (entry == null || index >= entry.getKey() + entry.getValue().length) {
+            return null;
+        }
+        return entry.getValue().compressed;
+    }
+
+    /**
+     * @return number of blocks taken on the device
+     */
+    public int getAllocatedBlockCount() {
+        return allocatedBlockCount;
+    }
+
+    public int getExtentCount() {
+        return extents.size();
+    }
+
+    /**
+     * @return true if the block is allocated at or after the generation and is not shared with another file,
+     * other blocks must be {@link #copyOnWrite(int, int, int) moved} before they are written
+     */
+    public boolean isWritable(int index, int generation) {
+        Map.Entry<Integer, Extent> entry = extents.floorEntry(index);
+        if (entry == null || index >= entry.getKey() + entry.getValue().length) {
+            return false;
+        }
+        Extent extent = entry.getValue();
+        return extent.compressed == null && extent.generation >= generation
+                && !blockDevice.isShared(extent.physicalStart + index - extent.logicalStart);
+    }
+
+    /**
+     * Fills the hole {@code [index, index + length)} with freshly allocated blocks. Runs which continue
+     * a neighbouring extent of the same generation physically are merged into it.
+     */
+    public void allocate(int index, int length, int generation) {
+        int end = index + length;
+        while (index < end) {
+            BlockRun blockRun = blockDevice.allocate(end - index);
+            Map.Entry<Integer, Extent> previousEntry = extents.lowerEntry(index);
+            Extent extent;
+            if (previousEntry != null && continues(previousEntry.getValue(), index, blockRun.getStartBlock(), generation)) {
+                extent = previousEntry.getValue();
+                extent.length += blockRun.getLength();
+            } else {
+                extent = new Extent(index, blockRun.getStartBlock(), blockRun.getLength(), generation);
+                extents.put(index, extent);
+            }
+            index += blockRun.getLength();
+            Extent nextExtent = extents.get(index);
+            if (nextExtent != null && continues(extent, index, nextExtent.physicalStart, nextExtent.generation)) {
+                extent.length += nextExtent.length;
+                extents.remove(index);
+            }
+            allocatedBlockCount += blockRun.getLength();
+        }
+    }
+
+    /**
+     * Moves the blocks {@code [index, index + length)} to freshly allocated ones together with their data.
+     * The reference to an old block is dropped, unless the block was allocated before the generation: it is
+     * left to the snapshots then.
+     */
+    public void copyOnWrite(int index, int length, int generation) {
+        int[] sharedBlocks = new int[length];
+        boolean[] ownedBlocks = new boolean[length];
+        for (int i = 0; i < length; i++) {
+            Extent extent = extents.floorEntry(index + i).getValue();
+            sharedBlocks[i] = extent.physicalStart + index + i - extent.logicalStart;
+            ownedBlocks[i] = extent.generation >= generation;
+        }
+        unmap(index, index + length);
+        allocate(index, length, generation);
+        int blockSize = blockDevice.getBlockSize();
+        ByteBuffer data = ByteBuffer.allocate(blockSize);
+        for (int i = 0; i < length; i++) {
+            data.clear();
+            blockDevice.read(sharedBlocks[i], 0, data, blockSize);
+            data.flip();
+            blockDevice.write(getPhysicalBlock(index + i), 0, data, blockSize);
+            if (ownedBlocks[i]) {
+                blockDevice.free(sharedBlocks[i], 1);
+            }
+        }
+    }
+
+    /**
+     * Makes the blocks {@code [index, index + length)} refer to the blocks of the same range of the source map,
+     * holes included. The blocks become shared, the blocks which were in the range are dropped like on
+     * {@link #truncate(int, int)}.
+     */
+    public void share(BlockMap source, int index, int length, int generation) {
+        int end = index + length;
+        splitAt(index);
+        splitAt(end);
+        Map<Integer, Extent> replacedExtents = extents.subMap(index, end);
+        for (Extent extent : replacedExtents.values()) {
+            drop(extent, generation);
+        }
+        replacedExtents.clear();
+
+        Integer firstIndex = source.extents.floorKey(index);
+        for (Extent extent : source.extents.subMap(firstIndex == null ? index : firstIndex, end).values()) {
+            int start = Math.max(index, extent.logicalStart);
+            int sharedLength = Math.min(end, extent.logicalStart + extent.length) - start;
+            if (sharedLength <= 0) {
+                continue;
+            }
+            int physicalStart = extent.physicalStart + start - extent.logicalStart;
+            blockDevice.share(physicalStart, sharedLength);
+            extents.put(start, new Extent(start, physicalStart, sharedLength, generation));
+            allocatedBlockCount += sharedLength;
+        }
+    }
+
+    /**
+     * Makes the allocated block refer to another block holding the same data, the caller already took a reference
+     * to it. The block which was there is dropped like on {@link #truncate(int, int)}. The new block is merged into
+     * a neighbouring extent of the same generation which it continues physically.
+     */
+    public void replace(int index, int physicalBlock, int generation) {
+        splitAt(index);
+        splitAt(index + 1);
+        Extent replacedExtent = extents.remove(index);
+        if (replacedExtent.generation >= generation) {
+            blockDevice.free(replacedExtent.physicalStart, 1);
+        }
+        Map.Entry<Integer, Extent> previousEntry = extents.lowerEntry(index);
+        Extent extent;
+        if (previousEntry != null && continues(previousEntry.getValue(), index, physicalBlock, generation)) {
+            extent = previousEntry.getValue();
+            extent.length++;
+        } else {
+            extent = new Extent(index, physicalBlock, 1, generation);
+            extents.put(index, extent);
+        }
+        Extent nextExtent = extents.get(index + 1);
+        if (nextExtent != null && continues(extent, index + 1, nextExtent.physicalStart, nextExtent.generation)) {
+            extent.length += nextExtent.length;
+            extents.remove(index + 1);
+        }
+    }
+
+    /**
+     * Drops all blocks starting from {@code newBlockCount}, the cost depends on the number of dropped extents only.
+     * Blocks allocated at or after the generation are returned to the device, older ones are shared with
+     * snapshots and are left to them.
+     */
+    public void truncate(int newBlockCount, int generation) {
+        newBlockCount = Math.max(newBlockCount, 0);
+        splitAt(newBlockCount);
+        Map<Integer, Extent> droppedExtents = extents.tailMap(newBlockCount, true);
+        for (Extent extent : droppedExtents.values()) {
+            drop(extent, generation);
+        }
+        droppedExtents.clear();
+    }
+
+    /**
+     * Replaces the blocks {@code [index, index + length)} by blocks holding their compressed data, the blocks must
+     * be writable. The old blocks are returned to the device.
+     */
+    public void compress(int index, int length, byte[] compressedData, int compressedSize, int generation) {
+        int blockSize = blockDevice.getBlockSize();
+        int[] storedBlocks = new int[(compressedSize + blockSize - 1) / blockSize];
+        int storedBlockCount = 0;
+        try {
+            while (storedBlockCount < storedBlocks.length) {
+                BlockRun blockRun = blockDevice.allocate(storedBlocks.length - storedBlockCount);
+                for (int block = blockRun.getStartBlock(); block < blockRun.getStartBlock() + blockRun.getLength(); block++) {
+                    storedBlocks[storedBlockCount++] = block;
+                }
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < storedBlockCount; i++) {
+                blockDevice.free(storedBlocks[i], 1);
+            }
+            throw e;
+        }
+        for (int i = 0; i < storedBlocks.length; i++) {
+            int offset = i * blockSize;
+            int dataLength = Math.min(blockSize, compressedSize - offset);
+            blockDevice.write(storedBlocks[i], 0, ByteBuffer.wrap(compressedData, offset, dataLength), dataLength);
+        }
+        splitAt(index);
+        splitAt(index + length);
+        Map<Integer, Extent> replacedExtents = extents.subMap(index, index + length);
+        for (Extent extent : replacedExtents.values()) {
+            drop(extent, generation);
+        }
+        replacedExtents.clear();
+        extents.put(index, new Extent(index, COMPRESSED, length, generation, new CompressedExtent(index, length, storedBlocks, compressedSize)));
+        allocatedBlockCount += storedBlocks.length;
+    }
+
+    /**
+     * @return the compressed data of the extent
+     */
+    public byte[] readCompressed(CompressedExtent compressedExtent) {
+        int blockSize = blockDevice.getBlockSize();
+        byte[] compressedData = new byte[compressedExtent.compressedSize];
+        for (int i = 0; i < compressedExtent.storedBlocks.length; i++) {
+            int offset = i * blockSize;
+            int dataLength = Math.min(blockSize, compressedExtent.compressedSize - offset);
+            blockDevice.read(compressedExtent.storedBlocks[i], 0, ByteBuffer.wrap(compressedData, offset, dataLength), dataLength);
+        }
+        return compressedData;
+    }
+
+    /**
+     * Replaces the compressed extent holding the block by freshly allocated blocks filled with its data. The blocks
+     * of the compressed data are dropped like on {@link #truncate(int, int)}.
+     */
+    public void decompress(int index, byte[] data, int generation) {
+        Extent extent = extents.floorEntry(index).getValue();
+        extents.remove(extent.logicalStart);
+        drop(extent, generation);
+        allocate(extent.logicalStart, extent.length, generation);
+        int blockSize = blockDevice.getBlockSize();
+        for (int i = 0; i < extent.length; i++) {
+            blockDevice.write(getPhysicalBlock(extent.logicalStart + i), 0, ByteBuffer.wrap(data, i * blockSize, blockSize), blockSize);
+        }
+    }
+
+    /**
+     * @return number of logical blocks whose data is compressed
+     */
+    public int getCompressedBlockCount() {
+        int compressedBlockCount = 0;
+        for (Extent extent : extents.values()) {
+            if (extent.compressed != null) {
+                compressedBlockCount += extent.length;
+            }
+        }
+        return compressedBlockCount;
+    }
+
+    /**
+     * @return size of the compressed data of all compressed extents
+     */
+    public long getCompressedSizeInBytes() {
+        long compressedSize = 0;
+        for (Extent extent : extents.values()) {
+            if (extent.compressed != null) {
+                compressedSize += extent.compressed.compressedSize;
+            }
+        }
+        return compressedSize;
+    }
+
+    /**
+     * @return a map of the same blocks, changing either map later does not affect the other one
+     */
+    public BlockMap copy() {
+        BlockMap blockMap = new BlockMap(blockDevice);
+        blockMap.assign(this);
+        return blockMap;
+    }
+
+    /**
+     * Replaces the extents by the extents of the other map, no block is freed.
+     */
+    public void assign(BlockMap blockMap) {
+        extents.clear();
+        for (Extent extent : blockMap.extents.values()) {
+            extents.put(extent.logicalStart, new Extent(extent.logicalStart, extent.physicalStart, extent.length, extent.generation, extent.compressed));
+        }
+        allocatedBlockCount = blockMap.allocatedBlockCount;
+    }
+
+    /**
+     * Passes the extents which are not compressed to the visitor.
+     */
+    public void forEachExtent(ExtentVisitor visitor) {
+        for (Extent extent : extents.values()) {
+            if (extent.compressed == null) {
+                visitor.visit(extent.logicalStart, extent.physicalStart, extent.length);
+            }
+        }
+    }
+
+    /**
+     * Passes every reference to a block made at or after the generation to the consumer. A block may be referred
+     * to from several indexes, a copy of the map shares the references of the original.
+     */
+    public void forEachReferenceSince(int generation, Consumer<BlockReference> consumer) {
+        for (Extent extent : extents.values()) {
+            if (extent.generation < generation) {
+                continue;
+            }
+            if (extent.compressed != null) {
+                for (int i = 0; i < extent.compressed.storedBlocks.length; i++) {
+                    consumer.accept(new BlockReference(extent.logicalStart + i, extent.compressed.storedBlocks[i], extent.generation));
+                }
+            } else {
+                for (int i = 0; i < extent.length; i++) {
+                    consumer.accept(new BlockReference(extent.logicalStart + i, extent.physicalStart + i, extent.generation));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an already allocated extent, used to restore a map from its persisted form.
+     */
+    public void addExtent(int logicalStart, int physicalStart, int length) {
+        extents.put(logicalStart, new Extent(logicalStart, physicalStart, length, 0));
+        allocatedBlockCount += length;
+    }
+
+    private static boolean continues(Extent extent, int index, int physicalStart, int generation) {
+        return extent.compressed == null && extent.logicalStart + extent.length == index && extent.physicalStart + extent.length == physicalStart
+                && extent.generation == generation;
+    }
+
+    // removes [index, end) from the map without freeing the blocks
+    private void unmap(int index, int end) {
+        splitAt(index);
+        splitAt(end);
+        Map<Integer, Extent> unmappedExtents = extents.subMap(index, end);
+        for (Extent extent : unmappedExtents.values()) {
+            allocatedBlockCount -= extent.length;
+        }
+        unmappedExtents.clear();
+    }
+
+    // frees the blocks of an extent removed from the map unless they are left to snapshots
+    private void drop(Extent extent, int generation) {
+        if (extent.compressed != null) {
+            if (extent.generation >= generation) {
+                for (int block : extent.compressed.storedBlocks) {
+                    blockDevice.free(block, 1);
+                }
+            }
+            allocatedBlockCount -= extent.compressed.storedBlocks.length;
+            return;
+        }
+        if (extent.generation >= generation) {
+            blockDevice.free(extent.physicalStart, extent.length);
+        }
+        allocatedBlockCount -= extent.length;
+    }
+
+    // makes sure no extent crosses the index
+    private void splitAt(int index) {
+        Map.Entry<Integer, Extent> entry = extents.lowerEntry(index);
+        if (entry == null) {
+            return;
+        }
+        Extent extent = entry.getValue();
+        int tailLength = extent.logicalStart + extent.length - index;
+        if (tailLength > 0) {
+            if (extent.compressed != null) {
+                throw new IllegalStateException("Compressed extent can't be split at block " + index);
+            }
+            extent.length -= tailLength;
+            extents.put(index, new Extent(index, extent.physicalStart + index - extent.logicalStart, tailLength, extent.generation));
+        }
+    }
+
+    public interface ExtentVisitor {
+        void visit(int logicalStart, int physicalStart, int length);
+    }
+
+    /**
+     * Reference of a logical block to a physical one, equal references are counted on the device once.
+     */
+    public static class BlockReference {
+
+        private final int logicalIndex;
+        private final int physicalBlock;
+        private final int generation;
+
+        private BlockReference(int logicalIndex, int physicalBlock, int generation) {
+            this.logicalIndex = logicalIndex;
+            this.physicalBlock = physicalBlock;
+            this.generation = generation;
+        }
+
+        public int getPhysicalBlock() {
+            return physicalBlock;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BlockReference that = (BlockReference) o;
+            return logicalIndex == that.logicalIndex && physicalBlock == that.physicalBlock && generation == that.generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(logicalIndex, physicalBlock, generation);
+        }
+    }
+
+    /**
+     * Data of a run of logical blocks compressed into blocks of its own, never changed once created.
+     */
+    public static class CompressedExtent {
+
+        private final int logicalStart;
+        private final int length;
+        private final int[] storedBlocks;
+        private final int compressedSize;
+
+        private CompressedExtent(int logicalStart, int length, int[] storedBlocks, int compressedSize) {
+            this.logicalStart = logicalStart;
+            this.length = length;
+            this.storedBlocks = storedBlocks;
+            this.compressedSize = compressedSize;
+        }
+
+        public int getLogicalStart() {
+            return logicalStart;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getCompressedSize() {
+            return compressedSize;
+        }
+    }
+
+    private static class Extent {
+
+        private final int logicalStart;
+        // COMPRESSED for compressed extents
+        private final int physicalStart;
+        private int length;
+        // generation of the newest snapshot when the blocks were allocated
+        private final int generation;
+        private final CompressedExtent compressed;
+
+        private Extent(int logicalStart, int physicalStart, int length, int generation) {
+            this(logicalStart, physicalStart, length, generation, null);
+        }
+
+        private Extent(int logicalStart, int physicalStart, int length, int generation, CompressedExtent compressed) {
+            this.logicalStart = logicalStart;
+            this.physicalStart = physicalStart;
+            this.length = length;
+            this.generation = generation;
+            this.compressed = compressed;
+        }
+    }
+}
@@ -1,54 +1,556 @@
 package edu.demian.filesystem.file.descriptor;
 
-import edu.demian.filesystem.file.util.Block;
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.cache.PageCache;
+import edu.demian.filesystem.compression.Codec;
+import edu.demian.filesystem.compression.CompressionStatistics;
+import edu.demian.filesystem.compression.Compressor;
+import edu.demian.filesystem.dedup.Deduplicator;
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.file.File;
+import edu.demian.filesystem.snapshot.SnapshotManager;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FileDescriptor {
 
-    private static final int INITIAL_BLOCK_QUANTITY = 4;
-
+    // handed out again once the file is released, so descriptors are only equal to themselves
     private final int id;
     private long offset;
-    private int fileSizeInBytes = INITIAL_BLOCK_QUANTITY * Block.BLOCK_SIZE;
+    private final BlockDevice blockDevice;
+    private final PageCache pageCache;
+    private final SnapshotManager snapshots;
+    private final Compressor compressor;
+    private final int blockSize;
+    private volatile int fileSizeInBytes;
+    // the file this descriptor was created for, other names of the file are hard links to it
+    private volatile File file;
+
+    // generation of the newest snapshot when the descriptor was created and up to which its state is saved
+    private final int generation;
+    private volatile int preservedGeneration;
+
+    private final BlockMap blockMap;
+    // reads and writes of data share the lock, changing the block map is exclusive
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    private List<Block> blockList = new LinkedList<>();
+    // the compressed extent decompressed last, pages of an extent are usually read one after another
+    private volatile DecompressedExtent decompressedExtent;
+    private final CompressionStatistics compressionStatistics = new CompressionStatistics();
+
+    // names of the file in directories and open files referring to it, guarded by this descriptor
+    private int linkCount;
+    private int openCount;
+    private boolean released;
 
     public FileDescriptor(int id) {
         this.id = id;
-        for (int i = 0; i < INITIAL_BLOCK_QUANTITY; i++) {
-            blockList.add(new Block());
+        this.blockDevice = FileSystem.getInstance().getBlockDevice();
+        this.pageCache = FileSystem.getInstance().getPageCache();
+        this.snapshots = FileSystem.getInstance().getSnapshots();
+        this.compressor = FileSystem.getInstance().getCompressor();
+        this.blockSize = blockDevice.getBlockSize();
+        this.blockMap = new BlockMap(blockDevice);
+        // a hole, blocks are allocated on first write
+        fileSizeInBytes = FileSystem.getInstance().getGeometry().getInitialBlockCount() * blockSize;
+        this.generation = snapshots.getGeneration();
+        this.preservedGeneration = generation;
+    }
+
+    /**
+     * Restores a descriptor whose blocks are already allocated on the device of the file system.
+     */
+    public FileDescriptor(int id, int fileSizeInBytes, int linkCount, BlockMap blockMap) {
+        this.id = id;
+        this.blockDevice = FileSystem.getInstance().getBlockDevice();
+        this.pageCache = FileSystem.getInstance().getPageCache();
+        this.snapshots = FileSystem.getInstance().getSnapshots();
+        this.compressor = FileSystem.getInstance().getCompressor();
+        this.blockSize = blockDevice.getBlockSize();
+        this.blockMap = blockMap;
+        this.fileSizeInBytes = fileSizeInBytes;
+        this.linkCount = linkCount;
+        // the file existed before any snapshot
+        this.generation = 0;
+        this.preservedGeneration = 0;
+    }
+
+    /**
+     * Counts a new name of the file.
+     *
+     * @return false if the file is already released and can't get new names
+     */
+    public boolean link() {
+        preserveLinkCount();
+        synchronized (this) {
+            if (released) {
+                return false;
+            }
+            linkCount++;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if that was the last reference to the file, the caller must release it then
+     */
+    public boolean unlink() {
+        preserveLinkCount();
+        synchronized (this) {
+            linkCount--;
+            return release();
+        }
+    }
+
+    /**
+     * Counts a new open file referring to the file.
+     *
+     * @return false if the file is already released
+     */
+    public synchronized boolean open() {
+        if (released) {
+            return false;
+        }
+        openCount++;
+        return true;
+    }
+
+    /**
+     * @return true if that was the last reference to the file, the caller must release it then
+     */
+    public synchronized boolean close() {
+        openCount--;
+        return release();
+    }
+
+    public synchronized int getLinkCount() {
+        return linkCount;
+    }
+
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    private boolean release() {
+        if (linkCount > 0 || openCount > 0 || released) {
+            return false;
+        }
+        released = true;
+        return true;
+    }
+
+    /**
+     * Reads bytes starting at {@code position} into {@code dst}, at most up to the end of the file.
+     *
+     * @return number of bytes read
+     */
+    public int read(int position, ByteBuffer dst) {
+        compressor.fileAccessed(this);
+        lock.readLock().lock();
+        try {
+            return readBlocks(position, dst);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int readBlocks(int position, ByteBuffer dst) {
+        int endPosition = position + Math.min(dst.remaining(), fileSizeInBytes - position);
+        int pageSize = pageCache.getPageSize();
+        for (int currentPosition = position; currentPosition < endPosition; ) {
+            int length = Math.min(pageSize - currentPosition % pageSize, endPosition - currentPosition);
+            pageCache.read(this, currentPosition, dst, length);
+            currentPosition += length;
+        }
+        return Math.max(endPosition - position, 0);
+    }
+
+    /**
+     * Writes bytes from {@code src} starting at {@code position}, at most up to the end of the file.
+     *
+     * @return number of bytes written
+     */
+    public int write(int position, ByteBuffer src) {
+        compressor.fileAccessed(this);
+        int endPosition = position + src.remaining();
+        lock.readLock().lock();
+        try {
+            if (isWritable(position / blockSize, blockCountOf(Math.min(endPosition, fileSizeInBytes)))) {
+                return writeBlocks(position, src);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // allocating changes the block map, so it is exclusive; the lock is downgraded for the write itself
+        lock.writeLock().lock();
+        try {
+            makeWritable(position / blockSize, blockCountOf(Math.min(endPosition, fileSizeInBytes)));
+            lock.readLock().lock();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        markDirty();
+        try {
+            return writeBlocks(position, src);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isWritable(int fromBlockIndex, int toBlockIndex) {
+        int snapshotGeneration = snapshots.getGeneration();
+        for (int blockIndex = fromBlockIndex; blockIndex < toBlockIndex; blockIndex++) {
+            if (!blockMap.isWritable(blockIndex, snapshotGeneration)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // fills holes, decompresses and moves blocks shared with snapshots, the caller holds the write lock
+    private void makeWritable(int fromBlockIndex, int toBlockIndex) {
+        int snapshotGeneration = snapshots.getGeneration();
+        for (int blockIndex = fromBlockIndex; blockIndex < toBlockIndex; ) {
+            if (blockMap.isWritable(blockIndex, snapshotGeneration)) {
+                blockIndex++;
+                continue;
+            }
+            preserve();
+            BlockMap.CompressedExtent compressedExtent = blockMap.getCompressedExtent(blockIndex);
+            if (compressedExtent != null) {
+                // the decompressed blocks may still be shared with snapshots
+                decompress(compressedExtent);
+                continue;
+            }
+            boolean hole = blockMap.getPhysicalBlock(blockIndex) == BlockMap.HOLE;
+            int runLength = 1;
+            while (blockIndex + runLength < toBlockIndex && !blockMap.isWritable(blockIndex + runLength, snapshotGeneration)
+                    && blockMap.getPhysicalBlock(blockIndex + runLength) != BlockMap.COMPRESSED
+                    && (blockMap.getPhysicalBlock(blockIndex + runLength) == BlockMap.HOLE) == hole) {
+                runLength++;
+            }
+            if (hole) {
+                blockMap.allocate(blockIndex, runLength, snapshotGeneration);
+            } else {
+                blockMap.copyOnWrite(blockIndex, runLength, snapshotGeneration);
+            }
+            for (int i = blockIndex; i < blockIndex + runLength; i++) {
+                pageCache.blockAllocated(this, i, blockMap.getPhysicalBlock(i));
+            }
+            blockIndex += runLength;
+        }
+    }
+
+    private int blockCountOf(int sizeInBytes) {
+        return (sizeInBytes + blockSize - 1) / blockSize;
+    }
+
+    private int writeBlocks(int position, ByteBuffer src) {
+        int endPosition = position + Math.min(src.remaining(), fileSizeInBytes - position);
+        int pageSize = pageCache.getPageSize();
+        for (int currentPosition = position; currentPosition < endPosition; ) {
+            int length = Math.min(pageSize - currentPosition % pageSize, endPosition - currentPosition);
+            pageCache.write(this, currentPosition, src, length);
+            currentPosition += length;
+        }
+        return Math.max(endPosition - position, 0);
+    }
+
+    /**
+     * Makes the blocks {@code [fromBlockIndex, toBlockIndex)} of this file share the same blocks of the source
+     * file instead of copying their data, either file copies a shared block once it is written. The range must
+     * lie within this file.
+     */
+    public void shareBlocks(FileDescriptor source, int fromBlockIndex, int toBlockIndex) {
+        // two descriptors are always locked in the order of their ids
+        FileDescriptor first = id < source.id ? this : source;
+        FileDescriptor second = first == this ? source : this;
+        first.lock.writeLock().lock();
+        second.lock.writeLock().lock();
+        try {
+            // the shared blocks must hold what is written to the source so far
+            pageCache.flush(source);
+            source.decompress(fromBlockIndex, toBlockIndex);
+            decompressAcross(fromBlockIndex);
+            decompressAcross(toBlockIndex);
+            pageCache.invalidate(this, fromBlockIndex, toBlockIndex);
+            preserve();
+            blockMap.share(source.blockMap, fromBlockIndex, toBlockIndex - fromBlockIndex, snapshots.getGeneration());
+        } finally {
+            second.lock.writeLock().unlock();
+            first.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the blocks written back since the last call by blocks of the same data the deduplicator already
+     * stores. Blocks shared meanwhile or moved by a later write are skipped.
+     */
+    public void deduplicate(Deduplicator deduplicator) {
+        boolean changed = false;
+        lock.writeLock().lock();
+        try {
+            // the data must be on the device before it is compared
+            pageCache.flush(this);
+            int snapshotGeneration = snapshots.getGeneration();
+            for (Map.Entry<Integer, Integer> entry : deduplicator.drainWrittenBlocks(this).entrySet()) {
+                int blockIndex = entry.getKey();
+                int physicalBlock = entry.getValue();
+                if (blockMap.getPhysicalBlock(blockIndex) != physicalBlock || !blockMap.isWritable(blockIndex, snapshotGeneration)) {
+                    continue;
+                }
+                int storedBlock = deduplicator.store(physicalBlock);
+                if (storedBlock != physicalBlock) {
+                    preserve();
+                    blockMap.replace(blockIndex, storedBlock, snapshotGeneration);
+                    // the cached page holds the same data and stays valid
+                    pageCache.blockAllocated(this, blockIndex, storedBlock);
+                    changed = true;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (changed) {
+            markDirty();
+        }
+    }
+
+    /**
+     * Compresses the blocks of the file which are neither shared nor compressed yet, in groups of
+     * {@link Compressor#GROUP_SIZE_IN_BYTES}. Blocks of a group are replaced only if their compressed data
+     * takes fewer blocks.
+     */
+    public void compress(Codec codec) {
+        lock.writeLock().lock();
+        try {
+            // the data must be on the device before it is compressed
+            pageCache.flush(this);
+            int snapshotGeneration = snapshots.getGeneration();
+            int groupLength = Math.max(1, Compressor.GROUP_SIZE_IN_BYTES / blockSize);
+            int blockCount = blockCountOf(fileSizeInBytes);
+            byte[] data = new byte[groupLength * blockSize];
+            byte[] compressedData = new byte[codec.maxCompressedLength(data.length)];
+            for (int groupStart = 0; groupStart < blockCount; groupStart += groupLength) {
+                int groupEnd = Math.min(groupStart + groupLength, blockCount);
+                for (int blockIndex = groupStart; blockIndex < groupEnd; ) {
+                    if (!blockMap.isWritable(blockIndex, snapshotGeneration)) {
+                        blockIndex++;
+                        continue;
+                    }
+                    int runLength = 1;
+                    while (blockIndex + runLength < groupEnd && blockMap.isWritable(blockIndex + runLength, snapshotGeneration)) {
+                        runLength++;
+                    }
+                    compress(codec, blockIndex, runLength, data, compressedData, snapshotGeneration);
+                    blockIndex += runLength;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compress(Codec codec, int fromBlockIndex, int length, byte[] data, byte[] compressedData, int snapshotGeneration) {
+        for (int i = 0; i < length; i++) {
+            blockDevice.read(blockMap.getPhysicalBlock(fromBlockIndex + i), 0, ByteBuffer.wrap(data, i * blockSize, blockSize), blockSize);
+        }
+        long start = System.nanoTime();
+        int compressedSize = codec.compress(data, length * blockSize, compressedData);
+        compressionStatistics.compressed(length * blockSize, System.nanoTime() - start);
+        if (blockCountOf(compressedSize) >= length) {
+            return;
         }
+        // cached pages must not be written back to blocks which are freed
+        pageCache.invalidate(this, fromBlockIndex, fromBlockIndex + length);
+        preserve();
+        blockMap.compress(fromBlockIndex, length, compressedData, compressedSize, snapshotGeneration);
+    }
+
+    /**
+     * Reads a compressed block into {@code dst}, called by the page cache with the lock of the file held.
+     */
+    public void readCompressedBlock(int blockIndex, byte[] dst, int offset) {
+        BlockMap.CompressedExtent compressedExtent = blockMap.getCompressedExtent(blockIndex);
+        byte[] data = decompressedDataOf(compressedExtent);
+        System.arraycopy(data, (blockIndex - compressedExtent.getLogicalStart()) * blockSize, dst, offset, blockSize);
+    }
+
+    private byte[] decompressedDataOf(BlockMap.CompressedExtent compressedExtent) {
+        DecompressedExtent decompressedExtent = this.decompressedExtent;
+        if (decompressedExtent != null && decompressedExtent.compressedExtent == compressedExtent) {
+            return decompressedExtent.data;
+        }
+        byte[] compressedData = blockMap.readCompressed(compressedExtent);
+        byte[] data = new byte[compressedExtent.getLength() * blockSize];
+        long start = System.nanoTime();
+        compressor.getCodec().decompress(compressedData, compressedData.length, data, data.length);
+        compressionStatistics.decompressed(data.length, System.nanoTime() - start);
+        this.decompressedExtent = new DecompressedExtent(compressedExtent, data);
+        return data;
+    }
+
+    // replaces the compressed extents holding blocks [fromBlockIndex, toBlockIndex), the caller holds the write lock
+    private void decompress(int fromBlockIndex, int toBlockIndex) {
+        for (int blockIndex = fromBlockIndex; blockIndex < toBlockIndex; blockIndex++) {
+            BlockMap.CompressedExtent compressedExtent = blockMap.getCompressedExtent(blockIndex);
+            if (compressedExtent != null) {
+                decompress(compressedExtent);
+                blockIndex = compressedExtent.getLogicalStart() + compressedExtent.getLength() - 1;
+            }
+        }
+    }
+
+    // a compressed extent is never split, so one holding blocks on both sides of the boundary is decompressed
+    private void decompressAcross(int blockIndex) {
+        BlockMap.CompressedExtent compressedExtent = blockMap.getCompressedExtent(blockIndex);
+        if (compressedExtent != null && compressedExtent.getLogicalStart() < blockIndex) {
+            decompress(compressedExtent);
+        }
+    }
+
+    private void decompress(BlockMap.CompressedExtent compressedExtent) {
+        preserve();
+        blockMap.decompress(compressedExtent.getLogicalStart(), decompressedDataOf(compressedExtent), snapshots.getGeneration());
+        for (int i = compressedExtent.getLogicalStart(); i < compressedExtent.getLogicalStart() + compressedExtent.getLength(); i++) {
+            pageCache.blockAllocated(this, i, blockMap.getPhysicalBlock(i));
+        }
+        decompressedExtent = null;
     }
 
     public void changeFileSize(final int newFileSizeInBytes) {
+        lock.writeLock().lock();
+        try {
+            resize(newFileSizeInBytes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Grows the file, unlike {@link #changeFileSize(int)} never shrinks it if it has already grown bigger meanwhile.
+     *
+     * @return true if the size was changed
+     */
+    public boolean growFileSize(final int newFileSizeInBytes) {
+        if (newFileSizeInBytes <= fileSizeInBytes) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            if (newFileSizeInBytes <= fileSizeInBytes) {
+                return false;
+            }
+            resize(newFileSizeInBytes);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void resize(final int newFileSizeInBytes) {
         if (newFileSizeInBytes == fileSizeInBytes) {
             return;
         }
+        preserve();
         if (newFileSizeInBytes < fileSizeInBytes) {
-            int blocksNeeded = newFileSizeInBytes / Block.BLOCK_SIZE;
-            int reminder = newFileSizeInBytes - Block.BLOCK_SIZE * blocksNeeded;
+            int blocksNeeded = newFileSizeInBytes / blockSize;
+            int reminder = newFileSizeInBytes - blockSize * blocksNeeded;
             if (reminder > 0) {
                 blocksNeeded++;
             }
-            for (int i = blocksNeeded; i < blockList.size(); i++) {
-                blockList.remove(i);
+            if (reminder > 0 && blockMap.getPhysicalBlock(blocksNeeded - 1) != BlockMap.HOLE) {
+                // the cut off tail of the last block must read as zeros once the file grows again
+                makeWritable(blocksNeeded - 1, blocksNeeded);
+                pageCache.write(this, newFileSizeInBytes, ByteBuffer.allocate(blockSize - reminder), blockSize - reminder);
             }
+            decompressAcross(blocksNeeded);
+            // cached pages must not be written back to blocks which are freed
+            pageCache.invalidate(this, blocksNeeded);
+            blockMap.truncate(blocksNeeded, snapshots.getGeneration());
             fileSizeInBytes = newFileSizeInBytes;
         }
         if (newFileSizeInBytes > fileSizeInBytes) {
-            int blocksNeeded = newFileSizeInBytes / Block.BLOCK_SIZE;
-            int reminder = newFileSizeInBytes - Block.BLOCK_SIZE * blocksNeeded;
-            if (reminder > 0) {
-                blocksNeeded++;
+            // the new part of the file is a hole
+            fileSizeInBytes = newFileSizeInBytes;
+        }
+    }
+
+    // the image stores the block map of the file, it must be written again once blocks are allocated or moved
+    private void markDirty() {
+        File file = this.file;
+        if (file != null) {
+            FileSystem.getInstance().markDirty(file);
+        }
+    }
+
+    // saves the state the newest snapshot sees before it changes, the caller holds the write lock
+    private void preserve() {
+        int snapshotGeneration = snapshots.getGeneration();
+        if (preservedGeneration < snapshotGeneration) {
+            snapshots.preserve(this, new SavedState(fileSizeInBytes, getLinkCount(), blockMap.copy()));
+            preservedGeneration = snapshotGeneration;
+        }
+    }
+
+    // counts are guarded by the monitor which is never held while taking the lock
+    private void preserveLinkCount() {
+        if (preservedGeneration < snapshots.getGeneration()) {
+            lock.writeLock().lock();
+            try {
+                preserve();
+            } finally {
+                lock.writeLock().unlock();
             }
-            int blockReminder = blocksNeeded - blockList.size();
-            for (int i = 0; i < blockReminder; i++) {
-                blockList.add(new Block());
+        }
+    }
+
+    /**
+     * Brings back the state saved by a snapshot the namespace is rolled back to. Blocks of the current state
+     * which the snapshot does not share are freed by the caller.
+     *
+     * @param preservedGeneration generation up to which the state is saved from now on
+     * @return true if nothing refers to the file in that state, the caller must release it then
+     */
+    public boolean restore(SavedState state, int preservedGeneration) {
+        lock.writeLock().lock();
+        try {
+            blockMap.assign(state.blockMap);
+            fileSizeInBytes = state.fileSizeInBytes;
+            this.preservedGeneration = preservedGeneration;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            linkCount = state.linkCount;
+            released = false;
+            return release();
+        }
+    }
+
+    /**
+     * Drops a file created after the snapshot the namespace is rolled back to, its blocks are freed by the caller.
+     * An open file stays usable until it is closed.
+     *
+     * @return true if nothing refers to the file anymore, the caller must release it then
+     */
+    public boolean discard() {
+        lock.writeLock().lock();
+        try {
+            blockMap.assign(new BlockMap(blockDevice));
+            fileSizeInBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            if (released) {
+                return false;
             }
-            fileSizeInBytes = newFileSizeInBytes;
+            linkCount = 0;
+            return release();
         }
     }
 
@@ -56,6 +558,21 @@ public class FileDescriptor {
         return id;
     }
 
+    /**
+     * @return generation of the newest snapshot when the file was created, 0 for files older than any snapshot
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
     public long getOffset() {
         return offset;
     }
@@ -64,24 +581,86 @@ public class FileDescriptor {
         this.offset = offset;
     }
 
-    public List<Block> getBlockList() {
-        return blockList;
+    public BlockMap getBlockMap() {
+        return blockMap;
+    }
+
+    public ReadWriteLock getLock() {
+        return lock;
     }
 
     public int getFileSizeInBytes() {
         return fileSizeInBytes;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        FileDescriptor that = (FileDescriptor) o;
-        return id == that.id;
+    /**
+     * @return space taken by the blocks of the file, less than its size if the file has holes
+     */
+    public long getAllocatedSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) blockMap.getAllocatedBlockCount() * blockSize;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(id);
+    /**
+     * @return number of blocks of the file whose data is compressed
+     */
+    public int getCompressedBlockCount() {
+        lock.readLock().lock();
+        try {
+            return blockMap.getCompressedBlockCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return size of the compressed data of the file
+     */
+    public long getCompressedSizeInBytes() {
+        lock.readLock().lock();
+        try {
+            return blockMap.getCompressedSizeInBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public CompressionStatistics getCompressionStatistics() {
+        return compressionStatistics;
+    }
+
+    private static class DecompressedExtent {
+
+        private final BlockMap.CompressedExtent compressedExtent;
+        private final byte[] data;
+
+        private DecompressedExtent(BlockMap.CompressedExtent compressedExtent, byte[] data) {
+            this.compressedExtent = compressedExtent;
+            this.data = data;
+        }
+    }
+
+    /**
+     * State of a file as seen by a snapshot, its block map shares blocks with the file.
+     */
+    public static class SavedState {
+
+        private final int fileSizeInBytes;
+        private final int linkCount;
+        private final BlockMap blockMap;
+
+        private SavedState(int fileSizeInBytes, int linkCount, BlockMap blockMap) {
+            this.fileSizeInBytes = fileSizeInBytes;
+            this.linkCount = linkCount;
+            this.blockMap = blockMap;
+        }
+
+        public BlockMap getBlockMap() {
+            return blockMap;
+        }
     }
 }
@@ -0,0 +1,53 @@
+package edu.demian.filesystem.file.descriptor;
+
+import edu.demian.filesystem.device.BlockBitmap;
+import edu.demian.filesystem.device.BlockRun;
+import edu.demian.filesystem.exception.FileCreationException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hands out file descriptor ids {@code 1..numberOfDescriptors}, ids of deleted files are reused.
+ * <p>
+ * Ids are kept in a bitmap searched next-fit, so an allocation is O(1) amortized. Id 0 is never handed out.
+ */
+public class InodeAllocator {
+
+    private final BlockBitmap bitmap;
+
+    public InodeAllocator(int numberOfDescriptors) {
+        int bitCount = numberOfDescriptors + 1;
+        this.bitmap = new BlockBitmap(ByteBuffer.allocate(BlockBitmap.sizeInBytes(bitCount)), bitCount);
+        bitmap.setUsed(0, 1);
+    }
+
+    /**
+     * @throws FileCreationException if all ids are taken
+     */
+    public synchronized int allocate() {
+        BlockRun run = bitmap.allocate(1);
+        if (run == null) {
+            throw new FileCreationException("Can't create a file: [no file descriptors available]");
+        }
+        return run.getStartBlock();
+    }
+
+    /**
+     * Marks an id restored from a disk image as taken.
+     */
+    public synchronized void reserve(int id) {
+        if (!bitmap.isUsed(id)) {
+            bitmap.setUsed(id, 1);
+        }
+    }
+
+    public synchronized void release(int id) {
+        if (id > 0 && bitmap.isUsed(id)) {
+            bitmap.free(id, 1);
+        }
+    }
+
+    public synchronized int getFreeCount() {
+        return bitmap.getBitCount() - bitmap.getUsedCount();
+    }
+}
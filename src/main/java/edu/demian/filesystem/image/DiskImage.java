@@ -0,0 +1,594 @@
+package edu.demian.filesystem.image;
+
+import edu.demian.filesystem.device.BlockBitmap;
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.device.BlockRun;
+import edu.demian.filesystem.device.MappedBlockDevice;
+import edu.demian.filesystem.exception.ImageFormatException;
+import edu.demian.filesystem.file.DirectoryFile;
+import edu.demian.filesystem.file.File;
+import edu.demian.filesystem.file.RegularFile;
+import edu.demian.filesystem.file.SymbolicLinkFile;
+import edu.demian.filesystem.file.descriptor.BlockMap;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * File system stored in a memory-mapped image file.
+ * <p>
+ * Layout of the image:
+ * <pre>
+ * | superblock | inode table | block bitmap | data blocks |
+ * </pre>
+ * The inode table holds a fixed-size record per inode: its type, size and the location of its
+ * metadata - the extents of the file and, for directories and symbolic links, their entries or
+ * content. Metadata is stored in the data region as a chain of block runs.
+ * <p>
+ * Blocks shared by several files are listed with their number of references in a metadata chain of their
+ * own, found from the superblock.
+ * <p>
+ * Mounting only maps the image: the bitmap and the data blocks are used in place and directories
+ * are read when they are accessed for the first time. File data is written straight into the
+ * mapped blocks, metadata of changed files is written back by {@link #sync()}.
+ */
+public class DiskImage {
+
+    private static final int MAGIC = 0x4653494D; // "FSIM"
+    private static final int VERSION = 4;
+    private static final int SUPERBLOCK_SIZE = 4096;
+    private static final int ALIGNMENT = 4096;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int BLOCK_SIZE_OFFSET = 8;
+    private static final int BLOCK_COUNT_OFFSET = 12;
+    private static final int INODE_COUNT_OFFSET = 16;
+    private static final int ROOT_INODE_OFFSET = 20;
+    private static final int STATE_OFFSET = 24;
+    private static final int REFERENCES_BLOCK_OFFSET = 28;
+    private static final int REFERENCES_RUN_LENGTH_OFFSET = 32;
+    private static final int REFERENCES_LENGTH_OFFSET = 36;
+    private static final int INITIAL_BLOCK_COUNT_OFFSET = 40;
+
+    // an image which is not clean may have been left by a crash, its bitmap is rebuilt on mount
+    private static final int STATE_DIRTY = 0;
+    private static final int STATE_CLEAN = 1;
+
+    private static final int INODE_SIZE = 32;
+    private static final int INODE_TYPE_OFFSET = 0;
+    private static final int INODE_FILE_SIZE_OFFSET = 4;
+    private static final int INODE_METADATA_BLOCK_OFFSET = 8;
+    private static final int INODE_METADATA_RUN_LENGTH_OFFSET = 12;
+    private static final int INODE_METADATA_LENGTH_OFFSET = 16;
+    private static final int INODE_LINK_COUNT_OFFSET = 20;
+
+    private static final int TYPE_FREE = 0;
+    private static final int TYPE_REGULAR = 1;
+    private static final int TYPE_DIRECTORY = 2;
+    private static final int TYPE_SYMBOLIC_LINK = 3;
+
+    // every run of a metadata chain starts with the location of the next run
+    private static final int RUN_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int NO_RUN = -1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer superblock;
+    private final MappedByteBuffer inodeTable;
+    private final MappedBlockDevice blockDevice;
+    private final int inodeCount;
+
+    // guarded by this image: loading, storing and allocating metadata runs on a single thread at a time
+    private final Map<Integer, FileDescriptor> loadedDescriptors = new HashMap<>();
+    // guarded by itself, never held while taking a lock of a directory
+    private final Map<Integer, File> dirtyFiles = new LinkedHashMap<>();
+    // inodes of deleted files, guarded by dirtyFiles as well
+    private final Set<Integer> freedInodes = new LinkedHashSet<>();
+    // whether nothing changed since the last sync, transitions are guarded by the superblock
+    private volatile boolean clean;
+
+    private DiskImage(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.superblock = channel.map(FileChannel.MapMode.READ_WRITE, 0, SUPERBLOCK_SIZE);
+        if (superblock.getInt(MAGIC_OFFSET) != MAGIC || superblock.getInt(VERSION_OFFSET) != VERSION) {
+            throw new ImageFormatException("Can't mount the image: [unknown format]");
+        }
+        int blockSize = superblock.getInt(BLOCK_SIZE_OFFSET);
+        int blockCount = superblock.getInt(BLOCK_COUNT_OFFSET);
+        this.inodeCount = superblock.getInt(INODE_COUNT_OFFSET);
+
+        long bitmapOffset = align((long) SUPERBLOCK_SIZE + (long) inodeCount * INODE_SIZE);
+        long dataOffset = align(bitmapOffset + BlockBitmap.sizeInBytes(blockCount));
+        this.inodeTable = channel.map(FileChannel.MapMode.READ_WRITE, SUPERBLOCK_SIZE, (long) inodeCount * INODE_SIZE);
+        this.blockDevice = MappedBlockDevice.map(channel, blockSize, blockCount, bitmapOffset, dataOffset);
+        this.clean = superblock.getInt(STATE_OFFSET) == STATE_CLEAN;
+        if (clean) {
+            loadSharedReferences();
+        }
+    }
+
+    /**
+     * @return false if the image was not synced after its last change, e.g. because of a crash
+     */
+    public boolean isClean() {
+        return superblock.getInt(STATE_OFFSET) == STATE_CLEAN;
+    }
+
+    /**
+     * Recomputes the free-block bitmap from the extents and the metadata of all inodes in use.
+     * Blocks allocated or freed after the last sync are only recorded in the bitmap, so it can't be trusted
+     * after a crash.
+     */
+    public synchronized void rebuildBitmap() {
+        blockDevice.clearBitmap();
+        // the stored references are recounted as well, their chain is free from now on
+        superblock.putInt(REFERENCES_BLOCK_OFFSET, NO_RUN);
+        forEachUsedInode(inode -> {
+            int recordOffset = recordOffset(inode);
+            int run = inodeTable.getInt(recordOffset + INODE_METADATA_BLOCK_OFFSET);
+            int runLength = inodeTable.getInt(recordOffset + INODE_METADATA_RUN_LENGTH_OFFSET);
+            while (run != NO_RUN) {
+                blockDevice.markUsed(run, runLength);
+                ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+                readRunHeader(run, header);
+                run = header.getInt(0);
+                runLength = header.getInt(Integer.BYTES);
+            }
+            try (DataInputStream metadata = readMetadata(inode)) {
+                int extentCount = metadata.readInt();
+                for (int i = 0; i < extentCount; i++) {
+                    metadata.readInt();
+                    blockDevice.markReferenced(metadata.readInt(), metadata.readInt());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't read inode " + inode, e);
+            }
+        });
+    }
+
+    /**
+     * Creates an empty image, any existing file at the path is overwritten.
+     */
+    public static DiskImage format(Path path, int inodeCount, int blockSize, int blockCount, int initialBlockCount) {
+        long bitmapOffset = align((long) SUPERBLOCK_SIZE + (long) inodeCount * INODE_SIZE);
+        long dataOffset = align(bitmapOffset + BlockBitmap.sizeInBytes(blockCount));
+        long imageSize = dataOffset + (long) blockCount * blockSize;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // extending the file leaves a sparse image: free bitmap, free inodes and zeroed blocks
+            channel.write(ByteBuffer.allocate(1), imageSize - 1);
+            ByteBuffer header = ByteBuffer.allocate(SUPERBLOCK_SIZE);
+            header.putInt(MAGIC_OFFSET, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(BLOCK_SIZE_OFFSET, blockSize);
+            header.putInt(BLOCK_COUNT_OFFSET, blockCount);
+            header.putInt(INODE_COUNT_OFFSET, inodeCount);
+            header.putInt(INITIAL_BLOCK_COUNT_OFFSET, initialBlockCount);
+            header.putInt(REFERENCES_BLOCK_OFFSET, NO_RUN);
+            channel.write(header, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't format the image", e);
+        }
+        return mount(path);
+    }
+
+    public static DiskImage mount(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new DiskImage(channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't mount the image", e);
+        }
+    }
+
+    public BlockDevice getBlockDevice() {
+        return blockDevice;
+    }
+
+    public int getInodeCount() {
+        return inodeCount;
+    }
+
+    /**
+     * @return number of blocks new files start with
+     */
+    public int getInitialBlockCount() {
+        return superblock.getInt(INITIAL_BLOCK_COUNT_OFFSET);
+    }
+
+    /**
+     * Passes every inode in use to the consumer, in ascending order.
+     */
+    public void forEachUsedInode(IntConsumer consumer) {
+        for (int inode = 1; inode < inodeCount; inode++) {
+            if (inodeTable.getInt(recordOffset(inode) + INODE_TYPE_OFFSET) != TYPE_FREE) {
+                consumer.accept(inode);
+            }
+        }
+    }
+
+    public boolean hasRootDirectory() {
+        return superblock.getInt(ROOT_INODE_OFFSET) != 0;
+    }
+
+    public void setRootDirectory(DirectoryFile rootDirectory) {
+        superblock.putInt(ROOT_INODE_OFFSET, rootDirectory.getDescriptor().getId());
+        markDirty(rootDirectory);
+    }
+
+    public synchronized DirectoryFile loadRootDirectory(String name) {
+        int rootInode = superblock.getInt(ROOT_INODE_OFFSET);
+        DirectoryFile rootDirectory = DirectoryFile.createRootInstance(loadDescriptor(rootInode), name);
+        rootDirectory.setContentLoader(this::loadDirectoryContent);
+        return rootDirectory;
+    }
+
+    public void markDirty(File file) {
+        if (file.getDescriptor() != null) {
+            markImageDirty();
+            synchronized (dirtyFiles) {
+                dirtyFiles.put(file.getDescriptor().getId(), file);
+            }
+        }
+    }
+
+    /**
+     * Frees the inode of a deleted file on the next {@link #sync()}, unless it is reused by then.
+     */
+    public void freeInode(int inode) {
+        markImageDirty();
+        synchronized (dirtyFiles) {
+            dirtyFiles.remove(inode);
+            freedInodes.add(inode);
+        }
+    }
+
+    /**
+     * Writes metadata of all changed files to the image and flushes the image to disk.
+     */
+    public synchronized void sync() {
+        synchronized (superblock) {
+            // any change from now on makes the image dirty again
+            clean = true;
+        }
+        List<File> files;
+        List<Integer> inodes;
+        synchronized (dirtyFiles) {
+            files = new ArrayList<>(dirtyFiles.values());
+            dirtyFiles.clear();
+            inodes = new ArrayList<>(freedInodes);
+            freedInodes.clear();
+        }
+        // a reused inode is stored after it is freed
+        for (int inode : inodes) {
+            loadedDescriptors.remove(inode);
+            int recordOffset = recordOffset(inode);
+            if (inodeTable.getInt(recordOffset + INODE_TYPE_OFFSET) != TYPE_FREE) {
+                freeMetadata(inode);
+                inodeTable.putInt(recordOffset + INODE_TYPE_OFFSET, TYPE_FREE);
+            }
+        }
+        for (File file : files) {
+            storeInode(file);
+        }
+        storeSharedReferences();
+        blockDevice.force();
+        inodeTable.force();
+        synchronized (superblock) {
+            if (clean) {
+                superblock.putInt(STATE_OFFSET, STATE_CLEAN);
+            }
+            superblock.force();
+        }
+    }
+
+    /**
+     * Keeps the image marked as not unmounted cleanly until the next sync, so its bitmap is rebuilt if it is
+     * mounted again without one.
+     */
+    public void markImageDirty() {
+        if (clean) {
+            synchronized (superblock) {
+                if (clean) {
+                    clean = false;
+                    superblock.putInt(STATE_OFFSET, STATE_DIRTY);
+                    superblock.force();
+                }
+            }
+        }
+    }
+
+    public void close() {
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close the image", e);
+        }
+    }
+
+    private synchronized void loadDirectoryContent(DirectoryFile directory) {
+        try (DataInputStream metadata = readMetadata(directory.getDescriptor().getId())) {
+            skipExtents(metadata);
+            int entryCount = metadata.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String name = metadata.readUTF();
+                int inode = metadata.readInt();
+                directory.restoreFile(loadFile(inode, name, directory));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read directory " + directory.getName(), e);
+        }
+    }
+
+    private File loadFile(int inode, String name, DirectoryFile parentDirectory) throws IOException {
+        FileDescriptor descriptor = loadDescriptor(inode);
+        switch (inodeTable.getInt(recordOffset(inode) + INODE_TYPE_OFFSET)) {
+            case TYPE_REGULAR:
+                return RegularFile.createInstance(descriptor, name);
+            case TYPE_DIRECTORY:
+                DirectoryFile directory = DirectoryFile.createInstance(descriptor, name, parentDirectory);
+                directory.setContentLoader(this::loadDirectoryContent);
+                return directory;
+            case TYPE_SYMBOLIC_LINK:
+                try (DataInputStream metadata = readMetadata(inode)) {
+                    skipExtents(metadata);
+                    return SymbolicLinkFile.createInstance(descriptor, name, metadata.readUTF());
+                }
+            default:
+                throw new ImageFormatException("Can't read inode " + inode + ": [inode is free]");
+        }
+    }
+
+    private FileDescriptor loadDescriptor(int inode) {
+        FileDescriptor descriptor = loadedDescriptors.get(inode);
+        if (descriptor != null) {
+            return descriptor;
+        }
+        BlockMap blockMap = new BlockMap(blockDevice);
+        try (DataInputStream metadata = readMetadata(inode)) {
+            int extentCount = metadata.readInt();
+            for (int i = 0; i < extentCount; i++) {
+                blockMap.addExtent(metadata.readInt(), metadata.readInt(), metadata.readInt());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read inode " + inode, e);
+        }
+        int recordOffset = recordOffset(inode);
+        descriptor = new FileDescriptor(inode, inodeTable.getInt(recordOffset + INODE_FILE_SIZE_OFFSET),
+                inodeTable.getInt(recordOffset + INODE_LINK_COUNT_OFFSET), blockMap);
+        loadedDescriptors.put(inode, descriptor);
+        return descriptor;
+    }
+
+    private void storeInode(File file) {
+        FileDescriptor descriptor = file.getDescriptor();
+        int inode = descriptor.getId();
+        if (inode <= 0 || inode >= inodeCount) {
+            throw new ImageFormatException("Can't store inode " + inode + ": [inode table is full]");
+        }
+        loadedDescriptors.put(inode, descriptor);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int type;
+        int fileSizeInBytes;
+        try (DataOutputStream metadata = new DataOutputStream(bytes)) {
+            List<int[]> extents = new ArrayList<>();
+            descriptor.getLock().readLock().lock();
+            try {
+                descriptor.getBlockMap().forEachExtent((logicalStart, physicalStart, length) -> extents.add(new int[]{logicalStart, physicalStart, length}));
+                fileSizeInBytes = descriptor.getFileSizeInBytes();
+            } finally {
+                descriptor.getLock().readLock().unlock();
+            }
+            metadata.writeInt(extents.size());
+            for (int[] extent : extents) {
+                metadata.writeInt(extent[0]);
+                metadata.writeInt(extent[1]);
+                metadata.writeInt(extent[2]);
+            }
+            if (file instanceof DirectoryFile) {
+                type = TYPE_DIRECTORY;
+                List<File> entries = new ArrayList<>();
+                for (File entry : ((DirectoryFile) file).getContent()) {
+                    if (entry.getDescriptor() != null) {
+                        entries.add(entry);
+                    }
+                }
+                metadata.writeInt(entries.size());
+                for (File entry : entries) {
+                    metadata.writeUTF(entry.getName());
+                    metadata.writeInt(entry.getDescriptor().getId());
+                }
+            } else if (file instanceof SymbolicLinkFile) {
+                type = TYPE_SYMBOLIC_LINK;
+                metadata.writeUTF(((SymbolicLinkFile) file).getContent());
+            } else {
+                type = TYPE_REGULAR;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write inode " + inode, e);
+        }
+
+        int recordOffset = recordOffset(inode);
+        if (inodeTable.getInt(recordOffset + INODE_TYPE_OFFSET) != TYPE_FREE) {
+            freeMetadata(inode);
+        }
+        BlockRun firstRun = writeMetadata(bytes.toByteArray());
+        inodeTable.putInt(recordOffset + INODE_TYPE_OFFSET, type);
+        inodeTable.putInt(recordOffset + INODE_FILE_SIZE_OFFSET, fileSizeInBytes);
+        inodeTable.putInt(recordOffset + INODE_METADATA_BLOCK_OFFSET, firstRun.getStartBlock());
+        inodeTable.putInt(recordOffset + INODE_METADATA_RUN_LENGTH_OFFSET, firstRun.getLength());
+        inodeTable.putInt(recordOffset + INODE_METADATA_LENGTH_OFFSET, bytes.size());
+        inodeTable.putInt(recordOffset + INODE_LINK_COUNT_OFFSET, descriptor.getLinkCount());
+    }
+
+    private void loadSharedReferences() {
+        int run = superblock.getInt(REFERENCES_BLOCK_OFFSET);
+        if (run == NO_RUN) {
+            return;
+        }
+        Map<Integer, Integer> sharedReferences = new HashMap<>();
+        try (DataInputStream metadata = readMetadata(run, superblock.getInt(REFERENCES_RUN_LENGTH_OFFSET), superblock.getInt(REFERENCES_LENGTH_OFFSET))) {
+            int count = metadata.readInt();
+            for (int i = 0; i < count; i++) {
+                sharedReferences.put(metadata.readInt(), metadata.readInt());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read shared blocks", e);
+        }
+        blockDevice.setSharedReferences(sharedReferences);
+    }
+
+    private void storeSharedReferences() {
+        Map<Integer, Integer> sharedReferences = blockDevice.getSharedReferences();
+        int run = superblock.getInt(REFERENCES_BLOCK_OFFSET);
+        if (run == NO_RUN && sharedReferences.isEmpty()) {
+            return;
+        }
+        if (run != NO_RUN) {
+            freeMetadata(run, superblock.getInt(REFERENCES_RUN_LENGTH_OFFSET));
+            superblock.putInt(REFERENCES_BLOCK_OFFSET, NO_RUN);
+        }
+        if (sharedReferences.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream metadata = new DataOutputStream(bytes)) {
+            metadata.writeInt(sharedReferences.size());
+            for (Map.Entry<Integer, Integer> entry : sharedReferences.entrySet()) {
+                metadata.writeInt(entry.getKey());
+                metadata.writeInt(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write shared blocks", e);
+        }
+        BlockRun firstRun = writeMetadata(bytes.toByteArray());
+        superblock.putInt(REFERENCES_BLOCK_OFFSET, firstRun.getStartBlock());
+        superblock.putInt(REFERENCES_RUN_LENGTH_OFFSET, firstRun.getLength());
+        superblock.putInt(REFERENCES_LENGTH_OFFSET, bytes.size());
+    }
+
+    private BlockRun writeMetadata(byte[] metadata) {
+        int blockSize = blockDevice.getBlockSize();
+        List<BlockRun> runs = new ArrayList<>();
+        int remaining = metadata.length;
+        do {
+            int blocksNeeded = (remaining + RUN_HEADER_SIZE + blockSize - 1) / blockSize;
+            BlockRun run = blockDevice.allocate(blocksNeeded);
+            runs.add(run);
+            remaining -= run.getLength() * blockSize - RUN_HEADER_SIZE;
+        } while (remaining > 0);
+
+        ByteBuffer data = ByteBuffer.wrap(metadata);
+        for (int i = 0; i < runs.size(); i++) {
+            BlockRun run = runs.get(i);
+            BlockRun nextRun = i + 1 < runs.size() ? runs.get(i + 1) : null;
+            ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+            header.putInt(nextRun == null ? NO_RUN : nextRun.getStartBlock());
+            header.putInt(nextRun == null ? 0 : nextRun.getLength());
+            header.flip();
+            writeRun(run, header, data);
+        }
+        return runs.get(0);
+    }
+
+    private void writeRun(BlockRun run, ByteBuffer header, ByteBuffer data) {
+        int blockSize = blockDevice.getBlockSize();
+        for (int block = run.getStartBlock(); block < run.getStartBlock() + run.getLength(); block++) {
+            int offsetInBlock = 0;
+            if (header.hasRemaining()) {
+                offsetInBlock = Math.min(header.remaining(), blockSize);
+                blockDevice.write(block, 0, header, offsetInBlock);
+            }
+            int length = Math.min(blockSize - offsetInBlock, data.remaining());
+            blockDevice.write(block, offsetInBlock, data, length);
+        }
+    }
+
+    private DataInputStream readMetadata(int inode) {
+        int recordOffset = recordOffset(inode);
+        return readMetadata(inodeTable.getInt(recordOffset + INODE_METADATA_BLOCK_OFFSET),
+                inodeTable.getInt(recordOffset + INODE_METADATA_RUN_LENGTH_OFFSET),
+                inodeTable.getInt(recordOffset + INODE_METADATA_LENGTH_OFFSET));
+    }
+
+    private DataInputStream readMetadata(int run, int runLength, int metadataLength) {
+        ByteBuffer metadata = ByteBuffer.allocate(metadataLength);
+        int blockSize = blockDevice.getBlockSize();
+        while (run != NO_RUN) {
+            ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+            for (int block = run; block < run + runLength; block++) {
+                int offsetInBlock = 0;
+                if (header.hasRemaining()) {
+                    offsetInBlock = Math.min(header.remaining(), blockSize);
+                    blockDevice.read(block, 0, header, offsetInBlock);
+                }
+                int length = Math.min(blockSize - offsetInBlock, metadata.remaining());
+                blockDevice.read(block, offsetInBlock, metadata, length);
+            }
+            run = header.getInt(0);
+            runLength = header.getInt(Integer.BYTES);
+        }
+        return new DataInputStream(new ByteArrayInputStream(metadata.array()));
+    }
+
+    private void freeMetadata(int inode) {
+        int recordOffset = recordOffset(inode);
+        freeMetadata(inodeTable.getInt(recordOffset + INODE_METADATA_BLOCK_OFFSET),
+                inodeTable.getInt(recordOffset + INODE_METADATA_RUN_LENGTH_OFFSET));
+    }
+
+    private void freeMetadata(int run, int runLength) {
+        while (run != NO_RUN) {
+            ByteBuffer header = ByteBuffer.allocate(RUN_HEADER_SIZE);
+            readRunHeader(run, header);
+            blockDevice.free(run, runLength);
+            run = header.getInt(0);
+            runLength = header.getInt(Integer.BYTES);
+        }
+    }
+
+    private void readRunHeader(int run, ByteBuffer header) {
+        blockDevice.read(run, 0, header, Math.min(RUN_HEADER_SIZE, blockDevice.getBlockSize()));
+        if (header.hasRemaining()) {
+            blockDevice.read(run + 1, 0, header, header.remaining());
+        }
+    }
+
+    private static void skipExtents(DataInputStream metadata) throws IOException {
+        int extentCount = metadata.readInt();
+        metadata.skipBytes(extentCount * 3 * Integer.BYTES);
+    }
+
+    private static int recordOffset(int inode) {
+        return inode * INODE_SIZE;
+    }
+
+    private static long align(long position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,363 @@
+package edu.demian.filesystem.journal;
+
+import edu.demian.filesystem.exception.ImageFormatException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of metadata changes made since the last checkpoint of the disk image.
+ * <p>
+ * Every change is a logical redo record referring to files by their inode: an entry was added to a
+ * directory, an entry was removed, the size of a file changed. Records are appended to a buffer in memory
+ * and get a log sequence number - the position right after them in the log. {@link #commit(long)} waits until
+ * the log is durable up to that position.
+ * <p>
+ * Commits are grouped: the first committer finding no write in progress becomes the leader, takes every
+ * record buffered so far and writes them with a single append and a single force, the others wait for it.
+ * Records buffered meanwhile go with the next batch, so durability costs one sequential append per batch.
+ * <p>
+ * Each record is framed by its length and a CRC32, replay stops at the first torn or corrupt record.
+ * A checkpoint writes the records it keeps to a new file which replaces the log at once, so a crash
+ * leaves either the old log or the new one.
+ */
+public class Journal {
+
+    public static final int TYPE_REGULAR = 1;
+    public static final int TYPE_DIRECTORY = 2;
+    public static final int TYPE_SYMBOLIC_LINK = 3;
+
+    private static final byte RECORD_ADDED = 1;
+    private static final byte RECORD_REMOVED = 2;
+    private static final byte RECORD_RESIZED = 3;
+
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES;
+
+    private final Path path;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    // guarded by lock, replaced by a checkpoint while no batch is written
+    private FileChannel channel;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appendedLsn;
+    private long durableLsn;
+    private long fileStartLsn;
+    private boolean flushing;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private Journal(Path path, FileChannel channel, long size) {
+        this.path = path;
+        this.channel = channel;
+        this.appendedLsn = size;
+        this.durableLsn = size;
+    }
+
+    public static Journal open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Journal(path, channel, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open the journal", e);
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return appendedLsn == fileStartLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs an entry added to a directory, the inode may be new or get one more name.
+     *
+     * @param content target of a symbolic link, null for other files
+     * @return log sequence number to {@link #commit(long)}
+     */
+    public long logAdded(int directoryInode, String name, int inode, int type, String content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeByte(RECORD_ADDED);
+            record.writeInt(directoryInode);
+            record.writeUTF(name);
+            record.writeInt(inode);
+            record.writeByte(type);
+            if (type == TYPE_SYMBOLIC_LINK) {
+                record.writeUTF(content);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(bytes.toByteArray());
+    }
+
+    /**
+     * @return log sequence number to {@link #commit(long)}
+     */
+    public long logRemoved(int directoryInode, String name) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeByte(RECORD_REMOVED);
+            record.writeInt(directoryInode);
+            record.writeUTF(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(bytes.toByteArray());
+    }
+
+    /**
+     * @return log sequence number to {@link #commit(long)}
+     */
+    public long logResized(int inode, int fileSizeInBytes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream record = new DataOutputStream(bytes)) {
+            record.writeByte(RECORD_RESIZED);
+            record.writeInt(inode);
+            record.writeInt(fileSizeInBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return append(bytes.toByteArray());
+    }
+
+    /**
+     * @return log sequence number of the last appended record
+     */
+    public long getAppendedLsn() {
+        lock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all records up to the log sequence number are durable, writing them if no one else does.
+     * If the write fails, its records stay buffered and the next commit writes them again at the same position.
+     */
+    public void commit(long lsn) {
+        lock.lock();
+        try {
+            while (durableLsn < lsn) {
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                byte[] batch = pending.toByteArray();
+                pending.reset();
+                long batchLsn = appendedLsn;
+                long position = durableLsn - fileStartLsn;
+                FileChannel channel = this.channel;
+                lock.unlock();
+                boolean written = false;
+                try {
+                    write(channel, batch, position);
+                    written = true;
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                    if (written) {
+                        durableLsn = batchLsn;
+                        batches.increment();
+                    } else {
+                        // records appended meanwhile follow the batch in the log
+                        byte[] appended = pending.toByteArray();
+                        pending.reset();
+                        pending.write(batch, 0, batch.length);
+                        pending.write(appended, 0, appended.length);
+                    }
+                    flushed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the records up to the log sequence number, the changes they describe are stored in the image.
+     * Records appended after it are kept.
+     */
+    public void checkpoint(long lsn) {
+        commit(getAppendedLsn());
+        lock.lock();
+        try {
+            while (flushing) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durableLsn == lsn) {
+                // nothing is kept, a crash while truncating leaves records already stored in the image
+                channel.truncate(0);
+                channel.force(false);
+            } else {
+                ByteBuffer tail = ByteBuffer.allocate((int) (durableLsn - lsn));
+                readFully(channel, tail, lsn - fileStartLsn);
+                tail.flip();
+                FileChannel replacedChannel = channel;
+                channel = replace(tail);
+                replacedChannel.close();
+            }
+            fileStartLsn = lsn;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't checkpoint the journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes every intact record of the log to the visitor in the order they were appended.
+     */
+    public void replay(RecordVisitor visitor) {
+        lock.lock();
+        try {
+            ByteBuffer log = ByteBuffer.allocate((int) (durableLsn - fileStartLsn));
+            readFully(channel, log, 0);
+            log.flip();
+            while (log.remaining() >= FRAME_OVERHEAD) {
+                int length = log.getInt();
+                if (length < 0 || length + Integer.BYTES > log.remaining()) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                log.get(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != log.getInt()) {
+                    break;
+                }
+                visit(record, visitor);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read the journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close the journal", e);
+        }
+    }
+
+    public long getRecordCount() {
+        return records.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    private long append(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer frame = ByteBuffer.allocate(record.length + FRAME_OVERHEAD);
+        frame.putInt(record.length).put(record).putInt((int) crc.getValue());
+        lock.lock();
+        try {
+            pending.write(frame.array(), 0, frame.capacity());
+            appendedLsn += frame.capacity();
+            records.increment();
+            return appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the new log is complete and durable before it takes the place of the old one
+    private FileChannel replace(ByteBuffer content) throws IOException {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel temporary = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            while (content.hasRemaining()) {
+                temporary.write(content, content.position());
+            }
+            temporary.force(false);
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporary.close();
+            Files.deleteIfExists(temporaryPath);
+            throw e;
+        }
+        return temporary;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new EOFException("The journal is shorter than its records");
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, byte[] batch, long position) {
+        try {
+            ByteBuffer data = ByteBuffer.wrap(batch);
+            while (data.hasRemaining()) {
+                channel.write(data, position + data.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write the journal", e);
+        }
+    }
+
+    private static void visit(byte[] bytes, RecordVisitor visitor) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte recordType = record.readByte();
+        switch (recordType) {
+            case RECORD_ADDED:
+                int directoryInode = record.readInt();
+                String name = record.readUTF();
+                int inode = record.readInt();
+                int type = record.readByte();
+                String content = type == TYPE_SYMBOLIC_LINK ? record.readUTF() : null;
+                visitor.added(directoryInode, name, inode, type, content);
+                break;
+            case RECORD_REMOVED:
+                visitor.removed(record.readInt(), record.readUTF());
+                break;
+            case RECORD_RESIZED:
+                visitor.resized(record.readInt(), record.readInt());
+                break;
+            default:
+                throw new ImageFormatException("Can't replay the journal: [unknown record " + recordType + "]");
+        }
+    }
+
+    public interface RecordVisitor {
+
+        void added(int directoryInode, String name, int inode, int type, String content);
+
+        void removed(int directoryInode, String name);
+
+        void resized(int inode, int fileSizeInBytes);
+    }
+}
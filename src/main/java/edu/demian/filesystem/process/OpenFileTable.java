@@ -0,0 +1,90 @@
+package edu.demian.filesystem.process;
+
+import edu.demian.filesystem.file.RegularFile;
+import edu.demian.filesystem.file.descriptor.OpenFileDescriptor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of open files of a process indexed by the file descriptor number.
+ * <p>
+ * Like in POSIX, opening a file takes the lowest free number, so closed numbers are reused. A bitmap of
+ * taken numbers is scanned 64 slots at a time to find it, the slot is claimed by a CAS on its bit and only
+ * then the open file is published in the slot. Neither open nor close takes a lock.
+ */
+public class OpenFileTable {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 1024;
+
+    private final int maxOpenFiles;
+    private final AtomicLongArray takenSlots;
+    private final AtomicReferenceArray<OpenFileDescriptor> slots;
+
+    public OpenFileTable(int maxOpenFiles) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("Limit of open files must be positive: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.takenSlots = new AtomicLongArray((maxOpenFiles + Long.SIZE - 1) / Long.SIZE);
+        this.slots = new AtomicReferenceArray<>(maxOpenFiles);
+    }
+
+    /**
+     * @return lowest free file descriptor number or -1 if the limit of open files is reached
+     */
+    public int open(RegularFile file) {
+        for (int word = 0; word < takenSlots.length(); word++) {
+            long taken = takenSlots.get(word);
+            while (taken != -1L) {
+                int bit = Long.numberOfTrailingZeros(~taken);
+                int fileDescriptor = word * Long.SIZE + bit;
+                if (fileDescriptor >= maxOpenFiles) {
+                    return -1;
+                }
+                long witness = taken | (1L << bit);
+                if (takenSlots.compareAndSet(word, taken, witness)) {
+                    slots.set(fileDescriptor, new OpenFileDescriptor(fileDescriptor, 0, file));
+                    return fileDescriptor;
+                }
+                taken = takenSlots.get(word);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return open file or null if the number is not open
+     */
+    public OpenFileDescriptor get(int fileDescriptor) {
+        if (fileDescriptor < 0 || fileDescriptor >= maxOpenFiles) {
+            return null;
+        }
+        return slots.get(fileDescriptor);
+    }
+
+    /**
+     * @return closed file or null if the number was not open
+     */
+    public OpenFileDescriptor close(int fileDescriptor) {
+        if (fileDescriptor < 0 || fileDescriptor >= maxOpenFiles) {
+            return null;
+        }
+        OpenFileDescriptor openFileDescriptor = slots.getAndSet(fileDescriptor, null);
+        if (openFileDescriptor == null) {
+            return null;
+        }
+        // the slot is empty before its number is freed, so the next owner never sees the old file
+        int word = fileDescriptor / Long.SIZE;
+        long mask = 1L << (fileDescriptor % Long.SIZE);
+        long taken;
+        do {
+            taken = takenSlots.get(word);
+        } while (!takenSlots.compareAndSet(word, taken, taken & ~mask));
+        return openFileDescriptor;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.demian.filesystem.process;
+
+import edu.demian.filesystem.file.DirectoryFile;
+import edu.demian.filesystem.file.RegularFile;
+import edu.demian.filesystem.file.descriptor.OpenFileDescriptor;
+
+/**
+ * State of a simulated process: its current directory and its table of open files.
+ * <p>
+ * A process may be driven by several threads at once, so both are safe for concurrent use.
+ */
+public class ProcessContext {
+
+    private final int pid;
+    private volatile DirectoryFile currentDirectory;
+
+    private final OpenFileTable openFileTable;
+
+    public ProcessContext(int pid, DirectoryFile currentDirectory) {
+        this(pid, currentDirectory, OpenFileTable.DEFAULT_MAX_OPEN_FILES);
+    }
+
+    public ProcessContext(int pid, DirectoryFile currentDirectory, int maxOpenFiles) {
+        this.pid = pid;
+        this.currentDirectory = currentDirectory;
+        this.openFileTable = new OpenFileTable(maxOpenFiles);
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public DirectoryFile getCurrentDirectory() {
+        return currentDirectory;
+    }
+
+    public void setCurrentDirectory(DirectoryFile currentDirectory) {
+        this.currentDirectory = currentDirectory;
+    }
+
+    public int getMaxOpenFiles() {
+        return openFileTable.getMaxOpenFiles();
+    }
+
+    /**
+     * @return lowest free file descriptor or -1 if the process has too many open files
+     */
+    public int openFile(RegularFile file) {
+        return openFileTable.open(file);
+    }
+
+    public OpenFileDescriptor getOpenFileDescriptor(int openFileDescriptorId) {
+        return openFileTable.get(openFileDescriptorId);
+    }
+
+    public OpenFileDescriptor closeFile(int openFileDescriptorId) {
+        return openFileTable.close(openFileDescriptorId);
+    }
+}
@@ -0,0 +1,59 @@
+package edu.demian.filesystem.snapshot;
+
+import edu.demian.filesystem.file.DirectoryFile;
+import edu.demian.filesystem.file.File;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named point in time of the namespace.
+ * <p>
+ * Nothing is copied when the snapshot is taken: directories and file descriptors save their state here the
+ * first time they change afterwards, everything else is shared with the live namespace. A snapshot thus
+ * holds the state of every node changed since it was taken and until the next snapshot, the state of a node
+ * at the time of the snapshot is the one saved by the oldest snapshot not older than it.
+ */
+public class Snapshot {
+
+    private final String name;
+    private final int generation;
+
+    private final Map<FileDescriptor, FileDescriptor.SavedState> descriptors = new ConcurrentHashMap<>();
+    private final Map<DirectoryFile, Map<String, File>> directories = new ConcurrentHashMap<>();
+    // files created while this snapshot was the newest one
+    private final Set<File> createdFiles = ConcurrentHashMap.newKeySet();
+    // files released while this snapshot was the newest one, their ids are kept while it exists
+    private final Set<File> retainedFiles = ConcurrentHashMap.newKeySet();
+
+    Snapshot(String name, int generation) {
+        this.name = name;
+        this.generation = generation;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public Map<FileDescriptor, FileDescriptor.SavedState> getDescriptors() {
+        return descriptors;
+    }
+
+    public Map<DirectoryFile, Map<String, File>> getDirectories() {
+        return directories;
+    }
+
+    public Set<File> getCreatedFiles() {
+        return createdFiles;
+    }
+
+    public Set<File> getRetainedFiles() {
+        return retainedFiles;
+    }
+}
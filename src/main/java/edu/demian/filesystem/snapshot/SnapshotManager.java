@@ -0,0 +1,111 @@
+package edu.demian.filesystem.snapshot;
+
+import edu.demian.filesystem.file.DirectoryFile;
+import edu.demian.filesystem.file.File;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshots of the namespace from the oldest to the newest one.
+ * <p>
+ * Every snapshot gets a generation greater than any before. Nodes remember the generation up to which their
+ * state is saved, a node whose generation is older than the newest snapshot saves its state there before it
+ * changes, see {@link Snapshot}.
+ */
+public class SnapshotManager {
+
+    // guarded by this
+    private final Map<String, Snapshot> snapshots = new LinkedHashMap<>();
+    private int lastGeneration;
+    private volatile Snapshot newestSnapshot;
+
+    /**
+     * @return generation of the newest snapshot, 0 if there are no snapshots
+     */
+    public int getGeneration() {
+        Snapshot snapshot = newestSnapshot;
+        return snapshot == null ? 0 : snapshot.getGeneration();
+    }
+
+    /**
+     * @return the new snapshot or null if a snapshot with this name already exists
+     */
+    public synchronized Snapshot create(String name) {
+        if (snapshots.containsKey(name)) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot(name, ++lastGeneration);
+        snapshots.put(name, snapshot);
+        newestSnapshot = snapshot;
+        return snapshot;
+    }
+
+    public synchronized Snapshot get(String name) {
+        return snapshots.get(name);
+    }
+
+    /**
+     * @return snapshots taken after the given one, the newest first
+     */
+    public synchronized List<Snapshot> getNewerThan(Snapshot snapshot) {
+        List<Snapshot> newerSnapshots = new ArrayList<>();
+        for (Snapshot newerSnapshot : snapshots.values()) {
+            if (newerSnapshot.getGeneration() > snapshot.getGeneration()) {
+                newerSnapshots.add(0, newerSnapshot);
+            }
+        }
+        return newerSnapshots;
+    }
+
+    /**
+     * Forgets the snapshots taken after the given one, it becomes the newest snapshot again.
+     */
+    public synchronized void removeNewerThan(Snapshot snapshot) {
+        snapshots.values().removeIf(newerSnapshot -> newerSnapshot.getGeneration() > snapshot.getGeneration());
+        newestSnapshot = snapshot;
+    }
+
+    /**
+     * Forgets all snapshots.
+     *
+     * @return forgotten snapshots
+     */
+    public synchronized List<Snapshot> removeAll() {
+        List<Snapshot> removedSnapshots = new ArrayList<>(snapshots.values());
+        snapshots.clear();
+        newestSnapshot = null;
+        return removedSnapshots;
+    }
+
+    public void preserve(FileDescriptor descriptor, FileDescriptor.SavedState state) {
+        Snapshot snapshot = newestSnapshot;
+        if (snapshot != null) {
+            snapshot.getDescriptors().putIfAbsent(descriptor, state);
+        }
+    }
+
+    public void preserve(DirectoryFile directory, Map<String, File> content) {
+        Snapshot snapshot = newestSnapshot;
+        if (snapshot != null) {
+            snapshot.getDirectories().putIfAbsent(directory, content);
+        }
+    }
+
+    public void fileCreated(File file) {
+        Snapshot snapshot = newestSnapshot;
+        if (snapshot != null) {
+            snapshot.getCreatedFiles().add(file);
+        }
+    }
+
+    public void fileRetained(File file) {
+        Snapshot snapshot = newestSnapshot;
+        if (snapshot != null) {
+            snapshot.getRetainedFiles().add(file);
+        }
+    }
+}
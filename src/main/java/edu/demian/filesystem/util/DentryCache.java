@@ -0,0 +1,235 @@
+package edu.demian.filesystem.util;
+
+import edu.demian.filesystem.file.DirectoryFile;
+import edu.demian.filesystem.file.File;
+import edu.demian.filesystem.file.RegularFile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of resolved pathnames (dentries).
+ * <p>
+ * Every entry remembers the file the pathname resolved to (without following a trailing symbolic link)
+ * together with the directory holding it, or nothing at all for negative entries. Instead of scanning the
+ * cache on every namespace change, entries are validated on access:
+ * <ul>
+ *     <li>negative entries die as soon as any entry is added anywhere in the namespace;</li>
+ *     <li>positive entries pointing to a regular file die when that file is unlinked;</li>
+ *     <li>all positive entries die when a directory or a symbolic link is removed, since any cached
+ *     path may have been resolved through it.</li>
+ * </ul>
+ * Relative pathnames are keyed together with the directory they were resolved from, so processes
+ * with different current directories never see each other's entries.
+ * <p>
+ * The cache is split into independently locked LRU segments to keep concurrent lookups from contending.
+ */
+public class DentryCache {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final AtomicLong negativeGeneration = new AtomicLong();
+    private final AtomicLong positiveGeneration = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DentryCache(final int capacity) {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENT_COUNT));
+        }
+    }
+
+    /**
+     * @return cached entry for the pathname resolved from the directory or null if it is absent or stale
+     */
+    public CachedLookup get(DirectoryFile startDirectory, String pathname) {
+        Object key = keyOf(startDirectory, pathname);
+        Segment segment = segmentFor(key);
+        CachedLookup entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && !isValid(entry)) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the entry resolved by a walk which started at the given generation, see {@link #getGeneration()}.
+     * An entry resolved while the namespace was changing is thus never taken for a fresh one.
+     */
+    public void put(DirectoryFile startDirectory, String pathname, CachedLookup entry, Generation generation) {
+        entry.generation = entry.file == null ? generation.negativeGeneration : generation.positiveGeneration;
+        Object key = keyOf(startDirectory, pathname);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public Generation getGeneration() {
+        return new Generation(negativeGeneration.get(), positiveGeneration.get());
+    }
+
+    public void entryAdded() {
+        negativeGeneration.incrementAndGet();
+    }
+
+    public void entryRemoved(File file) {
+        if (!(file instanceof RegularFile)) {
+            positiveGeneration.incrementAndGet();
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private boolean isValid(CachedLookup entry) {
+        if (entry.file == null) {
+            return entry.generation == negativeGeneration.get();
+        }
+        return entry.generation == positiveGeneration.get() && entry.file.isLinked();
+    }
+
+    private Segment segmentFor(Object key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+    }
+
+    private static Object keyOf(DirectoryFile startDirectory, String pathname) {
+        return pathname.startsWith("/") ? pathname : new RelativeKey(startDirectory, pathname);
+    }
+
+    private class Segment extends LinkedHashMap<Object, CachedLookup> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, CachedLookup> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class RelativeKey {
+
+        private final DirectoryFile startDirectory;
+        private final String pathname;
+
+        private RelativeKey(DirectoryFile startDirectory, String pathname) {
+            this.startDirectory = startDirectory;
+            this.pathname = pathname;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RelativeKey that = (RelativeKey) o;
+            return startDirectory == that.startDirectory && pathname.equals(that.pathname);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(startDirectory), pathname);
+        }
+    }
+
+    public static class Generation {
+
+        private final long negativeGeneration;
+        private final long positiveGeneration;
+
+        private Generation(long negativeGeneration, long positiveGeneration) {
+            this.negativeGeneration = negativeGeneration;
+            this.positiveGeneration = positiveGeneration;
+        }
+    }
+
+    public static class CachedLookup {
+
+        private final String name;
+        private final File file;
+        private final DirectoryFile directory;
+        private long generation;
+
+        CachedLookup(String name, File file, DirectoryFile directory) {
+            this.name = name;
+            this.file = file;
+            this.directory = directory;
+        }
+
+        /**
+         * @return name of the last pathname component
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return resolved file or null for negative entries
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return directory holding the last pathname component or null if some intermediate directory is missing
+         */
+        public DirectoryFile getDirectory() {
+            return directory;
+        }
+    }
+}
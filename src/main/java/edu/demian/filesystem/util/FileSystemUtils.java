@@ -7,33 +7,15 @@ import edu.demian.filesystem.file.RegularFile;
 import edu.demian.filesystem.file.SymbolicLinkFile;
 import edu.demian.filesystem.file.util.FileType;
 
-import java.util.Arrays;
-import java.util.List;
-
 public class FileSystemUtils {
 
+    private static final int MAX_SYMBOLIC_LINK_DEPTH = 40;
+
     public static File findFileByPathname(final String pathname) {
         if (pathname.equals(FileSystem.LINK_TO_ROOT_DIRECTORY)) {
             return FileSystem.getInstance().getRootDirectory();
         }
-
-        File fileFound;
-        DirectoryFile startDirectory;
-        String[] pathParts;
-        if (pathname.startsWith(FileSystem.LINK_TO_ROOT_DIRECTORY)) {
-            // absolute path
-            // /a/b/c -> [a, b, c]
-            startDirectory = FileSystem.getInstance().getRootDirectory();
-            pathParts = pathname.substring(1).split("/");
-        } else {
-            // relative path
-            // a/b/c
-            startDirectory = FileSystem.getInstance().getCurrentDirectory();
-            pathParts = pathname.split("/");
-        }
-        DirectoryFile lastDirectory = traverseToTheLastDirectory(pathParts, startDirectory);
-        fileFound = lastDirectory.getContent().stream().filter(file -> file.getName().equals(pathParts[pathParts.length - 1])).findFirst().orElse(null);
-        return fileFound;
+        return resolve(pathname).getFile();
     }
 
 
@@ -49,66 +31,103 @@ public class FileSystemUtils {
         return fileType;
     }
 
-    private static DirectoryFile traverseToTheLastDirectory(final String[] pathParts, DirectoryFile startDirectory) {
-        for (int i = 0; i < pathParts.length - 1; i++) {
-            String pathPart = pathParts[i];
-            List<File> startDirectoryContent = startDirectory.getContent();
-            File directoryFound = startDirectoryContent.stream().filter(file -> file instanceof DirectoryFile).filter(file -> file.getName().equals(pathPart)).findFirst().orElse(null);
-            if (directoryFound != null) {
-                startDirectory = (DirectoryFile) directoryFound;
-            }
-        }
-        return startDirectory;
-    }
-
 
+    /**
+     * Resolves the pathname to the directory which holds (or would hold) its last component.
+     * The current directory of the response is that directory, the parent directory is its parent.
+     * If some intermediate directory does not exist, all fields of the response are null.
+     */
     public static LookupResponse lookup(String pathname, boolean followSymbolicLinks) {
         if (FileSystem.LINK_TO_ROOT_DIRECTORY.equals(pathname)) {
             return new LookupResponse(FileSystem.LINK_TO_ROOT_DIRECTORY, FileSystem.getInstance().getRootDirectory(), FileSystem.getInstance().getRootDirectory());
         }
 
-        DirectoryFile startDirectory;
-        DirectoryFile parentDirectory = null;
-        String[] pathParts;
-        if (pathname.startsWith("/")) {
-            startDirectory = FileSystem.getInstance().getRootDirectory();
-            pathParts = pathname.substring(1).split("/");
-        } else {
-            startDirectory = FileSystem.getInstance().getCurrentDirectory();
-            pathParts = pathname.split("/");
+        DentryCache.CachedLookup entry = resolve(pathname);
+        if (followSymbolicLinks && entry.getFile() instanceof SymbolicLinkFile) {
+            entry = walk(entry.getDirectory(), ((SymbolicLinkFile) entry.getFile()).getContent(), true, 1);
+        }
+
+        DirectoryFile directory = entry.getDirectory();
+        if (directory == null) {
+            return new LookupResponse(null, null, null);
+        }
+        DirectoryFile rootDirectory = FileSystem.getInstance().getRootDirectory();
+        if (entry.getFile() == rootDirectory) {
+            return new LookupResponse(FileSystem.LINK_TO_ROOT_DIRECTORY, rootDirectory, rootDirectory);
+        }
+        return new LookupResponse(entry.getName(), directory, directory.getParentDirectory());
+    }
+
+    /**
+     * Resolves the pathname relative to the current directory through the dentry cache,
+     * the trailing symbolic link (if any) is not followed.
+     */
+    private static DentryCache.CachedLookup resolve(String pathname) {
+        DentryCache dentryCache = FileSystem.getInstance().getDentryCache();
+        DirectoryFile currentDirectory = FileSystem.getInstance().getCurrentDirectory();
+        DentryCache.CachedLookup entry = dentryCache.get(currentDirectory, pathname);
+        if (entry == null) {
+            DentryCache.Generation generation = dentryCache.getGeneration();
+            entry = walk(currentDirectory, pathname, false, 0);
+            dentryCache.put(currentDirectory, pathname, entry, generation);
         }
-        String fileName = pathParts[pathParts.length - 1];
-        if (pathParts.length == 1) {
-            if (findFileByPathname(fileName) instanceof SymbolicLinkFile) {
-                if (followSymbolicLinks) {
-                    LookupResponse lookupResponse = lookup(((SymbolicLinkFile) findFileByPathname(fileName)).getContent(), true);
-                    return lookupResponse;
-                }
+        return entry;
+    }
+
+    private static DentryCache.CachedLookup walk(DirectoryFile startDirectory, String pathname, boolean followSymbolicLinks, int depth) {
+        if (depth > MAX_SYMBOLIC_LINK_DEPTH) {
+            return new DentryCache.CachedLookup(null, null, null);
+        }
+
+        DirectoryFile rootDirectory = FileSystem.getInstance().getRootDirectory();
+        File current = pathname.startsWith(FileSystem.LINK_TO_ROOT_DIRECTORY) ? rootDirectory : startDirectory;
+        DirectoryFile holder = parentOf((DirectoryFile) current);
+        String name = current.getName();
+
+        String[] pathParts = pathname.split("/");
+        for (int i = 0; i < pathParts.length; i++) {
+            String pathPart = pathParts[i];
+            if (pathPart.isEmpty()) {
+                continue;
             }
-            // TODO: add pointer to parent directory
-            return new LookupResponse(fileName, FileSystem.getInstance().getCurrentDirectory(), FileSystem.getInstance().getCurrentDirectory().getParentDirectory());
-        } else {
-            // a, b, c, 123.txt
-            for (int i = 0; i < pathParts.length - 1; i++) {
-                String pathPart = pathParts[i];
-                List<File> startDirectoryContent = startDirectory.getContent();
-                File directoryFound = startDirectoryContent.stream().filter(file -> file instanceof DirectoryFile).filter(file -> file.getName().equals(pathPart)).findFirst().orElse(null);
-                parentDirectory = (DirectoryFile) directoryFound;
-                if (parentDirectory == null) {
-                    return new LookupResponse(null, null, null);
-                }
+            if (current instanceof SymbolicLinkFile) {
+                DentryCache.CachedLookup target = walk(holder, ((SymbolicLinkFile) current).getContent(), true, depth + 1);
+                current = target.getFile();
+                holder = target.getDirectory();
+            }
+            if (!(current instanceof DirectoryFile)) {
+                return new DentryCache.CachedLookup(pathPart, null, null);
+            }
+
+            DirectoryFile directory = (DirectoryFile) current;
+            if (FileSystem.LINK_TO_CURRENT_DIRECTORY.equals(pathPart)) {
+                continue;
+            }
+            if (FileSystem.LINK_TO_UPPER_DIRECTORY.equals(pathPart)) {
+                current = parentOf(directory);
+                holder = parentOf((DirectoryFile) current);
+                name = current.getName();
+                continue;
             }
-        }
-        File fileFound = parentDirectory.getContent().stream().filter(file -> file.getName().equals(fileName)).findFirst().orElse(null);
 
-        if (fileFound instanceof DirectoryFile) {
-            return new LookupResponse(fileName, (DirectoryFile) fileFound, parentDirectory);
-        } else if (fileFound instanceof RegularFile) {
-            return new LookupResponse(fileName, null, parentDirectory);
+            File next = directory.getFile(pathPart);
+            if (next == null) {
+                return new DentryCache.CachedLookup(pathPart, null, i == pathParts.length - 1 ? directory : null);
+            }
+            current = next;
+            holder = directory;
+            name = pathPart;
         }
 
-        return new LookupResponse(fileName, parentDirectory, null);
+        if (followSymbolicLinks && current instanceof SymbolicLinkFile) {
+            return walk(holder, ((SymbolicLinkFile) current).getContent(), true, depth + 1);
+        }
+        return new DentryCache.CachedLookup(name, current, holder);
     }
 
+    private static DirectoryFile parentOf(DirectoryFile directory) {
+        DirectoryFile parentDirectory = directory.getParentDirectory();
+        return parentDirectory == null ? directory : parentDirectory;
+    }
 
 }
@@ -1,12 +1,43 @@
 package edu.demian.operatingsystem;
 
 import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.Geometry;
+import edu.demian.filesystem.aio.IoQueue;
+import edu.demian.filesystem.compression.Compressor;
+import edu.demian.filesystem.dedup.Deduplicator;
+import edu.demian.filesystem.process.ProcessContext;
+import edu.demian.operatingsystem.batch.BatchExecutor;
+import edu.demian.operatingsystem.batch.BatchReport;
+import edu.demian.operatingsystem.metrics.Metrics;
+import edu.demian.operatingsystem.metrics.SystemCall;
+import edu.demian.operatingsystem.trace.Trace;
+import edu.demian.operatingsystem.trace.TraceRecorder;
+import edu.demian.operatingsystem.trace.TraceReplayer;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Entry points of the simulator. The file calls return 0 on success and -1 on failure unless documented
+ * otherwise, the reason of a failure is printed.
+ */
 public class OperatingSystem {
 
     private static volatile OperatingSystem instance;
 
+    private static final String[] NO_STRINGS = new String[0];
+    private static final long[] NO_NUMBERS = new long[0];
+
+    private final Metrics metrics = Metrics.createInstance();
+    // null while calls are not traced
+    private volatile TraceRecorder traceRecorder;
+
     private OperatingSystem() {
+        metrics.registerMBeans();
     }
 
     public static OperatingSystem getInstance() {
@@ -20,75 +51,720 @@ public class OperatingSystem {
         return instance;
     }
 
-    public void mkfs(final int numberOfDescriptors) {
-        FileSystem.initializeFileSystem(numberOfDescriptors);
-        System.out.printf("File system was initialized with %d file descriptors%n", numberOfDescriptors);
+    /**
+     * @return 0, or -1 if a file system is initialized already
+     */
+    public int mkfs(final int numberOfDescriptors) {
+        synchronized (FileSystem.class) {
+            if (isInitialized()) {
+                return -1;
+            }
+            FileSystem.initializeFileSystem(numberOfDescriptors);
+        }
+        FileSystem.getOutput().printf("File system was initialized with %d file descriptors%n", numberOfDescriptors);
+        return 0;
     }
 
-    public void stat(final String pathname) {
-        FileSystem.getInstance().printFileInformation(pathname);
+    public int mkfs(final String imagePathname, final int numberOfDescriptors, final int numberOfBlocks) {
+        synchronized (FileSystem.class) {
+            if (isInitialized()) {
+                return -1;
+            }
+            FileSystem.formatFileSystem(imagePathname, numberOfDescriptors, numberOfBlocks);
+        }
+        FileSystem.getOutput().printf("File system was initialized in %s with %d file descriptors and %d blocks%n", imagePathname, numberOfDescriptors, numberOfBlocks);
+        return 0;
     }
 
-    public void ls() {
-        FileSystem.getInstance().listCurrentDirectory();
+    /**
+     * Creates a file system living in memory with blocks and an initial file size of its own, see {@link Geometry}.
+     */
+    public int mkfs(final Geometry geometry) {
+        synchronized (FileSystem.class) {
+            if (isInitialized()) {
+                return -1;
+            }
+            FileSystem.initializeFileSystem(geometry);
+        }
+        FileSystem.getOutput().printf("File system was initialized with geometry %s%n", geometry);
+        return 0;
     }
 
-    public void create(String pathname) {
-        FileSystem.getInstance().createRegularFile(pathname);
+    public int mkfs(final String imagePathname, final Geometry geometry, final int numberOfBlocks) {
+        synchronized (FileSystem.class) {
+            if (isInitialized()) {
+                return -1;
+            }
+            FileSystem.formatFileSystem(imagePathname, geometry, numberOfBlocks);
+        }
+        FileSystem.getOutput().printf("File system was initialized in %s with geometry %s and %d blocks%n", imagePathname, geometry, numberOfBlocks);
+        return 0;
     }
 
-    public void open(String pathname) {
-        int fileDescriptor = FileSystem.getInstance().openFile(pathname);
-        System.out.printf("File descriptor of file %s = %d%n", pathname, fileDescriptor);
+    /**
+     * @return 0, or -1 if a file system is initialized already; an image which can't be read throws
+     */
+    public int mount(final String imagePathname) {
+        synchronized (FileSystem.class) {
+            if (isInitialized()) {
+                return -1;
+            }
+            FileSystem.mountFileSystem(imagePathname);
+        }
+        FileSystem.getOutput().printf("File system was mounted from %s%n", imagePathname);
+        return 0;
     }
 
-    public void close(int fileDescriptor) {
-        FileSystem.getInstance().closeFile(fileDescriptor);
+    /**
+     * @return 0, or -1 if no file system is initialized
+     */
+    public int umount() {
+        synchronized (FileSystem.class) {
+            if (!isMounted()) {
+                return -1;
+            }
+            FileSystem.unmountFileSystem();
+        }
+        return 0;
     }
 
-    public void seek(int fileDescriptor, int offset) {
-        FileSystem.getInstance().changeOffsetForFile(fileDescriptor, offset);
+    /**
+     * @return 0, or -1 if no file system is initialized
+     */
+    public int sync() {
+        FileSystem fileSystem = FileSystem.getInstance();
+        if (fileSystem == null) {
+            FileSystem.getOutput().println("File system is not initialized");
+            return -1;
+        }
+        fileSystem.sync();
+        return 0;
     }
 
-    public void read(int fileDescriptor, int sizeInBytes) {
-        //TODO: think what to return from this method and print to console
-        FileSystem.getInstance().readFromFile(fileDescriptor, sizeInBytes);
+    // callers hold the lock of FileSystem, which initializing and unmounting take as well
+    private static boolean isInitialized() {
+        if (FileSystem.getInstance() != null) {
+            FileSystem.getOutput().println("File system is already initialized");
+            return true;
+        }
+        return false;
     }
 
-    public void write(int fileDescriptor, int sizeInBytes) {
-        FileSystem.getInstance().writeToFile(fileDescriptor, sizeInBytes);
+    private static boolean isMounted() {
+        if (FileSystem.getInstance() == null) {
+            FileSystem.getOutput().println("File system is not initialized");
+            return false;
+        }
+        return true;
     }
 
-    public void link(String filePathname, String hardLinkPathname) {
-        FileSystem.getInstance().link(filePathname, hardLinkPathname);
+    /**
+     * Switches block deduplication, see {@link Deduplicator}.
+     */
+    public void dedup(Deduplicator.Mode mode) {
+        FileSystem.getInstance().getDeduplicator().setMode(mode);
+        FileSystem.getOutput().printf("Deduplication mode was set to %s%n", mode);
+    }
+
+    public void dedupStat() {
+        FileSystem.getInstance().printDedupInformation();
+    }
+
+    /**
+     * Switches compression of files not accessed for {@code coldAfterMillis}, see {@link Compressor}.
+     */
+    public void compression(boolean enabled, long coldAfterMillis) {
+        if (FileSystem.getInstance().configureCompression(enabled, coldAfterMillis)) {
+            FileSystem.getOutput().printf("Compression was %s%n", enabled ? "enabled" : "disabled");
+        }
     }
 
-    public void unlink(String pathname) {
-        FileSystem.getInstance().unlink(pathname);
+    public int compressionStat(String pathname) {
+        return FileSystem.getInstance().printCompressionInformation(pathname) ? 0 : -1;
     }
 
-    public void truncate(String pathname, int sizeInBytes) {
-        FileSystem.getInstance().changeFileSize(pathname, sizeInBytes);
+    /**
+     * Switches the recording of call counts and latencies of the file calls below, see {@link Metrics}.
+     */
+    public void metrics(boolean enabled) {
+        metrics.setEnabled(enabled);
+        FileSystem.getOutput().printf("Metrics were %s%n", enabled ? "enabled" : "disabled");
+    }
+
+    public void metricsStat() {
+        metrics.snapshot().print();
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Appends the file calls below to a trace file until {@link #stopTrace()}, see {@link TraceRecorder}.
+     * A trace started right after mkfs can be replayed as a whole.
+     */
+    public synchronized void trace(String pathname) {
+        if (traceRecorder != null) {
+            FileSystem.getOutput().println("Calls are already traced");
+            return;
+        }
+        traceRecorder = TraceRecorder.createInstance(pathname, FileSystem.getInstance().getGeometry());
+        FileSystem.getOutput().printf("Calls are traced to %s%n", pathname);
+    }
+
+    public synchronized void stopTrace() {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            FileSystem.getOutput().println("Calls are not traced");
+            return;
+        }
+        traceRecorder = null;
+        recorder.close();
+        FileSystem.getOutput().printf("Trace was stopped after %d calls%n", recorder.getRecordCount());
+    }
+
+    /**
+     * Replays a trace on a new file system in place of the current one, see {@link TraceReplayer}.
+     *
+     * @param speed {@link TraceReplayer#AS_FAST_AS_POSSIBLE} or the factor to scale the traced pace by
+     */
+    public void replay(String pathname, int threadCount, double speed) {
+        TraceReplayer.createInstance(threadCount, speed).replay(Trace.read(pathname)).print();
+    }
+
+    /**
+     * Runs a script of commands, see {@link BatchExecutor}, and prints how many of them succeeded.
+     *
+     * @param outputPathname file receiving what the commands print, null to drop it
+     */
+    public BatchReport batch(String scriptPathname, String outputPathname) {
+        BatchReport report;
+        if (outputPathname == null) {
+            report = BatchExecutor.createInstance(null).execute(scriptPathname);
+        } else {
+            try (OutputStream output = new FileOutputStream(outputPathname)) {
+                report = BatchExecutor.createInstance(output).execute(scriptPathname);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't write the output of the script", e);
+            }
+        }
+        report.print();
+        return report;
+    }
+
+    /**
+     * Takes a copy-on-write snapshot of the namespace, see {@link FileSystem#createSnapshot(String)}.
+     *
+     * @return 0, or -1 if a snapshot with this name already exists
+     */
+    public int snapshot(String name) {
+        if (!FileSystem.getInstance().createSnapshot(name)) {
+            return -1;
+        }
+        FileSystem.getOutput().printf("Snapshot %s was taken%n", name);
+        return 0;
+    }
+
+    /**
+     * @return 0, or -1 if there is no such snapshot
+     */
+    public int rollback(String name) {
+        if (!FileSystem.getInstance().rollbackSnapshot(name)) {
+            return -1;
+        }
+        FileSystem.getOutput().printf("File system was rolled back to snapshot %s%n", name);
+        return 0;
     }
 
-    public void mkdir(String pathname) {
-        FileSystem.getInstance().createDirectory(pathname);
+    /**
+     * Sends what the calls of this thread print to the stream until {@link #restoreOutput()}, see
+     * {@link FileSystem#redirectOutput(PrintStream)}.
+     *
+     * @param output receives the messages, null to drop them
+     */
+    public void redirectOutput(PrintStream output) {
+        FileSystem.redirectOutput(output);
     }
 
-    public void rmdir(String pathname) {
-        FileSystem.getInstance().removeDirectory(pathname);
+    public void restoreOutput() {
+        FileSystem.restoreOutput();
     }
 
-    public void cd(String pathname) {
-        FileSystem.getInstance().changeDirectory(pathname);
+    /**
+     * Starts a process in the current directory of the calling one, see {@link #attach(ProcessContext)}.
+     */
+    public ProcessContext spawnProcess() {
+        return FileSystem.getInstance().createProcess();
     }
 
-    public void pwd() {
-        FileSystem.getInstance().printWorkingDirectory();
+    public ProcessContext spawnProcess(int maxOpenFiles) {
+        return FileSystem.getInstance().createProcess(maxOpenFiles);
     }
 
-    public void symlink(String pathname, String content) {
-        FileSystem.getInstance().createSymbolicLink(pathname, content);
+    /**
+     * Runs all following calls of this thread on behalf of the process.
+     */
+    public void attach(ProcessContext process) {
+        FileSystem.getInstance().attachProcess(process);
+    }
+
+    public void detach() {
+        FileSystem.getInstance().detachProcess();
+    }
+
+    public int stat(final String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().printFileInformation(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.STAT, start, result, pathname);
+        }
+    }
+
+    public int ls() {
+        long start = start();
+        int result = -1;
+        try {
+            FileSystem.getInstance().listCurrentDirectory();
+            return result = 0;
+        } finally {
+            finish(SystemCall.LS, start, result);
+        }
+    }
+
+    public int create(String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().createRegularFile(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.CREATE, start, result, pathname);
+        }
+    }
+
+    /**
+     * @return the new file descriptor or -1
+     */
+    public int open(String pathname) {
+        int fileDescriptor = openFile(pathname);
+        FileSystem.getOutput().printf("File descriptor of file %s = %d%n", pathname, fileDescriptor);
+        return fileDescriptor;
+    }
+
+    private int openFile(String pathname) {
+        long start = start();
+        int fileDescriptor = -1;
+        try {
+            return fileDescriptor = FileSystem.getInstance().openFile(pathname);
+        } finally {
+            finish(SystemCall.OPEN, start, fileDescriptor, pathname);
+        }
+    }
+
+    public int close(int fileDescriptor) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().closeFile(fileDescriptor) ? 0 : -1;
+        } finally {
+            finish(SystemCall.CLOSE, start, result, fileDescriptor);
+        }
+    }
+
+    public int fsync(int fileDescriptor) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().fsync(fileDescriptor);
+        } finally {
+            finish(SystemCall.FSYNC, start, result, fileDescriptor);
+        }
+    }
+
+    public int seek(int fileDescriptor, int offset) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().changeOffsetForFile(fileDescriptor, offset) ? 0 : -1;
+        } finally {
+            finish(SystemCall.SEEK, start, result, fileDescriptor, offset);
+        }
+    }
+
+    /**
+     * Prints up to {@code sizeInBytes} from the current offset of the file, the offset is not moved.
+     *
+     * @return number of bytes printed, -1 for an unknown file descriptor or an offset beyond the end of the file
+     */
+    public int read(int fileDescriptor, int sizeInBytes) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().readFromFile(fileDescriptor, sizeInBytes);
+        } finally {
+            finishOnConsole(SystemCall.READ, start, result, fileDescriptor, sizeInBytes);
+        }
+    }
+
+    /**
+     * Fills up to {@code sizeInBytes} of the file with ones from its current offset, the offset is not moved.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor or an offset beyond the end of the file
+     */
+    public int write(int fileDescriptor, int sizeInBytes) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().writeToFile(fileDescriptor, sizeInBytes);
+        } finally {
+            finishOnConsole(SystemCall.WRITE, start, result, fileDescriptor, sizeInBytes);
+        }
+    }
+
+    /**
+     * Reads into the buffer from the current offset of the file, the offset is advanced.
+     *
+     * @return number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor
+     */
+    public int read(int fileDescriptor, ByteBuffer dst) {
+        long start = start();
+        int length = dst.remaining();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().read(fileDescriptor, dst);
+        } finally {
+            finish(SystemCall.READ, start, result, fileDescriptor, length);
+        }
+    }
+
+    /**
+     * Writes the buffer at the current offset of the file, the offset is advanced and the file grows if needed.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor or data going past the largest file size
+     */
+    public int write(int fileDescriptor, ByteBuffer src) {
+        long start = start();
+        int length = src.remaining();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().write(fileDescriptor, src);
+        } finally {
+            finish(SystemCall.WRITE, start, result, fileDescriptor, length);
+        }
+    }
+
+    /**
+     * Reads into the buffer from the given position of the file without moving its offset.
+     *
+     * @return number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor or a negative position
+     */
+    public int pread(int fileDescriptor, ByteBuffer dst, int position) {
+        long start = start();
+        int length = dst.remaining();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().pread(fileDescriptor, dst, position);
+        } finally {
+            finish(SystemCall.PREAD, start, result, fileDescriptor, length, position);
+        }
+    }
+
+    /**
+     * Writes the buffer at the given position of the file without moving its offset, the file grows if needed.
+     *
+     * @return number of bytes written, -1 for an unknown file descriptor, a negative position or data going past
+     * the largest file size
+     */
+    public int pwrite(int fileDescriptor, ByteBuffer src, int position) {
+        long start = start();
+        int length = src.remaining();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().pwrite(fileDescriptor, src, position);
+        } finally {
+            finish(SystemCall.PWRITE, start, result, fileDescriptor, length, position);
+        }
+    }
+
+    /**
+     * Scatter read: fills the buffers in order from the current offset of the file, the offset is advanced.
+     *
+     * @return total number of bytes read, 0 at the end of the file, -1 for an unknown file descriptor
+     */
+    public long readv(int fileDescriptor, ByteBuffer... dsts) {
+        long start = start();
+        long[] numbers = traceRecorder == null ? null : numbersOf(fileDescriptor, dsts);
+        long result = -1;
+        try {
+            return result = FileSystem.getInstance().readv(fileDescriptor, dsts);
+        } finally {
+            finish(SystemCall.READV, start, result, NO_STRINGS, numbers);
+        }
+    }
+
+    /**
+     * Gather write: writes the buffers in order at the current offset of the file, the offset is advanced.
+     *
+     * @return total number of bytes written, -1 for an unknown file descriptor or data going past the largest file size
+     */
+    public long writev(int fileDescriptor, ByteBuffer... srcs) {
+        long start = start();
+        long[] numbers = traceRecorder == null ? null : numbersOf(fileDescriptor, srcs);
+        long result = -1;
+        try {
+            return result = FileSystem.getInstance().writev(fileDescriptor, srcs);
+        } finally {
+            finish(SystemCall.WRITEV, start, result, NO_STRINGS, numbers);
+        }
+    }
+
+    /**
+     * Creates a queue running reads, writes, opens and closes asynchronously, see {@link IoQueue}. The calls it
+     * makes are measured and traced like direct ones, opens are not printed.
+     */
+    public IoQueue createIoQueue(int workerCount, int completionQueueCapacity) {
+        return IoQueue.createInstance(workerCount, completionQueueCapacity, new IoQueue.Handler() {
+            @Override
+            public int open(String pathname) {
+                return openFile(pathname);
+            }
+
+            @Override
+            public int close(int fileDescriptor) {
+                return OperatingSystem.this.close(fileDescriptor);
+            }
+
+            @Override
+            public int fsync(int fileDescriptor) {
+                return OperatingSystem.this.fsync(fileDescriptor);
+            }
+
+            @Override
+            public int pread(int fileDescriptor, ByteBuffer dst, int position) {
+                return OperatingSystem.this.pread(fileDescriptor, dst, position);
+            }
+
+            @Override
+            public int pwrite(int fileDescriptor, ByteBuffer src, int position) {
+                return OperatingSystem.this.pwrite(fileDescriptor, src, position);
+            }
+        });
+    }
+
+    /**
+     * Copies a range of one open file to the same offset of another one, whole blocks are shared instead of copied.
+     *
+     * @return number of bytes copied, -1 for an unknown file descriptor or an invalid range
+     */
+    public long copyFileRange(int fileDescriptorIn, int fileDescriptorOut, int offset, int length) {
+        long start = start();
+        long result = -1;
+        try {
+            return result = FileSystem.getInstance().copyFileRange(fileDescriptorIn, fileDescriptorOut, offset, length);
+        } finally {
+            finish(SystemCall.COPY_FILE_RANGE, start, result, fileDescriptorIn, fileDescriptorOut, offset, length);
+        }
+    }
+
+    /**
+     * Copies the file by sharing its blocks, the copies part once either of them is written.
+     */
+    public int cloneFile(String pathname, String clonePathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().cloneFile(pathname, clonePathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.CLONE, start, result, pathname, clonePathname);
+        }
+    }
+
+    public int link(String filePathname, String hardLinkPathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().link(filePathname, hardLinkPathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.LINK, start, result, filePathname, hardLinkPathname);
+        }
+    }
+
+    public int unlink(String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().unlink(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.UNLINK, start, result, pathname);
+        }
+    }
+
+    public int truncate(String pathname, int sizeInBytes) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().changeFileSize(pathname, sizeInBytes) ? 0 : -1;
+        } finally {
+            finish(SystemCall.TRUNCATE, start, result, pathname, sizeInBytes);
+        }
+    }
+
+    public int mkdir(String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().createDirectory(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.MKDIR, start, result, pathname);
+        }
+    }
+
+    public int rmdir(String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().removeDirectory(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.RMDIR, start, result, pathname);
+        }
+    }
+
+    public int cd(String pathname) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().changeDirectory(pathname) ? 0 : -1;
+        } finally {
+            finish(SystemCall.CD, start, result, pathname);
+        }
+    }
+
+    public int pwd() {
+        long start = start();
+        int result = -1;
+        try {
+            FileSystem.getInstance().printWorkingDirectory();
+            return result = 0;
+        } finally {
+            finish(SystemCall.PWD, start, result);
+        }
+    }
+
+    public int symlink(String pathname, String content) {
+        long start = start();
+        int result = -1;
+        try {
+            return result = FileSystem.getInstance().createSymbolicLink(pathname, content) ? 0 : -1;
+        } finally {
+            finish(SystemCall.SYMLINK, start, result, pathname, content);
+        }
+    }
+
+    private long start() {
+        return metrics.isEnabled() || traceRecorder != null ? System.nanoTime() : Metrics.NOT_STARTED;
+    }
+
+    private void finish(SystemCall call, long start, long result) {
+        finish(call, start, result, NO_STRINGS, NO_NUMBERS);
+    }
+
+    private void finish(SystemCall call, long start, long result, String string) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, new String[]{string}, NO_NUMBERS);
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, String string, String otherString) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, new String[]{string, otherString}, NO_NUMBERS);
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, String string, long number) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, new String[]{string}, new long[]{number});
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, long number) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, NO_STRINGS, new long[]{number});
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, long number, long secondNumber) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, NO_STRINGS, new long[]{number, secondNumber});
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, long number, long secondNumber, long thirdNumber) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, NO_STRINGS, new long[]{number, secondNumber, thirdNumber});
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, long number, long secondNumber, long thirdNumber, long fourthNumber) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, NO_STRINGS, new long[]{number, secondNumber, thirdNumber, fourthNumber});
+        }
+    }
+
+    private void finish(SystemCall call, long start, long result, String[] strings, long[] numbers) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, false, start, result, strings, numbers);
+        }
+    }
+
+    private void finishOnConsole(SystemCall call, long start, long result, long fileDescriptor, long sizeInBytes) {
+        metrics.record(call, start, result);
+        if (traceRecorder != null) {
+            trace(call, true, start, result, NO_STRINGS, new long[]{fileDescriptor, sizeInBytes});
+        }
+    }
+
+    // the call may have started before the trace or the buffer lengths been skipped
+    private void trace(SystemCall call, boolean console, long start, long result, String[] strings, long[] numbers) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder != null && start != Metrics.NOT_STARTED && numbers != null) {
+            try {
+                recorder.record(call, console, start, result, strings, numbers);
+            } catch (RuntimeException e) {
+                traceFailed(recorder, e);
+            }
+        }
+    }
+
+    // the traced call keeps its result, the trace is stopped instead
+    private synchronized void traceFailed(TraceRecorder recorder, RuntimeException failure) {
+        if (traceRecorder != recorder) {
+            return;
+        }
+        traceRecorder = null;
+        try {
+            recorder.close();
+        } catch (RuntimeException e) {
+            // the trace is broken already, the failure which broke it is reported
+        }
+        FileSystem.getOutput().printf("Trace was stopped after %d calls: [%s]%n", recorder.getRecordCount(), failure.getMessage());
+    }
+
+    private static long[] numbersOf(int fileDescriptor, ByteBuffer[] buffers) {
+        long[] numbers = new long[buffers.length + 1];
+        numbers[0] = fileDescriptor;
+        for (int i = 0; i < buffers.length; i++) {
+            numbers[i + 1] = buffers[i].remaining();
+        }
+        return numbers;
     }
 
 }
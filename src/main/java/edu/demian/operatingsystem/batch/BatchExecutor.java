@@ -0,0 +1,242 @@
+package edu.demian.operatingsystem.batch;
+
+import edu.demian.filesystem.Geometry;
+import edu.demian.operatingsystem.OperatingSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Runs a script of commands through the {@link OperatingSystem}, one command per line, without keeping the
+ * script or the results in memory.
+ * <p>
+ * A command is the name of a call followed by its arguments separated by blanks, blank lines and lines
+ * starting with {@code #} are skipped:
+ * <pre>
+ * mkfs 1024 4096 0
+ * create /a.txt
+ * open /a.txt
+ * pwrite 0 4096 0
+ * </pre>
+ * The calls are {@code mkfs <descriptors> [<block size> <initial blocks>]}, {@code mount <image>}, {@code umount},
+ * {@code sync}, {@code snapshot <name>}, {@code rollback <name>}, {@code stat}, {@code ls}, {@code create},
+ * {@code open}, {@code close}, {@code fsync}, {@code seek}, {@code read <fd> <size>}, {@code write <fd> <size>},
+ * {@code pread <fd> <size> <position>}, {@code pwrite <fd> <size> <position>},
+ * {@code copy <fd in> <fd out> <offset> <length>}, {@code clone}, {@code link}, {@code unlink},
+ * {@code truncate <path> <size>}, {@code mkdir}, {@code rmdir}, {@code cd}, {@code pwd} and {@code symlink}.
+ * Read and write print and fill like on the console, pread and pwrite go through a buffer of the given size,
+ * pwrite writes ones.
+ * <p>
+ * Every command yields a {@link CommandResult}. Whatever the calls print goes to the output through a buffer
+ * of {@link #OUTPUT_BUFFER_SIZE_IN_BYTES} instead of the console, or nowhere if the output is suppressed; only
+ * the thread running the script is redirected.
+ */
+public class BatchExecutor {
+
+    public static final int OUTPUT_BUFFER_SIZE_IN_BYTES = 64 * 1024;
+    public static final String COMMENT_PREFIX = "#";
+
+    private final OperatingSystem operatingSystem;
+    // null if the output is suppressed
+    private final OutputStream output;
+    private byte[] readData = new byte[0];
+    private byte[] writeData = new byte[0];
+
+    private BatchExecutor(OperatingSystem operatingSystem, OutputStream output) {
+        this.operatingSystem = operatingSystem;
+        this.output = output;
+    }
+
+    /**
+     * @param output receives what the calls print, null to suppress it
+     */
+    public static BatchExecutor createInstance(OutputStream output) {
+        return new BatchExecutor(OperatingSystem.getInstance(), output);
+    }
+
+    public BatchReport execute(String scriptPathname) {
+        return execute(scriptPathname, result -> {
+        });
+    }
+
+    /**
+     * Runs the commands of the script in order on the calling thread, a command which fails doesn't stop it.
+     *
+     * @param listener gets the result of every command
+     */
+    public BatchReport execute(String scriptPathname, Consumer<CommandResult> listener) {
+        BatchReport report = new BatchReport();
+        PrintStream sink = output == null ? null : new PrintStream(new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE_IN_BYTES), false);
+        long start = System.nanoTime();
+        try (BufferedReader script = Files.newBufferedReader(Path.of(scriptPathname), StandardCharsets.UTF_8)) {
+            operatingSystem.redirectOutput(sink);
+            long lineNumber = 0;
+            for (String line = script.readLine(); line != null; line = script.readLine()) {
+                lineNumber++;
+                String command = line.trim();
+                if (command.isEmpty() || command.startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
+                CommandResult result = execute(lineNumber, command.split("\\s+"));
+                report.add(result);
+                listener.accept(result);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read the script", e);
+        } finally {
+            report.setElapsedNanos(System.nanoTime() - start);
+            operatingSystem.restoreOutput();
+            if (sink != null) {
+                sink.flush();
+            }
+        }
+        return report;
+    }
+
+    private CommandResult execute(long lineNumber, String[] words) {
+        String command = words[0];
+        String[] arguments = Arrays.copyOfRange(words, 1, words.length);
+        long value;
+        try {
+            value = call(command, arguments);
+        } catch (InvalidCommandException e) {
+            return new CommandResult(lineNumber, command, CommandResult.Status.INVALID, -1, e.getMessage());
+        } catch (RuntimeException e) {
+            return new CommandResult(lineNumber, command, CommandResult.Status.FAILED, -1, String.valueOf(e));
+        }
+        CommandResult.Status status = value < 0 ? CommandResult.Status.FAILED : CommandResult.Status.OK;
+        return new CommandResult(lineNumber, command, status, value, null);
+    }
+
+    private long call(String command, String[] arguments) {
+        switch (command) {
+            case "mkfs":
+                if (arguments.length == 1) {
+                    return operatingSystem.mkfs(intOf(arguments, 0, 1));
+                }
+                return operatingSystem.mkfs(Geometry.createInstance(intOf(arguments, 0, 3), intOf(arguments, 1, 3), intOf(arguments, 2, 3)));
+            case "mount":
+                return operatingSystem.mount(stringOf(arguments, 0, 1));
+            case "umount":
+                checkCount(arguments, 0);
+                return operatingSystem.umount();
+            case "sync":
+                checkCount(arguments, 0);
+                return operatingSystem.sync();
+            case "snapshot":
+                return operatingSystem.snapshot(stringOf(arguments, 0, 1));
+            case "rollback":
+                return operatingSystem.rollback(stringOf(arguments, 0, 1));
+            case "stat":
+                return operatingSystem.stat(stringOf(arguments, 0, 1));
+            case "ls":
+                checkCount(arguments, 0);
+                return operatingSystem.ls();
+            case "create":
+                return operatingSystem.create(stringOf(arguments, 0, 1));
+            case "open":
+                return operatingSystem.open(stringOf(arguments, 0, 1));
+            case "close":
+                return operatingSystem.close(intOf(arguments, 0, 1));
+            case "fsync":
+                return operatingSystem.fsync(intOf(arguments, 0, 1));
+            case "seek":
+                return operatingSystem.seek(intOf(arguments, 0, 2), intOf(arguments, 1, 2));
+            case "read":
+                return operatingSystem.read(intOf(arguments, 0, 2), intOf(arguments, 1, 2));
+            case "write":
+                return operatingSystem.write(intOf(arguments, 0, 2), intOf(arguments, 1, 2));
+            case "pread":
+                return operatingSystem.pread(intOf(arguments, 0, 3), readBuffer(intOf(arguments, 1, 3)), intOf(arguments, 2, 3));
+            case "pwrite":
+                return operatingSystem.pwrite(intOf(arguments, 0, 3), writeBuffer(intOf(arguments, 1, 3)), intOf(arguments, 2, 3));
+            case "copy":
+                return operatingSystem.copyFileRange(intOf(arguments, 0, 4), intOf(arguments, 1, 4),
+                        intOf(arguments, 2, 4), intOf(arguments, 3, 4));
+            case "clone":
+                return operatingSystem.cloneFile(stringOf(arguments, 0, 2), stringOf(arguments, 1, 2));
+            case "link":
+                return operatingSystem.link(stringOf(arguments, 0, 2), stringOf(arguments, 1, 2));
+            case "unlink":
+                return operatingSystem.unlink(stringOf(arguments, 0, 1));
+            case "truncate":
+                return operatingSystem.truncate(stringOf(arguments, 0, 2), intOf(arguments, 1, 2));
+            case "mkdir":
+                return operatingSystem.mkdir(stringOf(arguments, 0, 1));
+            case "rmdir":
+                return operatingSystem.rmdir(stringOf(arguments, 0, 1));
+            case "cd":
+                return operatingSystem.cd(stringOf(arguments, 0, 1));
+            case "pwd":
+                checkCount(arguments, 0);
+                return operatingSystem.pwd();
+            case "symlink":
+                return operatingSystem.symlink(stringOf(arguments, 0, 2), stringOf(arguments, 1, 2));
+            default:
+                throw new InvalidCommandException("Unknown command: " + command);
+        }
+    }
+
+    // the buffers wrap arrays reused by all commands
+    private ByteBuffer readBuffer(int sizeInBytes) {
+        checkSize(sizeInBytes);
+        if (readData.length < sizeInBytes) {
+            readData = new byte[sizeInBytes];
+        }
+        return ByteBuffer.wrap(readData, 0, sizeInBytes);
+    }
+
+    private ByteBuffer writeBuffer(int sizeInBytes) {
+        checkSize(sizeInBytes);
+        if (writeData.length < sizeInBytes) {
+            writeData = new byte[sizeInBytes];
+            Arrays.fill(writeData, (byte) 1);
+        }
+        return ByteBuffer.wrap(writeData, 0, sizeInBytes);
+    }
+
+    private static void checkSize(int sizeInBytes) {
+        if (sizeInBytes < 0) {
+            throw new InvalidCommandException("Negative size: " + sizeInBytes);
+        }
+    }
+
+    private static String stringOf(String[] arguments, int index, int count) {
+        checkCount(arguments, count);
+        return arguments[index];
+    }
+
+    private static int intOf(String[] arguments, int index, int count) {
+        String argument = stringOf(arguments, index, count);
+        try {
+            return Integer.parseInt(argument);
+        } catch (NumberFormatException e) {
+            throw new InvalidCommandException("Not a number: " + argument);
+        }
+    }
+
+    private static void checkCount(String[] arguments, int count) {
+        if (arguments.length != count) {
+            throw new InvalidCommandException(String.format("Expected %d arguments but got %d", count, arguments.length));
+        }
+    }
+
+    private static class InvalidCommandException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private InvalidCommandException(String message) {
+            super(message);
+        }
+    }
+}
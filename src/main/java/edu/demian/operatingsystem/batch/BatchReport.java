@@ -0,0 +1,71 @@
+package edu.demian.operatingsystem.batch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of commands of a batch by status and the first one which did not succeed.
+ */
+public class BatchReport {
+
+    private final Map<CommandResult.Status, Long> counts = new EnumMap<>(CommandResult.Status.class);
+    private CommandResult firstError;
+    private long elapsedNanos;
+
+    BatchReport() {
+        for (CommandResult.Status status : CommandResult.Status.values()) {
+            counts.put(status, 0L);
+        }
+    }
+
+    void add(CommandResult result) {
+        counts.merge(result.getStatus(), 1L, Long::sum);
+        if (firstError == null && result.getStatus() != CommandResult.Status.OK) {
+            firstError = result;
+        }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getCommandCount() {
+        long commandCount = 0;
+        for (long count : counts.values()) {
+            commandCount += count;
+        }
+        return commandCount;
+    }
+
+    public long getCount(CommandResult.Status status) {
+        return counts.get(status);
+    }
+
+    /**
+     * @return the first command which failed or is invalid, null if all succeeded
+     */
+    public CommandResult getFirstError() {
+        return firstError;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return commands per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getCommandCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public void print() {
+        System.out.printf("Batch report: [commands = %d; ok = %d; failed = %d; invalid = %d; elapsed = %d ms; throughput = %.0f commands/s]%n",
+                getCommandCount(), getCount(CommandResult.Status.OK), getCount(CommandResult.Status.FAILED),
+                getCount(CommandResult.Status.INVALID), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput());
+        if (firstError != null) {
+            System.out.println("First error: " + firstError);
+        }
+    }
+}
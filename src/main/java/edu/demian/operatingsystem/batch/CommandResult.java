@@ -0,0 +1,62 @@
+package edu.demian.operatingsystem.batch;
+
+/**
+ * Outcome of one command of a batch script.
+ */
+public class CommandResult {
+
+    public enum Status {
+        OK,
+        // the call returned -1 or threw
+        FAILED,
+        // the command is unknown or its arguments are wrong, nothing was called
+        INVALID
+    }
+
+    private final long lineNumber;
+    private final String command;
+    private final Status status;
+    private final long value;
+    private final String message;
+
+    CommandResult(long lineNumber, String command, Status status, long value, String message) {
+        this.lineNumber = lineNumber;
+        this.command = command;
+        this.status = status;
+        this.value = value;
+        this.message = message;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return what the call returned: a file descriptor for open, a number of bytes for reads and writes, 0 for
+     * the other calls and -1 on failure
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * @return why the command failed or is invalid if it threw or could not be parsed, otherwise null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[line = %d; command = %s; status = %s; value = %d%s]",
+                lineNumber, command, status, value, message == null ? "" : "; message = " + message);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.demian.operatingsystem.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of one {@link SystemCall}, recorded concurrently by all threads.
+ */
+public class CallMetrics implements CallMetricsMBean {
+
+    private final SystemCall call;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final StripedLatencyHistogram latencies = new StripedLatencyHistogram();
+
+    CallMetrics(SystemCall call) {
+        this.call = call;
+    }
+
+    /**
+     * @param result a negative one counts as an error
+     */
+    void record(long latencyNanos, long result) {
+        count.increment();
+        nanos.add(latencyNanos);
+        latencies.record(latencyNanos);
+        if (result < 0) {
+            errors.increment();
+        } else if (call.transfersBytes()) {
+            bytes.add(result);
+        }
+    }
+
+    public CallSnapshot snapshot() {
+        return new CallSnapshot(call, count.sum(), errors.sum(), bytes.sum(), nanos.sum(), latencies.snapshot());
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        long calls = count.sum();
+        return calls == 0 ? 0 : (double) nanos.sum() / calls;
+    }
+
+    @Override
+    public long getP50Latency() {
+        return latencies.snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getP90Latency() {
+        return latencies.snapshot().getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getP99Latency() {
+        return latencies.snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999Latency() {
+        return latencies.snapshot().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latencies.snapshot().getMaxValue();
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        errors.reset();
+        bytes.reset();
+        nanos.reset();
+        latencies.reset();
+    }
+}
@@ -0,0 +1,27 @@
+package edu.demian.operatingsystem.metrics;
+
+/**
+ * Counters and latencies of one {@link SystemCall} over JMX, latencies are in nanoseconds.
+ */
+public interface CallMetricsMBean {
+
+    long getCount();
+
+    long getErrors();
+
+    long getBytes();
+
+    double getMeanLatency();
+
+    long getP50Latency();
+
+    long getP90Latency();
+
+    long getP99Latency();
+
+    long getP999Latency();
+
+    long getMaxLatency();
+
+    void reset();
+}
@@ -0,0 +1,59 @@
+package edu.demian.operatingsystem.metrics;
+
+import edu.demian.workload.LatencyHistogram;
+
+/**
+ * Counters and latencies of one {@link SystemCall} at the time of the snapshot, latencies are in nanoseconds.
+ */
+public class CallSnapshot {
+
+    private final SystemCall call;
+    private final long count;
+    private final long errors;
+    private final long bytes;
+    private final long totalNanos;
+    private final LatencyHistogram latencies;
+
+    CallSnapshot(SystemCall call, long count, long errors, long bytes, long totalNanos, LatencyHistogram latencies) {
+        this.call = call;
+        this.count = count;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.totalNanos = totalNanos;
+        this.latencies = latencies;
+    }
+
+    public SystemCall getCall() {
+        return call;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return calls which returned a negative result or threw an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return bytes transferred by the calls, 0 for calls which don't {@link SystemCall#transfersBytes() transfer} any
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getMeanLatency() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    public long getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
+    }
+
+    public long getMaxLatency() {
+        return latencies.getMaxValue();
+    }
+}
@@ -0,0 +1,111 @@
+package edu.demian.operatingsystem.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Call counts, errors, bytes and latency histograms of the {@link SystemCall system calls}.
+ * <p>
+ * A call is measured between {@link #start()} and {@link #record(SystemCall, long, long)}. Counters are
+ * striped, so threads recording at once don't contend on them. While recording is disabled, which it is
+ * by default, {@link #start()} only reads a flag and the matching record returns at once.
+ * <p>
+ * The metrics are {@link #registerMBeans() exposed} over JMX under the domain {@value #JMX_DOMAIN}: one MBean
+ * switching the recording and one MBean for each system call, named after it.
+ */
+public class Metrics implements MetricsMBean {
+
+    public static final String JMX_DOMAIN = "edu.demian.filesystem";
+
+    /**
+     * Start of a call which is not measured.
+     */
+    public static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final Map<SystemCall, CallMetrics> calls = new EnumMap<>(SystemCall.class);
+    private volatile boolean enabled;
+
+    private Metrics() {
+        for (SystemCall call : SystemCall.values()) {
+            calls.put(call, new CallMetrics(call));
+        }
+    }
+
+    public static Metrics createInstance() {
+        return new Metrics();
+    }
+
+    /**
+     * @return the start of a call to pass to {@link #record(SystemCall, long, long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : NOT_STARTED;
+    }
+
+    /**
+     * @param start what {@link #start()} returned before the call
+     * @param result what the call returned, a negative one counts as an error
+     */
+    public void record(SystemCall call, long start, long result) {
+        if (start == NOT_STARTED || !enabled) {
+            return;
+        }
+        calls.get(call).record(System.nanoTime() - start, result);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void reset() {
+        for (CallMetrics call : calls.values()) {
+            call.reset();
+        }
+    }
+
+    public CallMetrics get(SystemCall call) {
+        return calls.get(call);
+    }
+
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot(enabled);
+        for (CallMetrics call : calls.values()) {
+            snapshot.add(call.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Registers the MBeans with the platform MBean server.
+     *
+     * @return false if they could not be registered
+     */
+    public boolean registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(JMX_DOMAIN + ":type=Metrics"));
+            for (Map.Entry<SystemCall, CallMetrics> call : calls.entrySet()) {
+                server.registerMBean(call.getValue(), objectNameOf(call.getKey()));
+            }
+            return true;
+        } catch (JMException e) {
+            System.out.println("Metrics could not be registered over JMX: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public static ObjectName objectNameOf(SystemCall call) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=SystemCall,name=" + call.getName());
+    }
+}
@@ -0,0 +1,13 @@
+package edu.demian.operatingsystem.metrics;
+
+/**
+ * Switches the recording of {@link Metrics} over JMX.
+ */
+public interface MetricsMBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    void reset();
+}
@@ -0,0 +1,52 @@
+package edu.demian.operatingsystem.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counters and latencies of all system calls at the time of the snapshot.
+ */
+public class MetricsSnapshot {
+
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private final boolean enabled;
+    private final Map<SystemCall, CallSnapshot> calls = new EnumMap<>(SystemCall.class);
+
+    MetricsSnapshot(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void add(CallSnapshot call) {
+        calls.put(call.getCall(), call);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public CallSnapshot get(SystemCall call) {
+        return calls.get(call);
+    }
+
+    public void print() {
+        System.out.printf("Metrics: [enabled = %b]%n", enabled);
+        for (CallSnapshot call : calls.values()) {
+            if (call.getCount() == 0) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder(String.format("  %-15s count = %d; errors = %d; ",
+                    call.getCall().getName(), call.getCount(), call.getErrors()));
+            if (call.getCall().transfersBytes()) {
+                line.append(String.format("bytes = %d; ", call.getBytes()));
+            }
+            line.append(String.format("mean = %.1f us; ", call.getMeanLatency() / 1000));
+            for (double percentile : PERCENTILES) {
+                String name = percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+                line.append(String.format("p%s = %.1f us; ", name, call.getLatencyAtPercentile(percentile) / 1000.0));
+            }
+            line.append(String.format("max = %.1f us", call.getMaxLatency() / 1000.0));
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.demian.operatingsystem.metrics;
+
+import edu.demian.workload.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Thread-safe {@link LatencyHistogram}: every thread counts into one of several stripes picked by its id, so
+ * threads recording at once rarely touch the same counters. A stripe is allocated when it is first used.
+ */
+class StripedLatencyHistogram {
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    StripedLatencyHistogram() {
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        this.stripes = new AtomicReferenceArray<>(stripeCount);
+        this.stripeMask = stripeCount - 1;
+    }
+
+    void record(long nanos) {
+        int index = (int) Thread.currentThread().getId() & stripeMask;
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(LatencyHistogram.BUCKET_COUNT));
+            stripe = stripes.get(index);
+        }
+        stripe.incrementAndGet(LatencyHistogram.bucketOf(nanos));
+        maxValue.accumulate(nanos);
+    }
+
+    /**
+     * @return counts of all stripes, values recorded meanwhile may be missing
+     */
+    LatencyHistogram snapshot() {
+        long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                counts[bucket] += stripe.get(bucket);
+            }
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.addBuckets(counts, maxValue.get());
+        return histogram;
+    }
+
+    void reset() {
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, null);
+        }
+        maxValue.reset();
+    }
+}
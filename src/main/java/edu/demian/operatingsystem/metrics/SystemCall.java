@@ -0,0 +1,31 @@
+package edu.demian.operatingsystem.metrics;
+
+/**
+ * Entry points of the {@link edu.demian.operatingsystem.OperatingSystem} which are measured.
+ */
+public enum SystemCall {
+    STAT, LS, CREATE, OPEN, CLOSE, FSYNC, SEEK,
+    READ(true), WRITE(true), PREAD(true), PWRITE(true), READV(true), WRITEV(true), COPY_FILE_RANGE(true),
+    CLONE, LINK, UNLINK, TRUNCATE, MKDIR, RMDIR, CD, PWD, SYMLINK;
+
+    private final boolean transfersBytes;
+
+    SystemCall() {
+        this(false);
+    }
+
+    SystemCall(boolean transfersBytes) {
+        this.transfersBytes = transfersBytes;
+    }
+
+    /**
+     * @return true if a non-negative result of the call is the number of bytes it transferred
+     */
+    public boolean transfersBytes() {
+        return transfersBytes;
+    }
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,102 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.filesystem.Geometry;
+import edu.demian.filesystem.device.BlockDevice;
+import edu.demian.filesystem.exception.TraceFormatException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records of a trace file written by a {@link TraceRecorder}, a record cut off at the end of the file is dropped.
+ */
+public class Trace {
+
+    private final Geometry geometry;
+    private final long startEpochMillis;
+    private final List<TraceRecord> records;
+
+    private Trace(Geometry geometry, long startEpochMillis, List<TraceRecord> records) {
+        this.geometry = geometry;
+        this.startEpochMillis = startEpochMillis;
+        this.records = records;
+    }
+
+    /**
+     * @throws TraceFormatException if the file is not a trace
+     */
+    public static Trace read(String pathname) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Path.of(pathname), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new TraceFormatException("Trace is too large: " + channel.size());
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read the trace", e);
+        }
+
+        if (buffer.remaining() < TraceFormat.HEADER_SIZE_IN_BYTES || buffer.getInt() != TraceFormat.MAGIC) {
+            throw new TraceFormatException("Not a trace: " + pathname);
+        }
+        int version = buffer.getInt();
+        if (version != TraceFormat.VERSION) {
+            throw new TraceFormatException("Unsupported trace version: " + version);
+        }
+        int numberOfDescriptors = buffer.getInt();
+        int blockSize = buffer.getInt();
+        int initialBlockCount = buffer.getInt();
+        long startEpochMillis = buffer.getLong();
+        // file systems made without a geometry have blocks smaller than any geometry allows
+        Geometry geometry = blockSize == BlockDevice.DEFAULT_BLOCK_SIZE && initialBlockCount == Geometry.DEFAULT_INITIAL_BLOCK_COUNT
+                ? Geometry.createDefaultInstance(numberOfDescriptors)
+                : Geometry.createInstance(numberOfDescriptors, blockSize, initialBlockCount);
+
+        List<TraceRecord> records = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            try {
+                records.add(TraceFormat.readRecord(buffer));
+            } catch (BufferUnderflowException e) {
+                break;
+            }
+        }
+        return new Trace(geometry, startEpochMillis, Collections.unmodifiableList(records));
+    }
+
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    public List<TraceRecord> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return time from the start of the trace until its last call finished
+     */
+    public long getElapsedNanos() {
+        long elapsedNanos = 0;
+        for (TraceRecord record : records) {
+            elapsedNanos = Math.max(elapsedNanos, record.getTimestampNanos() + record.getLatencyNanos());
+        }
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,117 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.filesystem.exception.TraceFormatException;
+import edu.demian.operatingsystem.metrics.SystemCall;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of a trace file: a header followed by records until the end of the file.
+ * <p>
+ * The header holds {@link #MAGIC}, {@link #VERSION}, the geometry of the traced file system and the wall clock
+ * time the trace started. A record holds the call, its flags, the pid, the thread id, the start and the latency
+ * of the call, its result, its strings and its numbers. Integers are variable length, so most take a byte or two.
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 0x46535452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE_IN_BYTES = 5 * Integer.BYTES + Long.BYTES;
+
+    private static final int FLAG_CONSOLE = 1;
+    private static final int MAX_VAR_LONG_SIZE_IN_BYTES = 10;
+
+    private static final SystemCall[] CALLS = SystemCall.values();
+
+    private TraceFormat() {
+    }
+
+    /**
+     * @return upper bound of the size of a record with these strings, encoded as UTF-8, and numbers
+     */
+    static int maxRecordSizeInBytes(byte[][] strings, int numberCount) {
+        int size = 2 + 7 * MAX_VAR_LONG_SIZE_IN_BYTES;
+        for (byte[] string : strings) {
+            size += MAX_VAR_LONG_SIZE_IN_BYTES + string.length;
+        }
+        return size + numberCount * MAX_VAR_LONG_SIZE_IN_BYTES;
+    }
+
+    static void writeRecord(ByteBuffer buffer, SystemCall call, boolean console, int pid, long threadId,
+                            long timestampNanos, long latencyNanos, long result, byte[][] strings, long[] numbers) {
+        buffer.put((byte) call.ordinal());
+        buffer.put((byte) (console ? FLAG_CONSOLE : 0));
+        writeVarLong(buffer, pid);
+        writeVarLong(buffer, threadId);
+        writeVarLong(buffer, timestampNanos);
+        writeVarLong(buffer, latencyNanos);
+        writeVarLong(buffer, zigzag(result));
+        writeVarLong(buffer, strings.length);
+        for (byte[] string : strings) {
+            writeVarLong(buffer, string.length);
+            buffer.put(string);
+        }
+        writeVarLong(buffer, numbers.length);
+        for (long number : numbers) {
+            writeVarLong(buffer, zigzag(number));
+        }
+    }
+
+    /**
+     * @throws java.nio.BufferUnderflowException if the record is cut off
+     * @throws TraceFormatException if the record is not a valid one
+     */
+    static TraceRecord readRecord(ByteBuffer buffer) {
+        int call = buffer.get();
+        if (call < 0 || call >= CALLS.length) {
+            throw new TraceFormatException("Unknown call in the trace: " + call);
+        }
+        boolean console = (buffer.get() & FLAG_CONSOLE) != 0;
+        int pid = (int) readVarLong(buffer);
+        long threadId = readVarLong(buffer);
+        long timestampNanos = readVarLong(buffer);
+        long latencyNanos = readVarLong(buffer);
+        long result = unzigzag(readVarLong(buffer));
+        String[] strings = new String[(int) readVarLong(buffer)];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] string = new byte[(int) readVarLong(buffer)];
+            buffer.get(string);
+            strings[i] = new String(string, StandardCharsets.UTF_8);
+        }
+        long[] numbers = new long[(int) readVarLong(buffer)];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = unzigzag(readVarLong(buffer));
+        }
+        return new TraceRecord(CALLS[call], console, pid, threadId, timestampNanos, latencyNanos, result, strings, numbers);
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new TraceFormatException("Malformed number in the trace");
+    }
+
+    // small negative numbers, -1 above all, stay short
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,89 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.operatingsystem.metrics.SystemCall;
+
+/**
+ * One call of the {@link edu.demian.operatingsystem.OperatingSystem} in a trace.
+ * <p>
+ * Pathnames and other strings of the call are kept in the order of its parameters, so are the numbers:
+ * file descriptors, offsets, sizes and positions. A buffer is kept as the number of bytes it had remaining,
+ * its content is not recorded.
+ */
+public class TraceRecord {
+
+    private final SystemCall call;
+    private final boolean console;
+    private final int pid;
+    private final long threadId;
+    private final long timestampNanos;
+    private final long latencyNanos;
+    private final long result;
+    private final String[] strings;
+    private final long[] numbers;
+
+    TraceRecord(SystemCall call, boolean console, int pid, long threadId, long timestampNanos, long latencyNanos,
+                long result, String[] strings, long[] numbers) {
+        this.call = call;
+        this.console = console;
+        this.pid = pid;
+        this.threadId = threadId;
+        this.timestampNanos = timestampNanos;
+        this.latencyNanos = latencyNanos;
+        this.result = result;
+        this.strings = strings;
+        this.numbers = numbers;
+    }
+
+    public SystemCall getCall() {
+        return call;
+    }
+
+    /**
+     * @return true for the read and write printing to and filling from the console, which don't move the offset
+     */
+    public boolean isConsole() {
+        return console;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * @return start of the call since the start of the trace
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return what the call returned, 0 for calls returning nothing and -1 if it threw
+     */
+    public long getResult() {
+        return result;
+    }
+
+    public String getString(int index) {
+        return strings[index];
+    }
+
+    public int getStringCount() {
+        return strings.length;
+    }
+
+    public long getNumber(int index) {
+        return numbers[index];
+    }
+
+    public int getNumberCount() {
+        return numbers.length;
+    }
+}
@@ -0,0 +1,133 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.Geometry;
+import edu.demian.operatingsystem.metrics.SystemCall;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends calls of the {@link edu.demian.operatingsystem.OperatingSystem} to a trace file, see {@link TraceFormat}.
+ * <p>
+ * Records of all threads go to one buffer of {@link #BUFFER_SIZE_IN_BYTES}, which is appended to the file
+ * whenever the next record doesn't fit. Records are in the order the calls finished.
+ */
+public class TraceRecorder implements AutoCloseable {
+
+    public static final int BUFFER_SIZE_IN_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long startNanos;
+    // guarded by this
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE_IN_BYTES);
+    private long recordCount;
+    private boolean closed;
+
+    private TraceRecorder(FileChannel channel, long startNanos) {
+        this.channel = channel;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Creates the trace file, an existing one is overwritten.
+     *
+     * @param geometry of the traced file system, the replay creates one like it
+     */
+    public static TraceRecorder createInstance(String pathname, Geometry geometry) {
+        try {
+            FileChannel channel = FileChannel.open(Path.of(pathname), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_SIZE_IN_BYTES);
+            header.putInt(TraceFormat.MAGIC)
+                    .putInt(TraceFormat.VERSION)
+                    .putInt(geometry.getNumberOfDescriptors())
+                    .putInt(geometry.getBlockSize())
+                    .putInt(geometry.getInitialBlockCount())
+                    .putLong(System.currentTimeMillis())
+                    .flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            return new TraceRecorder(channel, System.nanoTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't create the trace", e);
+        }
+    }
+
+    /**
+     * Appends a call of the calling thread, calls finishing after {@link #close()} are dropped. Calls made while
+     * no file system is mounted are recorded with pid 0.
+     *
+     * @param start {@link System#nanoTime()} at the start of the call
+     * @throws UncheckedIOException if the trace can't be written, the recorder should be closed then
+     */
+    public void record(SystemCall call, boolean console, long start, long result, String[] strings, long[] numbers) {
+        long latencyNanos = System.nanoTime() - start;
+        FileSystem fileSystem = FileSystem.getInstance();
+        int pid = fileSystem == null ? 0 : fileSystem.currentProcess().getPid();
+        byte[][] encodedStrings = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) {
+            encodedStrings[i] = String.valueOf(strings[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        int maxSize = TraceFormat.maxRecordSizeInBytes(encodedStrings, numbers.length);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (buffer.remaining() < maxSize) {
+                flush();
+            }
+            // a record larger than the buffer is appended on its own
+            ByteBuffer target = maxSize > buffer.capacity() ? ByteBuffer.allocate(maxSize) : buffer;
+            TraceFormat.writeRecord(target, call, console, pid, Thread.currentThread().getId(),
+                    Math.max(start - startNanos, 0), latencyNanos, result, encodedStrings, numbers);
+            if (target != buffer) {
+                append(target.flip());
+            }
+            recordCount++;
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Appends the buffered records and closes the file.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (FileChannel channel = this.channel) {
+            flush();
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close the trace", e);
+        }
+    }
+
+    private void flush() {
+        buffer.flip();
+        append(buffer);
+        buffer.clear();
+    }
+
+    private void append(ByteBuffer records) {
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't write the trace", e);
+        }
+    }
+}
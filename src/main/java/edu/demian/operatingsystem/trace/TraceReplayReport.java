@@ -0,0 +1,101 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.workload.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latencies of a replay next to those of the traced calls.
+ */
+public class TraceReplayReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final int threadCount;
+    private final double speed;
+    private final LatencyHistogram originalLatencies = new LatencyHistogram();
+    private final long originalElapsedNanos;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long errors;
+    private long mismatches;
+    private long elapsedNanos;
+
+    TraceReplayReport(Trace trace, int threadCount, double speed) {
+        this.threadCount = threadCount;
+        this.speed = speed;
+        for (TraceRecord record : trace.getRecords()) {
+            originalLatencies.record(record.getLatencyNanos());
+        }
+        this.originalElapsedNanos = trace.getElapsedNanos();
+    }
+
+    void add(LatencyHistogram threadLatencies, long threadErrors, long threadMismatches) {
+        latencies.add(threadLatencies);
+        errors += threadErrors;
+        mismatches += threadMismatches;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getCallCount() {
+        return latencies.getTotalCount();
+    }
+
+    /**
+     * @return replayed calls which returned a negative result or threw
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return replayed calls whose result differs from the traced one
+     */
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getThroughput() {
+        return throughputOf(getCallCount(), elapsedNanos);
+    }
+
+    public double getOriginalThroughput() {
+        return throughputOf(originalLatencies.getTotalCount(), originalElapsedNanos);
+    }
+
+    public long getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
+    }
+
+    public long getOriginalLatencyAtPercentile(double percentile) {
+        return originalLatencies.getValueAtPercentile(percentile);
+    }
+
+    public void print() {
+        System.out.printf("Trace replay: [calls = %d; threads = %d; speed = %s; errors = %d; mismatched results = %d]%n",
+                getCallCount(), threadCount, speed == TraceReplayer.AS_FAST_AS_POSSIBLE ? "max" : "x" + speed, errors, mismatches);
+        print("Original", originalLatencies, originalElapsedNanos);
+        print("Replay", latencies, elapsedNanos);
+    }
+
+    private static void print(String name, LatencyHistogram latencies, long elapsedNanos) {
+        StringBuilder line = new StringBuilder(String.format("  %-8s elapsed = %d ms; throughput = %.0f ops/s; ",
+                name, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), throughputOf(latencies.getTotalCount(), elapsedNanos)));
+        for (double percentile : PERCENTILES) {
+            String percentileName = percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+            line.append(String.format("p%s = %.1f us; ", percentileName, latencies.getValueAtPercentile(percentile) / 1000.0));
+        }
+        line.append(String.format("max = %.1f us", latencies.getMaxValue() / 1000.0));
+        System.out.println(line);
+    }
+
+    private static double throughputOf(long count, long elapsedNanos) {
+        return elapsedNanos == 0 ? 0 : count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
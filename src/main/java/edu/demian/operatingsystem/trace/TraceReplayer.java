@@ -0,0 +1,244 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.process.OpenFileTable;
+import edu.demian.filesystem.process.ProcessContext;
+import edu.demian.workload.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the calls of a {@link Trace} again on a new file system of the traced geometry.
+ * <p>
+ * Every traced process gets a process of its own, starting in the root directory, and all of its calls run on
+ * the same replay thread in the order of the trace. Processes are spread over the threads in the order they
+ * first appear. Calls of processes on different threads are not ordered, so a process using a file another one
+ * creates may fail unless the replay runs on one thread or keeps the traced pace. A process which opens files in
+ * the same order gets the same file descriptors, so the traced descriptors are passed on as they are.
+ * <p>
+ * Calls run as fast as possible or at their traced start scaled by the speed, a thread falling behind runs
+ * its calls back to back until it catches up. Written bytes are random since a trace has no file content.
+ * Messages the simulator prints on the replay threads are dropped.
+ */
+public class TraceReplayer {
+
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private final int threadCount;
+    private final double speed;
+
+    private TraceReplayer(int threadCount, double speed) {
+        this.threadCount = threadCount;
+        this.speed = speed;
+    }
+
+    /**
+     * @param speed 1 to keep the traced pace, 2 for twice as fast and so on, {@link #AS_FAST_AS_POSSIBLE} to not wait
+     */
+    public static TraceReplayer createInstance(int threadCount, double speed) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threadCount);
+        }
+        if (!(speed >= 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Invalid speed: " + speed);
+        }
+        return new TraceReplayer(threadCount, speed);
+    }
+
+    /**
+     * Replaces the mounted file system by a new one and replays the trace on it.
+     */
+    public TraceReplayReport replay(Trace trace) {
+        FileSystem.unmountFileSystem();
+        FileSystem.initializeFileSystem(trace.getGeometry());
+        FileSystem fileSystem = FileSystem.getInstance();
+        Map<Integer, ProcessContext> processes = new HashMap<>();
+        Map<Integer, Integer> threadOfProcess = new HashMap<>();
+        List<List<TraceRecord>> threadRecords = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            threadRecords.add(new ArrayList<>());
+        }
+        for (TraceRecord record : trace.getRecords()) {
+            Integer thread = threadOfProcess.get(record.getPid());
+            if (thread == null) {
+                thread = threadOfProcess.size() % threadCount;
+                threadOfProcess.put(record.getPid(), thread);
+                processes.put(record.getPid(), fileSystem.createProcess(OpenFileTable.DEFAULT_MAX_OPEN_FILES));
+            }
+            threadRecords.get(thread).add(record);
+        }
+
+        TraceReplayReport report = new TraceReplayReport(trace, threadCount, speed);
+        List<ReplayThread> threads = new ArrayList<>(threadCount);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                ReplayThread thread = new ReplayThread(i, threadRecords.get(i), processes, start);
+                threads.add(thread);
+                thread.start();
+            }
+            for (ReplayThread thread : threads) {
+                thread.join();
+                report.add(thread.latencies, thread.errors, thread.mismatches);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replay was interrupted", e);
+        } finally {
+            report.setElapsedNanos(System.nanoTime() - start);
+        }
+        return report;
+    }
+
+    private class ReplayThread extends Thread {
+
+        private final List<TraceRecord> records;
+        private final Map<Integer, ProcessContext> processes;
+        private final long start;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long errors;
+        private long mismatches;
+        private byte[] data = new byte[0];
+        private final Random random;
+
+        private ReplayThread(int number, List<TraceRecord> records, Map<Integer, ProcessContext> processes, long start) {
+            super("trace-replay-" + number);
+            this.records = records;
+            this.processes = processes;
+            this.start = start;
+            this.random = new Random(number);
+        }
+
+        @Override
+        public void run() {
+            FileSystem fileSystem = FileSystem.getInstance();
+            FileSystem.redirectOutput(null);
+            try {
+                for (TraceRecord record : records) {
+                    if (speed != AS_FAST_AS_POSSIBLE) {
+                        waitUntil(start + (long) (record.getTimestampNanos() / speed));
+                    }
+                    fileSystem.attachProcess(processes.get(record.getPid()));
+                    long callStart = System.nanoTime();
+                    long result;
+                    try {
+                        result = call(fileSystem, record);
+                    } catch (RuntimeException e) {
+                        result = -1;
+                    }
+                    latencies.record(System.nanoTime() - callStart);
+                    if (result < 0) {
+                        errors++;
+                    }
+                    if (result != record.getResult()) {
+                        mismatches++;
+                    }
+                }
+            } finally {
+                fileSystem.detachProcess();
+                FileSystem.restoreOutput();
+            }
+        }
+
+        private void waitUntil(long deadline) {
+            for (long delay = deadline - System.nanoTime(); delay > 0; delay = deadline - System.nanoTime()) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+
+        private long call(FileSystem fileSystem, TraceRecord record) {
+            switch (record.getCall()) {
+                case STAT:
+                    return statusOf(fileSystem.printFileInformation(record.getString(0)));
+                case LS:
+                    fileSystem.listCurrentDirectory();
+                    return 0;
+                case CREATE:
+                    return statusOf(fileSystem.createRegularFile(record.getString(0)));
+                case OPEN:
+                    return fileSystem.openFile(record.getString(0));
+                case CLOSE:
+                    return statusOf(fileSystem.closeFile(intOf(record, 0)));
+                case FSYNC:
+                    return fileSystem.fsync(intOf(record, 0));
+                case SEEK:
+                    return statusOf(fileSystem.changeOffsetForFile(intOf(record, 0), intOf(record, 1)));
+                case READ:
+                    if (record.isConsole()) {
+                        return fileSystem.readFromFile(intOf(record, 0), intOf(record, 1));
+                    }
+                    return fileSystem.read(intOf(record, 0), buffers(record, 1, 1)[0]);
+                case WRITE:
+                    if (record.isConsole()) {
+                        return fileSystem.writeToFile(intOf(record, 0), intOf(record, 1));
+                    }
+                    return fileSystem.write(intOf(record, 0), buffers(record, 1, 1)[0]);
+                case PREAD:
+                    return fileSystem.pread(intOf(record, 0), buffers(record, 1, 1)[0], intOf(record, 2));
+                case PWRITE:
+                    return fileSystem.pwrite(intOf(record, 0), buffers(record, 1, 1)[0], intOf(record, 2));
+                case READV:
+                    return fileSystem.readv(intOf(record, 0), buffers(record, 1, record.getNumberCount() - 1));
+                case WRITEV:
+                    return fileSystem.writev(intOf(record, 0), buffers(record, 1, record.getNumberCount() - 1));
+                case COPY_FILE_RANGE:
+                    return fileSystem.copyFileRange(intOf(record, 0), intOf(record, 1),
+                            intOf(record, 2), intOf(record, 3));
+                case CLONE:
+                    return statusOf(fileSystem.cloneFile(record.getString(0), record.getString(1)));
+                case LINK:
+                    return statusOf(fileSystem.link(record.getString(0), record.getString(1)));
+                case UNLINK:
+                    return statusOf(fileSystem.unlink(record.getString(0)));
+                case TRUNCATE:
+                    return statusOf(fileSystem.changeFileSize(record.getString(0), intOf(record, 0)));
+                case MKDIR:
+                    return statusOf(fileSystem.createDirectory(record.getString(0)));
+                case RMDIR:
+                    return statusOf(fileSystem.removeDirectory(record.getString(0)));
+                case CD:
+                    return statusOf(fileSystem.changeDirectory(record.getString(0)));
+                case PWD:
+                    fileSystem.printWorkingDirectory();
+                    return 0;
+                case SYMLINK:
+                    return statusOf(fileSystem.createSymbolicLink(record.getString(0), record.getString(1)));
+                default:
+                    throw new IllegalStateException("Unknown call: " + record.getCall());
+            }
+        }
+
+        private int statusOf(boolean succeeded) {
+            return succeeded ? 0 : -1;
+        }
+
+        private int intOf(TraceRecord record, int index) {
+            return (int) record.getNumber(index);
+        }
+
+        // buffers of the traced lengths sharing one array of random bytes
+        private ByteBuffer[] buffers(TraceRecord record, int from, int count) {
+            int totalLength = 0;
+            for (int i = from; i < from + count; i++) {
+                totalLength += intOf(record, i);
+            }
+            if (data.length < totalLength) {
+                data = new byte[totalLength];
+                random.nextBytes(data);
+            }
+            ByteBuffer[] buffers = new ByteBuffer[count];
+            for (int i = 0, offset = 0; i < count; i++) {
+                int length = intOf(record, from + i);
+                buffers[i] = ByteBuffer.wrap(data, offset, length).slice();
+                offset += length;
+            }
+            return buffers;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.demian.workload;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets: values below 2^{@value #SUB_BUCKET_BITS} are
+ * counted exactly, larger ones keep their {@value #SUB_BUCKET_BITS} most significant bits after the leading one,
+ * so a percentile is off by at most 1/32. Not thread-safe, histograms of several threads are {@link #add added}
+ * or counted elsewhere by {@link #bucketOf(long) bucket} and {@link #addBuckets added} afterwards.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    public static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts[bucketOf(value)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    public void add(LatencyHistogram histogram) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += histogram.counts[i];
+        }
+        totalCount += histogram.totalCount;
+        maxValue = Math.max(maxValue, histogram.maxValue);
+    }
+
+    /**
+     * @param bucketCounts counts of values by {@link #bucketOf(long) bucket}
+     * @param maxValue the highest value counted
+     */
+    public void addBuckets(long[] bucketCounts, long maxValue) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += bucketCounts[i];
+            totalCount += bucketCounts[i];
+        }
+        this.maxValue = Math.max(this.maxValue, maxValue);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the highest value of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long rank = (long) Math.ceil(percentile / 100 * totalCount);
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= Math.max(rank, 1)) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return index of the bucket counting the value, from 0 to {@link #BUCKET_COUNT} - 1
+     */
+    public static int bucketOf(long nanos) {
+        long value = Math.max(nanos, 0);
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long mantissa = SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
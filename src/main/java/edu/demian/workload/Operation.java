@@ -0,0 +1,16 @@
+package edu.demian.workload;
+
+/**
+ * Operations a simulated process of a workload runs.
+ */
+public enum Operation {
+    CREATE,
+    OPEN,
+    READ,
+    WRITE,
+    SEEK,
+    TRUNCATE,
+    LINK,
+    UNLINK,
+    MKDIR
+}
@@ -0,0 +1,69 @@
+package edu.demian.workload;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Relative weights of the operations a workload runs, operations without a weight are never chosen.
+ */
+public class OperationMix {
+
+    private final Operation[] operations;
+    // running sums of the weights, in the order of the operations
+    private final int[] cumulativeWeights;
+
+    private OperationMix(Operation[] operations, int[] cumulativeWeights) {
+        this.operations = operations;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a weight is negative or all of them are 0
+     */
+    public static OperationMix createInstance(Map<Operation, Integer> weights) {
+        Map<Operation, Integer> sortedWeights = new EnumMap<>(weights);
+        Operation[] operations = new Operation[sortedWeights.size()];
+        int[] cumulativeWeights = new int[sortedWeights.size()];
+        int total = 0;
+        int i = 0;
+        for (Map.Entry<Operation, Integer> entry : sortedWeights.entrySet()) {
+            if (entry.getValue() < 0) {
+                throw new IllegalArgumentException("Weight of " + entry.getKey() + " is negative: " + entry.getValue());
+            }
+            total += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulativeWeights[i++] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Operation mix has no operations");
+        }
+        return new OperationMix(operations, cumulativeWeights);
+    }
+
+    /**
+     * @return a mix dominated by reads and writes of open files, with some namespace changes
+     */
+    public static OperationMix createDefaultInstance() {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        weights.put(Operation.CREATE, 5);
+        weights.put(Operation.OPEN, 10);
+        weights.put(Operation.READ, 35);
+        weights.put(Operation.WRITE, 25);
+        weights.put(Operation.SEEK, 10);
+        weights.put(Operation.TRUNCATE, 4);
+        weights.put(Operation.LINK, 3);
+        weights.put(Operation.UNLINK, 5);
+        weights.put(Operation.MKDIR, 3);
+        return createInstance(weights);
+    }
+
+    public Operation next(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; ; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+    }
+}
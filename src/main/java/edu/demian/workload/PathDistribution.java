@@ -0,0 +1,111 @@
+package edu.demian.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Layout of the files a workload works on and how often each of them is chosen.
+ * <ul>
+ *     <li>{@link #uniform(int)} spreads the files over a square root as many directories and picks any of them
+ *     equally often</li>
+ *     <li>{@link #zipfian(int, double)} has the same layout, the file of rank k is picked proportionally to 1 / k^s</li>
+ *     <li>{@link #deepTree(int, int)} puts all files at the bottom of a chain of nested directories</li>
+ *     <li>{@link #wideDirectory(int)} puts all files into a single directory</li>
+ * </ul>
+ */
+public class PathDistribution {
+
+    private final String name;
+    // parents come before their children
+    private final List<String> directories;
+    private final String[] files;
+    // running sums of the probabilities of the files, null if they are picked uniformly
+    private final double[] cumulativeProbabilities;
+
+    private PathDistribution(String name, List<String> directories, String[] files, double[] cumulativeProbabilities) {
+        this.name = name;
+        this.directories = directories;
+        this.files = files;
+        this.cumulativeProbabilities = cumulativeProbabilities;
+    }
+
+    public static PathDistribution uniform(int fileCount) {
+        return spread("uniform", fileCount, null);
+    }
+
+    public static PathDistribution zipfian(int fileCount, double exponent) {
+        double[] cumulativeProbabilities = new double[fileCount];
+        double sum = 0;
+        for (int rank = 1; rank <= fileCount; rank++) {
+            sum += 1 / Math.pow(rank, exponent);
+            cumulativeProbabilities[rank - 1] = sum;
+        }
+        for (int i = 0; i < fileCount; i++) {
+            cumulativeProbabilities[i] /= sum;
+        }
+        return spread(String.format("zipfian(%.2f)", exponent), fileCount, cumulativeProbabilities);
+    }
+
+    public static PathDistribution deepTree(int fileCount, int depth) {
+        List<String> directories = new ArrayList<>();
+        StringBuilder directory = new StringBuilder("/deep");
+        directories.add(directory.toString());
+        for (int level = 1; level < depth; level++) {
+            directory.append("/d").append(level);
+            directories.add(directory.toString());
+        }
+        String[] files = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = directory + "/f" + i;
+        }
+        return new PathDistribution("deep tree(" + depth + ")", directories, files, null);
+    }
+
+    public static PathDistribution wideDirectory(int fileCount) {
+        String[] files = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = "/wide/f" + i;
+        }
+        return new PathDistribution("wide directory", Collections.singletonList("/wide"), files, null);
+    }
+
+    private static PathDistribution spread(String name, int fileCount, double[] cumulativeProbabilities) {
+        int directoryCount = Math.max(1, (int) Math.sqrt(fileCount));
+        List<String> directories = new ArrayList<>();
+        directories.add("/spread");
+        for (int i = 0; i < directoryCount; i++) {
+            directories.add("/spread/d" + i);
+        }
+        String[] files = new String[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            files[i] = "/spread/d" + (i % directoryCount) + "/f" + i;
+        }
+        return new PathDistribution(name, directories, files, cumulativeProbabilities);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return directories to create before the workload starts, parents first
+     */
+    public List<String> getDirectories() {
+        return directories;
+    }
+
+    public List<String> getFiles() {
+        return Arrays.asList(files);
+    }
+
+    public String nextFile(Random random) {
+        if (cumulativeProbabilities == null) {
+            return files[random.nextInt(files.length)];
+        }
+        int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        return files[Math.min(index < 0 ? -index - 1 : index, files.length - 1)];
+    }
+}
@@ -0,0 +1,287 @@
+package edu.demian.workload;
+
+import edu.demian.filesystem.process.ProcessContext;
+import edu.demian.operatingsystem.OperatingSystem;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies load to the mounted file system: every simulated process runs on a thread of its own, attached to a
+ * process context of its own, and runs operations picked from an {@link OperationMix} on files picked from a
+ * {@link PathDistribution}.
+ * <p>
+ * Processes run on virtual threads where the runtime has them (Java 21 on), so thousands of them can be in
+ * flight. On Java 11 and 17 they share a pool of {@link #FALLBACK_THREADS_PER_PROCESSOR} platform threads per
+ * processor instead, so only four processes per processor run at once and the others wait for a thread.
+ * <p>
+ * Operations are calls of the {@link OperatingSystem}, so its metrics and trace see them like any other call.
+ * Messages the simulator prints on behalf of the processes are dropped.
+ * <p>
+ * Reads and writes go to files the process opened, a process without open files opens one first. A process
+ * keeps at most {@link #MAX_OPEN_FILES_PER_PROCESS} files open and writes no further than the maximum file size.
+ * An operation which returns -1 or throws counts as an error, like creating a file which already exists.
+ */
+public class WorkloadDriver {
+
+    public static final int DEFAULT_IO_SIZE_IN_BYTES = 4096;
+    public static final int DEFAULT_MAX_FILE_SIZE_IN_BYTES = 1024 * 1024;
+    public static final int MAX_OPEN_FILES_PER_PROCESS = 8;
+    public static final int FALLBACK_THREADS_PER_PROCESSOR = 4;
+
+    private final OperationMix operationMix;
+    private final PathDistribution pathDistribution;
+    private final int ioSizeInBytes;
+    private final int maxFileSizeInBytes;
+
+    private WorkloadDriver(OperationMix operationMix, PathDistribution pathDistribution, int ioSizeInBytes, int maxFileSizeInBytes) {
+        this.operationMix = operationMix;
+        this.pathDistribution = pathDistribution;
+        this.ioSizeInBytes = ioSizeInBytes;
+        this.maxFileSizeInBytes = maxFileSizeInBytes;
+    }
+
+    public static WorkloadDriver createInstance(OperationMix operationMix, PathDistribution pathDistribution) {
+        return createInstance(operationMix, pathDistribution, DEFAULT_IO_SIZE_IN_BYTES, DEFAULT_MAX_FILE_SIZE_IN_BYTES);
+    }
+
+    public static WorkloadDriver createInstance(OperationMix operationMix, PathDistribution pathDistribution,
+                                                int ioSizeInBytes, int maxFileSizeInBytes) {
+        if (ioSizeInBytes <= 0 || maxFileSizeInBytes < ioSizeInBytes) {
+            throw new IllegalArgumentException(String.format("Invalid sizes: [io size = %d; max file size = %d]", ioSizeInBytes, maxFileSizeInBytes));
+        }
+        return new WorkloadDriver(operationMix, pathDistribution, ioSizeInBytes, maxFileSizeInBytes);
+    }
+
+    /**
+     * Creates the directories and files of the path distribution which don't exist yet.
+     */
+    public void prepare() {
+        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+        operatingSystem.redirectOutput(null);
+        try {
+            for (String directory : pathDistribution.getDirectories()) {
+                operatingSystem.mkdir(directory);
+            }
+            for (String file : pathDistribution.getFiles()) {
+                operatingSystem.create(file);
+            }
+        } finally {
+            operatingSystem.restoreOutput();
+        }
+    }
+
+    /**
+     * Runs the processes and waits for all of them.
+     *
+     * @param seed the operations and paths of a process only depend on the seed and its number
+     */
+    public WorkloadReport run(int processCount, int operationsPerProcess, long seed) {
+        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+        List<ProcessContext> processes = new ArrayList<>(processCount);
+        for (int i = 0; i < processCount; i++) {
+            processes.add(operatingSystem.spawnProcess());
+        }
+        ExecutorService executor = newVirtualThreadExecutor();
+        boolean virtualThreads = executor != null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(FALLBACK_THREADS_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+        }
+        WorkloadReport report = new WorkloadReport(pathDistribution.getName(), processCount, virtualThreads);
+        long start = System.nanoTime();
+        try {
+            List<Future<ProcessResult>> results = new ArrayList<>(processCount);
+            for (int i = 0; i < processCount; i++) {
+                ProcessContext process = processes.get(i);
+                long processSeed = seed * 31 + i;
+                results.add(executor.submit(() -> runProcess(process, operationsPerProcess, processSeed)));
+            }
+            for (Future<ProcessResult> result : results) {
+                ProcessResult processResult = result.get();
+                report.add(processResult.latencies, processResult.operationCounts, processResult.operationNanos, processResult.errors);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Workload was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Simulated process failed", e.getCause());
+        } finally {
+            report.setElapsedNanos(System.nanoTime() - start);
+            executor.shutdown();
+        }
+        return report;
+    }
+
+    private ProcessResult runProcess(ProcessContext process, int operationCount, long seed) {
+        OperatingSystem operatingSystem = OperatingSystem.getInstance();
+        operatingSystem.attach(process);
+        operatingSystem.redirectOutput(null);
+        ProcessResult result = new ProcessResult();
+        SimulatedProcess simulatedProcess = new SimulatedProcess(operatingSystem, new Random(seed));
+        try {
+            for (int i = 0; i < operationCount; i++) {
+                Operation operation = operationMix.next(simulatedProcess.random);
+                long start = System.nanoTime();
+                try {
+                    if (!simulatedProcess.run(operation)) {
+                        result.errors++;
+                    }
+                } catch (RuntimeException e) {
+                    result.errors++;
+                }
+                long latency = System.nanoTime() - start;
+                result.latencies.record(latency);
+                result.operationCounts[operation.ordinal()]++;
+                result.operationNanos[operation.ordinal()] += latency;
+            }
+        } finally {
+            simulatedProcess.closeAll();
+            operatingSystem.detach();
+            operatingSystem.restoreOutput();
+        }
+        return result;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() if the runtime has it, the sources stay compatible with Java 11
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private class SimulatedProcess {
+
+        private final OperatingSystem operatingSystem;
+        private final Random random;
+        private final ByteBuffer buffer;
+        // offsets of the open files by file descriptor, in the order they were opened
+        private final Map<Integer, Integer> openFiles = new HashMap<>();
+        private final List<Integer> openOrder = new ArrayList<>();
+
+        private SimulatedProcess(OperatingSystem operatingSystem, Random random) {
+            this.operatingSystem = operatingSystem;
+            this.random = random;
+            this.buffer = ByteBuffer.allocate(ioSizeInBytes);
+            random.nextBytes(buffer.array());
+        }
+
+        /**
+         * @return false if the operation failed
+         */
+        private boolean run(Operation operation) {
+            switch (operation) {
+                case CREATE:
+                    return operatingSystem.create(pathDistribution.nextFile(random)) == 0;
+                case OPEN:
+                    return open() >= 0;
+                case READ:
+                    return read();
+                case WRITE:
+                    return write();
+                case SEEK:
+                    return seek();
+                case TRUNCATE:
+                    return operatingSystem.truncate(pathDistribution.nextFile(random), random.nextInt(maxFileSizeInBytes + 1)) == 0;
+                case LINK:
+                    String file = pathDistribution.nextFile(random);
+                    return operatingSystem.link(file, file + "-" + random.nextInt(4)) == 0;
+                case UNLINK:
+                    return operatingSystem.unlink(pathDistribution.nextFile(random)) == 0;
+                case MKDIR:
+                    String parent = pathDistribution.getDirectories().get(random.nextInt(pathDistribution.getDirectories().size()));
+                    return operatingSystem.mkdir(parent + "/m" + random.nextInt(64)) == 0;
+                default:
+                    throw new IllegalStateException("Unknown operation: " + operation);
+            }
+        }
+
+        private int open() {
+            if (openOrder.size() >= MAX_OPEN_FILES_PER_PROCESS) {
+                int oldest = openOrder.remove(0);
+                openFiles.remove(oldest);
+                operatingSystem.close(oldest);
+            }
+            int fileDescriptor = operatingSystem.open(pathDistribution.nextFile(random));
+            if (fileDescriptor >= 0) {
+                openFiles.put(fileDescriptor, 0);
+                openOrder.add(fileDescriptor);
+            }
+            return fileDescriptor;
+        }
+
+        // an open file, opened first if there is none
+        private int anyOpenFile() {
+            if (openOrder.isEmpty()) {
+                return open();
+            }
+            return openOrder.get(random.nextInt(openOrder.size()));
+        }
+
+        private boolean read() {
+            int fileDescriptor = anyOpenFile();
+            if (fileDescriptor < 0) {
+                return false;
+            }
+            buffer.clear();
+            int readBytes = operatingSystem.read(fileDescriptor, buffer);
+            openFiles.put(fileDescriptor, openFiles.get(fileDescriptor) + Math.max(readBytes, 0));
+            return readBytes >= 0;
+        }
+
+        private boolean write() {
+            int fileDescriptor = anyOpenFile();
+            if (fileDescriptor < 0) {
+                return false;
+            }
+            if (openFiles.get(fileDescriptor) + ioSizeInBytes > maxFileSizeInBytes) {
+                operatingSystem.seek(fileDescriptor, 0);
+                openFiles.put(fileDescriptor, 0);
+            }
+            buffer.clear();
+            int wroteBytes = operatingSystem.write(fileDescriptor, buffer);
+            openFiles.put(fileDescriptor, openFiles.get(fileDescriptor) + Math.max(wroteBytes, 0));
+            return wroteBytes >= 0;
+        }
+
+        private boolean seek() {
+            int fileDescriptor = anyOpenFile();
+            if (fileDescriptor < 0) {
+                return false;
+            }
+            int offset = random.nextInt(maxFileSizeInBytes - ioSizeInBytes + 1);
+            if (operatingSystem.seek(fileDescriptor, offset) < 0) {
+                return false;
+            }
+            openFiles.put(fileDescriptor, offset);
+            return true;
+        }
+
+        private void closeAll() {
+            for (int fileDescriptor : openOrder) {
+                operatingSystem.close(fileDescriptor);
+            }
+            openOrder.clear();
+            openFiles.clear();
+        }
+    }
+
+    private static class ProcessResult {
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final long[] operationCounts = new long[Operation.values().length];
+        private final long[] operationNanos = new long[Operation.values().length];
+        private long errors;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.demian.workload;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latencies of a workload run, latencies of all processes are counted together.
+ */
+public class WorkloadReport {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String pathDistributionName;
+    private final int processCount;
+    private final boolean virtualThreads;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final long[] operationCounts = new long[Operation.values().length];
+    private final long[] operationNanos = new long[Operation.values().length];
+    private long errors;
+    private long elapsedNanos;
+
+    WorkloadReport(String pathDistributionName, int processCount, boolean virtualThreads) {
+        this.pathDistributionName = pathDistributionName;
+        this.processCount = processCount;
+        this.virtualThreads = virtualThreads;
+    }
+
+    void add(LatencyHistogram processLatencies, long[] processOperationCounts, long[] processOperationNanos, long processErrors) {
+        latencies.add(processLatencies);
+        for (int i = 0; i < operationCounts.length; i++) {
+            operationCounts[i] += processOperationCounts[i];
+            operationNanos[i] += processOperationNanos[i];
+        }
+        errors += processErrors;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getOperationCount() {
+        return latencies.getTotalCount();
+    }
+
+    public long getOperationCount(Operation operation) {
+        return operationCounts[operation.ordinal()];
+    }
+
+    /**
+     * @return operations which failed with an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return operations per second over all processes
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getOperationCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public long getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
+    }
+
+    public void print() {
+        System.out.printf("Workload report: [paths = %s; processes = %d; threads = %s; operations = %d; errors = %d; elapsed = %d ms; throughput = %.0f ops/s]%n",
+                pathDistributionName, processCount, virtualThreads ? "virtual" : "platform", getOperationCount(), errors,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getThroughput());
+        StringBuilder percentiles = new StringBuilder("Latency: [");
+        for (double percentile : PERCENTILES) {
+            String name = percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile);
+            percentiles.append(String.format("p%s = %.1f us; ", name, latencies.getValueAtPercentile(percentile) / 1000.0));
+        }
+        percentiles.append(String.format("max = %.1f us]", latencies.getMaxValue() / 1000.0));
+        System.out.println(percentiles);
+        for (Operation operation : Operation.values()) {
+            long count = operationCounts[operation.ordinal()];
+            if (count > 0) {
+                System.out.printf("  %-8s count = %d; mean = %.1f us%n", operation, count, operationNanos[operation.ordinal()] / 1000.0 / count);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package edu.demian.filesystem;
+
+import edu.demian.filesystem.process.ProcessContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.read;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentProcessesTest {
+
+    private static final int PROCESS_COUNT = 8;
+    private static final int ROUNDS = 50;
+    private static final int CHUNK_SIZE = 100;
+
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(256);
+        fileSystem = FileSystem.getInstance();
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void processesKeepTheirOwnFilesAndDirectories() throws Exception {
+        runProcesses(number -> {
+            String directory = "d" + number;
+            assertTrue(fileSystem.createDirectory(directory));
+            assertTrue(fileSystem.changeDirectory(directory));
+            for (int round = 0; round < ROUNDS; round++) {
+                // every process counts its file descriptors from 0
+                assertTrue(fileSystem.createRegularFile("f" + round));
+                int fileDescriptor = fileSystem.openFile("f" + round);
+                assertEquals(0, fileDescriptor);
+                assertEquals(CHUNK_SIZE, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(filled(CHUNK_SIZE, number + round)), 0));
+                ByteBuffer dst = ByteBuffer.allocate(CHUNK_SIZE);
+                assertEquals(CHUNK_SIZE, fileSystem.pread(fileDescriptor, dst, 0));
+                assertArrayEquals(filled(CHUNK_SIZE, number + round), dst.array());
+                assertTrue(fileSystem.closeFile(fileDescriptor));
+                if (round % 2 == 1) {
+                    assertTrue(fileSystem.unlink("f" + round));
+                }
+            }
+        });
+
+        for (int number = 0; number < PROCESS_COUNT; number++) {
+            for (int round = 0; round < ROUNDS; round += 2) {
+                assertArrayEquals(filled(CHUNK_SIZE, number + round), read("d" + number + "/f" + round, 0, CHUNK_SIZE));
+            }
+        }
+    }
+
+    @Test
+    void processesWritingDisjointRangesOfSharedFile() throws Exception {
+        assertTrue(fileSystem.createRegularFile("shared"));
+        runProcesses(number -> {
+            int fileDescriptor = fileSystem.openFile("shared");
+            assertTrue(fileDescriptor >= 0);
+            for (int round = 0; round < ROUNDS; round++) {
+                int position = (round * PROCESS_COUNT + number) * CHUNK_SIZE;
+                assertEquals(CHUNK_SIZE, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(filled(CHUNK_SIZE, number + 1)), position));
+            }
+            assertTrue(fileSystem.closeFile(fileDescriptor));
+        });
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int number = 0; number < PROCESS_COUNT; number++) {
+                int position = (round * PROCESS_COUNT + number) * CHUNK_SIZE;
+                assertArrayEquals(filled(CHUNK_SIZE, number + 1), read("shared", position, CHUNK_SIZE));
+            }
+        }
+    }
+
+    // runs the body once for every process, each on a thread of its own
+    private void runProcesses(ProcessBody body) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PROCESS_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < PROCESS_COUNT; i++) {
+                int number = i;
+                ProcessContext process = fileSystem.createProcess();
+                Callable<Void> task = () -> {
+                    fileSystem.attachProcess(process);
+                    try {
+                        body.run(number);
+                    } finally {
+                        fileSystem.detachProcess();
+                    }
+                    return null;
+                };
+                futures.add(executor.submit(task));
+            }
+            // rethrows the first failed assertion
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private interface ProcessBody {
+
+        void run(int number);
+    }
+}
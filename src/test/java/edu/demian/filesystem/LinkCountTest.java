@@ -0,0 +1,100 @@
+package edu.demian.filesystem;
+
+import edu.demian.filesystem.exception.FileCreationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LinkCountTest {
+
+    private FileSystem fileSystem;
+    private int usedBlockCount;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(16);
+        fileSystem = FileSystem.getInstance();
+        usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void unlinkedFileStaysUsableUntilLastClose() {
+        int fileDescriptor = fileSystem.openFile("file");
+        int otherFileDescriptor = fileSystem.openFile("file");
+        assertTrue(fileSystem.unlink("file"));
+        assertFalse(fileSystem.unlink("file"));
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+
+        assertEquals(16, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(filled(16, 2)), 0));
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        ByteBuffer dst = ByteBuffer.allocate(16);
+        assertEquals(16, fileSystem.pread(otherFileDescriptor, dst, 0));
+        assertArrayEquals(filled(16, 2), dst.array());
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+
+        assertTrue(fileSystem.closeFile(otherFileDescriptor));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertEquals(-1, fileSystem.openFile("file"));
+    }
+
+    @Test
+    void hardLinkKeepsBlocksUntilLastName() {
+        assertTrue(fileSystem.link("file", "link"));
+        assertTrue(fileSystem.unlink("file"));
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertArrayEquals(filled(64, 1), read("link", 0, 64));
+
+        assertTrue(fileSystem.unlink("link"));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void lastNameRemovedWhileOpenReleasesOnClose() {
+        assertTrue(fileSystem.link("file", "link"));
+        int fileDescriptor = fileSystem.openFile("link");
+        assertTrue(fileSystem.unlink("file"));
+        assertTrue(fileSystem.unlink("link"));
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void releasedFileGivesBackItsIdOnLastClose() {
+        int fileDescriptor = fileSystem.openFile("file");
+        assertTrue(fileSystem.unlink("file"));
+        int fileCount = 0;
+        try {
+            while (fileCount < 16) {
+                assertTrue(fileSystem.createRegularFile("f" + fileCount));
+                fileCount++;
+            }
+        } catch (FileCreationException e) {
+            // all ids are taken, one of them by the unlinked file
+        }
+        assertTrue(fileCount < 16);
+        assertThrows(FileCreationException.class, () -> fileSystem.createRegularFile("full"));
+
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        assertTrue(fileSystem.createRegularFile("new"));
+    }
+}
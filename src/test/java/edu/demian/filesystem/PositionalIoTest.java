@@ -0,0 +1,67 @@
+package edu.demian.filesystem;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PositionalIoTest {
+
+    private FileSystem fileSystem;
+    private int fileDescriptor;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(16);
+        fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        fileDescriptor = fileSystem.openFile("file");
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void writesAndReadsAtPositionWithoutMovingOffset() {
+        assertEquals(3, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(new byte[]{1, 2, 3}), 100));
+        ByteBuffer dst = ByteBuffer.allocate(3);
+        assertEquals(3, fileSystem.pread(fileDescriptor, dst, 100));
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), dst.flip());
+        assertEquals(103, fileSystem.read(fileDescriptor, ByteBuffer.allocate(200)));
+    }
+
+    @Test
+    void rejectsNegativePositions() {
+        assertEquals(-1, fileSystem.pread(fileDescriptor, ByteBuffer.allocate(8), -1));
+        assertEquals(-1, fileSystem.pwrite(fileDescriptor, ByteBuffer.allocate(8), -5));
+        assertEquals(-1, fileSystem.pwrite(fileDescriptor, ByteBuffer.allocate(8), Integer.MIN_VALUE));
+    }
+
+    @Test
+    void rejectsWritesPastLargestFileSize() {
+        ByteBuffer src = ByteBuffer.allocate(8);
+        assertEquals(-1, fileSystem.pwrite(fileDescriptor, src, Integer.MAX_VALUE - 5));
+        assertEquals(8, src.remaining());
+    }
+
+    @Test
+    void rejectsNegativeSeek() {
+        assertFalse(fileSystem.changeOffsetForFile(fileDescriptor, -5));
+        assertEquals(8, fileSystem.read(fileDescriptor, ByteBuffer.allocate(8)));
+    }
+
+    @Test
+    void keepsOffsetWhenWriteFails() {
+        assertTrue(fileSystem.changeOffsetForFile(fileDescriptor, Integer.MAX_VALUE - 2));
+        assertEquals(-1, fileSystem.write(fileDescriptor, ByteBuffer.allocate(8)));
+        assertEquals(-1, fileSystem.writev(fileDescriptor, new ByteBuffer[]{ByteBuffer.allocate(2), ByteBuffer.allocate(2)}));
+        assertEquals(0, fileSystem.read(fileDescriptor, ByteBuffer.allocate(8)));
+    }
+}
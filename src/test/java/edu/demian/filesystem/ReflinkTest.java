@@ -0,0 +1,91 @@
+package edu.demian.filesystem;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.pattern;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReflinkTest {
+
+    private FileSystem fileSystem;
+    private int usedBlockCount;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(16);
+        fileSystem = FileSystem.getInstance();
+        usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, pattern(64));
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void cloneSharesBlocksUntilWritten() {
+        assertTrue(fileSystem.cloneFile("file", "clone"));
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertEquals(4, fileSystem.getBlockDevice().getSharedBlockCount());
+        assertArrayEquals(pattern(64), read("clone", 0, 64));
+
+        write("clone", 16, filled(16, 0x7F));
+        assertEquals(usedBlockCount + 5, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertEquals(3, fileSystem.getBlockDevice().getSharedBlockCount());
+        assertArrayEquals(pattern(64), read("file", 0, 64));
+        assertArrayEquals(filled(16, 0x7F), read("clone", 16, 16));
+    }
+
+    @Test
+    void blocksAreFreedWithTheirLastReference() {
+        assertTrue(fileSystem.cloneFile("file", "clone"));
+        assertTrue(fileSystem.unlink("file"));
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertEquals(0, fileSystem.getBlockDevice().getSharedBlockCount());
+        assertArrayEquals(pattern(64), read("clone", 0, 64));
+
+        assertTrue(fileSystem.unlink("clone"));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void copyFileRangeSharesWholeBlocksAndCopiesTheRest() {
+        assertTrue(fileSystem.createRegularFile("target"));
+        int fileDescriptor = fileSystem.openFile("file");
+        int targetFileDescriptor = fileSystem.openFile("target");
+
+        assertEquals(48, fileSystem.copyFileRange(fileDescriptor, targetFileDescriptor, 8, 48));
+        // blocks 1 and 2 are shared, the halves of blocks 0 and 3 are copied
+        assertEquals(2, fileSystem.getBlockDevice().getSharedBlockCount());
+        assertEquals(usedBlockCount + 6, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        assertTrue(fileSystem.closeFile(targetFileDescriptor));
+        assertArrayEquals(Arrays.copyOfRange(pattern(64), 8, 56), read("target", 8, 48));
+        assertArrayEquals(new byte[8], read("target", 0, 8));
+    }
+
+    @Test
+    void copyFileRangeRejectsInvalidRanges() {
+        assertTrue(fileSystem.createRegularFile("target"));
+        int fileDescriptor = fileSystem.openFile("file");
+        int targetFileDescriptor = fileSystem.openFile("target");
+
+        assertEquals(-1, fileSystem.copyFileRange(fileDescriptor, targetFileDescriptor, -16, 32));
+        assertEquals(-1, fileSystem.copyFileRange(fileDescriptor, targetFileDescriptor, 0, -1));
+        assertEquals(-1, fileSystem.copyFileRange(fileDescriptor, targetFileDescriptor, 16, Integer.MAX_VALUE));
+        assertEquals(-1, fileSystem.copyFileRange(fileDescriptor, 42, 0, 16));
+        assertEquals(0, fileSystem.copyFileRange(fileDescriptor, targetFileDescriptor, 64, 16));
+        assertEquals(0, fileSystem.getBlockDevice().getSharedBlockCount());
+    }
+}
@@ -0,0 +1,61 @@
+package edu.demian.filesystem;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Helpers of the tests, they work on the mounted file system and fail the test if a call fails.
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    public static FileSystem remount(String image) {
+        FileSystem.unmountFileSystem();
+        FileSystem.mountFileSystem(image);
+        return FileSystem.getInstance();
+    }
+
+    public static void write(String pathname, int position, byte[] data) {
+        FileSystem fileSystem = FileSystem.getInstance();
+        int fileDescriptor = fileSystem.openFile(pathname);
+        assertEquals(data.length, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(data), position));
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+    }
+
+    public static byte[] read(String pathname, int position, int length) {
+        FileSystem fileSystem = FileSystem.getInstance();
+        int fileDescriptor = fileSystem.openFile(pathname);
+        ByteBuffer dst = ByteBuffer.allocate(length);
+        assertEquals(length, fileSystem.pread(fileDescriptor, dst, position));
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        return dst.array();
+    }
+
+    public static int size(String pathname) {
+        FileSystem fileSystem = FileSystem.getInstance();
+        int fileDescriptor = fileSystem.openFile(pathname);
+        int size = fileSystem.currentProcess().getOpenFileDescriptor(fileDescriptor).getRegularFile().getDescriptor().getFileSizeInBytes();
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        return size;
+    }
+
+    public static byte[] filled(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    // blocks of 16 bytes within the first 256 bytes all hold different data
+    public static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i + 1);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,161 @@
+package edu.demian.filesystem.aio;
+
+import edu.demian.filesystem.FileSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IoQueueTest {
+
+    private RecordingHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        // requests are submitted on behalf of the current process
+        FileSystem.initializeFileSystem(16);
+        handler = new RecordingHandler();
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void coalescesAdjacentWritesOfSameFile() throws Exception {
+        List<CompletableFuture<IoCompletion>> futures = submit(
+                IoRequest.write(3, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 0),
+                IoRequest.write(3, ByteBuffer.wrap(new byte[]{5, 6, 7, 8}), 4),
+                IoRequest.write(3, ByteBuffer.wrap(new byte[]{9, 10}), 8),
+                IoRequest.write(3, ByteBuffer.wrap(new byte[]{11, 12}), 20),
+                IoRequest.write(4, ByteBuffer.wrap(new byte[]{13}), 22),
+                IoRequest.fsync(3));
+
+        assertEquals(List.of("pwrite 3 0 [1, 2, 3, 4, 5, 6, 7, 8, 9, 10]", "pwrite 3 20 [11, 12]", "pwrite 4 22 [13]", "fsync 3"),
+                handler.calls);
+        assertResults(futures, 4, 4, 2, 2, 1, 0);
+        for (CompletableFuture<IoCompletion> future : futures.subList(0, 5)) {
+            assertEquals(0, future.get().getRequest().getBuffer().remaining());
+        }
+    }
+
+    @Test
+    void splitsShortReadAmongCoalescedRequests() throws Exception {
+        handler.readLimit = 6;
+        ByteBuffer first = ByteBuffer.allocate(4);
+        ByteBuffer second = ByteBuffer.allocate(4);
+        ByteBuffer third = ByteBuffer.allocate(4);
+        List<CompletableFuture<IoCompletion>> futures = submit(
+                IoRequest.read(3, first, 10),
+                IoRequest.read(3, second, 14),
+                IoRequest.read(3, third, 18));
+
+        assertEquals(List.of("pread 3 10 12"), handler.calls);
+        assertResults(futures, 4, 2, 0);
+        assertArrayEquals(new byte[]{10, 11, 12, 13}, first.array());
+        assertEquals(2, second.position());
+        assertArrayEquals(new byte[]{14, 15, 0, 0}, second.array());
+        assertEquals(0, third.position());
+    }
+
+    @Test
+    void splitsShortWriteAmongCoalescedRequests() throws Exception {
+        handler.writeLimit = 5;
+        ByteBuffer first = ByteBuffer.wrap(new byte[4]);
+        ByteBuffer second = ByteBuffer.wrap(new byte[4]);
+        List<CompletableFuture<IoCompletion>> futures = submit(
+                IoRequest.write(3, first, 0),
+                IoRequest.write(3, second, 4));
+
+        assertResults(futures, 4, 1);
+        assertEquals(4, first.position());
+        assertEquals(1, second.position());
+    }
+
+    @Test
+    void failedCoalescedCallFailsEveryRequest() throws Exception {
+        handler.readLimit = -1;
+        List<CompletableFuture<IoCompletion>> futures = submit(
+                IoRequest.read(3, ByteBuffer.allocate(4), 0),
+                IoRequest.read(3, ByteBuffer.allocate(4), 4));
+
+        assertEquals(1, handler.calls.size());
+        assertResults(futures, -1, -1);
+    }
+
+    private List<CompletableFuture<IoCompletion>> submit(IoRequest... requests) {
+        IoQueue queue = IoQueue.createInstance(1, 0, handler);
+        List<CompletableFuture<IoCompletion>> futures = queue.submit(List.of(requests));
+        // the worker has run every request once it stopped
+        queue.close();
+        return futures;
+    }
+
+    private static void assertResults(List<CompletableFuture<IoCompletion>> futures, long... results)
+            throws InterruptedException, ExecutionException {
+        long[] actual = new long[futures.size()];
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = futures.get(i).get().getResult();
+        }
+        assertArrayEquals(results, actual);
+    }
+
+    // reads return the position of each byte as its value, at most readLimit bytes are read and writeLimit bytes written
+    private static class RecordingHandler implements IoQueue.Handler {
+
+        private final List<String> calls = new ArrayList<>();
+        private int readLimit = Integer.MAX_VALUE;
+        private int writeLimit = Integer.MAX_VALUE;
+
+        @Override
+        public int open(String pathname) {
+            calls.add("open " + pathname);
+            return 3;
+        }
+
+        @Override
+        public int close(int fileDescriptor) {
+            calls.add("close " + fileDescriptor);
+            return 0;
+        }
+
+        @Override
+        public int fsync(int fileDescriptor) {
+            calls.add("fsync " + fileDescriptor);
+            return 0;
+        }
+
+        @Override
+        public int pread(int fileDescriptor, ByteBuffer dst, int position) {
+            calls.add("pread " + fileDescriptor + " " + position + " " + dst.remaining());
+            if (readLimit < 0) {
+                return -1;
+            }
+            int length = Math.min(readLimit, dst.remaining());
+            for (int i = 0; i < length; i++) {
+                dst.put((byte) (position + i));
+            }
+            return length;
+        }
+
+        @Override
+        public int pwrite(int fileDescriptor, ByteBuffer src, int position) {
+            byte[] data = new byte[src.remaining()];
+            src.duplicate().get(data);
+            calls.add("pwrite " + fileDescriptor + " " + position + " " + Arrays.toString(data));
+            int length = Math.min(writeLimit, data.length);
+            src.position(src.position() + length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package edu.demian.filesystem.cache;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.dedup.Deduplicator;
+import edu.demian.filesystem.file.descriptor.FileDescriptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCacheTest {
+
+    // 256 blocks of 16 bytes in a page
+    private static final int PAGE_SIZE = PageCache.PAGE_SIZE_IN_BYTES;
+    private static final int BLOCKS_PER_PAGE = PAGE_SIZE / 16;
+
+    private FileSystem fileSystem;
+    private Deduplicator deduplicator;
+    private int fileDescriptor;
+    private FileDescriptor descriptor;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(16);
+        fileSystem = FileSystem.getInstance();
+        deduplicator = fileSystem.getDeduplicator();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(3 * PAGE_SIZE, 1));
+        fileDescriptor = fileSystem.openFile("file");
+        descriptor = fileSystem.currentProcess().getOpenFileDescriptor(fileDescriptor).getRegularFile().getDescriptor();
+        // written back blocks are recorded from now on
+        deduplicator.setMode(Deduplicator.Mode.INLINE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void writesBackOnlyDirtyBlocks() {
+        pwrite(32, filled(16, 2));
+        pwrite(PAGE_SIZE - 8, filled(16, 3));
+        pwrite(PAGE_SIZE + 40, filled(1, 4));
+
+        fileSystem.getPageCache().flush(descriptor);
+        assertEquals(Set.of(2, BLOCKS_PER_PAGE - 1, BLOCKS_PER_PAGE, BLOCKS_PER_PAGE + 2),
+                deduplicator.drainWrittenBlocks(descriptor).keySet());
+
+        fileSystem.getPageCache().flush(descriptor);
+        assertEquals(Set.of(), deduplicator.drainWrittenBlocks(descriptor).keySet());
+    }
+
+    @Test
+    void invalidateWritesBackPagesPartlyInRangeOnly() {
+        pwrite(0, filled(16, 2));
+        pwrite(PAGE_SIZE, filled(16, 3));
+        pwrite(2 * PAGE_SIZE, filled(16, 4));
+        int pageCount = fileSystem.getPageCache().size();
+
+        fileSystem.getPageCache().invalidate(descriptor, BLOCKS_PER_PAGE + 1);
+        assertEquals(Set.of(BLOCKS_PER_PAGE), deduplicator.drainWrittenBlocks(descriptor).keySet());
+        assertEquals(pageCount - 2, fileSystem.getPageCache().size());
+
+        fileSystem.getPageCache().flush(descriptor);
+        assertEquals(Set.of(0), deduplicator.drainWrittenBlocks(descriptor).keySet());
+    }
+
+    @Test
+    void evictedPagesAreWrittenBackAndReadAgain() {
+        int pageCount = 40;
+        // blocks are written in place, none of them may be shared
+        deduplicator.setMode(Deduplicator.Mode.OFF);
+        assertTrue(fileSystem.closeFile(fileDescriptor));
+        write("file", 0, filled(pageCount * PAGE_SIZE, 1));
+        fileDescriptor = fileSystem.openFile("file");
+        // a single page in each segment
+        PageCache pageCache = new PageCache(fileSystem.getBlockDevice(), deduplicator, 0);
+
+        for (int page = 0; page < pageCount; page++) {
+            pageCache.write(descriptor, page * PAGE_SIZE + 16, ByteBuffer.wrap(filled(16, page)), 16);
+        }
+        assertTrue(pageCache.getEvictions() > 0);
+        assertTrue(pageCache.size() < pageCount);
+        for (int page = 0; page < pageCount; page++) {
+            ByteBuffer dst = ByteBuffer.allocate(16);
+            pageCache.read(descriptor, page * PAGE_SIZE + 16, dst, 16);
+            assertArrayEquals(filled(16, page), dst.array());
+        }
+
+        pageCache.flushAll();
+        // the pages of the file system still hold what was written before
+        fileSystem.getPageCache().clear();
+        for (int page = 0; page < pageCount; page++) {
+            assertArrayEquals(filled(16, page), read("file", page * PAGE_SIZE + 16, 16));
+        }
+    }
+
+    private void pwrite(int position, byte[] data) {
+        assertEquals(data.length, fileSystem.pwrite(fileDescriptor, ByteBuffer.wrap(data), position));
+    }
+}
@@ -0,0 +1,103 @@
+package edu.demian.filesystem.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Lz4CodecTest {
+
+    private final Codec codec = new Lz4Codec();
+
+    @Test
+    void roundTripsRandomData() {
+        Random random = new Random(42);
+        for (int length : new int[]{13, 255, 4096, 70_000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    void roundTripsAndShrinksZeros() {
+        byte[] data = new byte[100_000];
+        assertTrue(roundTrip(data) < data.length / 100);
+    }
+
+    @Test
+    void roundTripsAndShrinksRepetitiveText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("block ").append(i % 7).append(" of the file system simulator; ");
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(roundTrip(data) < data.length / 4);
+    }
+
+    @Test
+    void roundTripsEmptyAndShortData() {
+        for (int length = 0; length <= 20; length++) {
+            byte[] data = new byte[length];
+            Arrays.fill(data, (byte) 'a');
+            roundTrip(data);
+        }
+    }
+
+    @Test
+    void roundTripsMatchesOverlappingTheirOutput() {
+        // runs of a single byte and of a short period are matches at offsets 1 and 3
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i < 500 ? (byte) 'x' : (byte) "abc".charAt(i % 3);
+        }
+        roundTrip(data);
+    }
+
+    @Test
+    void roundTripsLongLiteralsBetweenLongMatches() {
+        Random random = new Random(7);
+        byte[] data = new byte[3000];
+        random.nextBytes(data);
+        // literals and matches longer than 15 + 255 bytes take several length bytes
+        Arrays.fill(data, 600, 1500, (byte) 1);
+        System.arraycopy(data, 0, data, 2000, 600);
+        roundTrip(data);
+    }
+
+    @Test
+    void compressesOnlyTheGivenLength() {
+        byte[] data = new byte[200];
+        Arrays.fill(data, 0, 100, (byte) 3);
+        Arrays.fill(data, 100, 200, (byte) 4);
+        byte[] compressed = new byte[codec.maxCompressedLength(100)];
+        int compressedLength = codec.compress(data, 100, compressed);
+        byte[] decompressed = new byte[100];
+        codec.decompress(compressed, compressedLength, decompressed, 100);
+        assertArrayEquals(Arrays.copyOf(data, 100), decompressed);
+    }
+
+    @Test
+    void rejectsWrongDecompressedLength() {
+        byte[] data = "some data which is not compressible at all".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compressedLength = codec.compress(data, data.length, compressed);
+        assertThrows(IllegalStateException.class, () -> codec.decompress(compressed, compressedLength, new byte[data.length + 1], data.length + 1));
+    }
+
+    // returns the compressed length
+    private int roundTrip(byte[] data) {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int compressedLength = codec.compress(data, data.length, compressed);
+        assertTrue(compressedLength <= compressed.length);
+        byte[] decompressed = new byte[data.length];
+        codec.decompress(compressed, compressedLength, decompressed, data.length);
+        assertArrayEquals(data, decompressed);
+        return compressedLength;
+    }
+}
@@ -0,0 +1,90 @@
+package edu.demian.filesystem.dedup;
+
+import edu.demian.filesystem.FileSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.pattern;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeduplicatorTest {
+
+    private static final long BACKGROUND_TIMEOUT_MILLIS = 10_000;
+
+    private FileSystem fileSystem;
+    private Deduplicator deduplicator;
+    private int usedBlockCount;
+
+    @BeforeEach
+    void setUp() {
+        FileSystem.initializeFileSystem(16);
+        fileSystem = FileSystem.getInstance();
+        deduplicator = fileSystem.getDeduplicator();
+        usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        assertTrue(fileSystem.createRegularFile("file"));
+        assertTrue(fileSystem.createRegularFile("copy"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void inlineModeSharesIdenticalBlocksOnClose() {
+        deduplicator.setMode(Deduplicator.Mode.INLINE);
+        write("file", 0, pattern(64));
+        write("copy", 0, pattern(64));
+
+        assertEquals(4, deduplicator.getDeduplicatedBlocks());
+        fileSystem.sync();
+        assertEquals(usedBlockCount + 4, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertArrayEquals(pattern(64), read("file", 0, 64));
+        assertArrayEquals(pattern(64), read("copy", 0, 64));
+    }
+
+    @Test
+    void writeToDeduplicatedBlockLeavesOtherFileIntact() {
+        deduplicator.setMode(Deduplicator.Mode.INLINE);
+        write("file", 0, pattern(64));
+        write("copy", 0, pattern(64));
+
+        write("copy", 16, filled(16, 0x7F));
+        assertArrayEquals(pattern(64), read("file", 0, 64));
+        assertArrayEquals(filled(16, 0x7F), read("copy", 16, 16));
+        assertArrayEquals(Arrays.copyOfRange(pattern(64), 32, 64), read("copy", 32, 32));
+    }
+
+    @Test
+    void backgroundModeSharesIdenticalBlocksLater() throws InterruptedException {
+        deduplicator.setMode(Deduplicator.Mode.BACKGROUND);
+        write("file", 0, pattern(64));
+        write("copy", 0, pattern(64));
+
+        long deadline = System.currentTimeMillis() + BACKGROUND_TIMEOUT_MILLIS;
+        while (deduplicator.getDeduplicatedBlocks() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(Deduplicator.BACKGROUND_INTERVAL_MILLIS);
+        }
+        assertEquals(4, deduplicator.getDeduplicatedBlocks());
+        assertArrayEquals(pattern(64), read("file", 0, 64));
+        assertArrayEquals(pattern(64), read("copy", 0, 64));
+    }
+
+    @Test
+    void offModeKeepsCopies() {
+        write("file", 0, pattern(64));
+        write("copy", 0, pattern(64));
+
+        fileSystem.sync();
+        assertEquals(0, deduplicator.getDeduplicatedBlocks());
+        assertEquals(usedBlockCount + 8, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+}
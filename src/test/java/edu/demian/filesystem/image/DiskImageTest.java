@@ -0,0 +1,130 @@
+package edu.demian.filesystem.image;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.Geometry;
+import edu.demian.filesystem.file.SymbolicLinkFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.remount;
+import static edu.demian.filesystem.TestFiles.size;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiskImageTest {
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void keepsFilesDirectoriesAndSymbolicLinks() {
+        String image = format(Geometry.createDefaultInstance(16));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createDirectory("directory"));
+        assertTrue(fileSystem.createRegularFile("directory/file"));
+        assertTrue(fileSystem.createSymbolicLink("link", "directory/file"));
+        write("directory/file", 10, filled(100, 3));
+
+        fileSystem = remount(image);
+        assertArrayEquals(filled(100, 3), read("link", 10, 100));
+        assertEquals(110, size("directory/file"));
+        assertEquals("directory/file", ((SymbolicLinkFile) fileSystem.getRootDirectory().getFile("link")).getContent());
+    }
+
+    @Test
+    void keepsLinkCounts() {
+        String image = format(Geometry.createDefaultInstance(16));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 5));
+        assertTrue(fileSystem.link("file", "other"));
+
+        fileSystem = remount(image);
+        // metadata written by the sync takes blocks as well, only the 4 blocks of data are counted
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        assertTrue(fileSystem.unlink("file"));
+        assertArrayEquals(filled(64, 5), read("other", 0, 64));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertTrue(fileSystem.unlink("other"));
+        assertEquals(usedBlockCount - 4, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void keepsDataWrittenIntoHoles() {
+        String image = format(Geometry.createDefaultInstance(16));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        fileSystem.sync();
+        // the file is a hole of its initial size, the write allocates its first blocks
+        write("file", 0, filled(40, 7));
+
+        remount(image);
+        assertArrayEquals(filled(40, 7), read("file", 0, 40));
+        assertArrayEquals(new byte[24], read("file", 40, 24));
+    }
+
+    @Test
+    void keepsSharedBlocks() {
+        String image = format(Geometry.createDefaultInstance(16));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+        assertTrue(fileSystem.cloneFile("file", "clone"));
+
+        fileSystem = remount(image);
+        assertEquals(4, fileSystem.getBlockDevice().getSharedBlockCount());
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        write("clone", 0, filled(16, 2));
+        // the written block of the clone is copied, the block it shared stays with the source
+        assertEquals(usedBlockCount + 1, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertArrayEquals(filled(64, 1), read("file", 0, 64));
+        assertArrayEquals(filled(16, 2), read("clone", 0, 16));
+        assertEquals(3, fileSystem.getBlockDevice().getSharedBlockCount());
+    }
+
+    @Test
+    void keepsGeometry() {
+        String image = format(Geometry.createInstance(16, 1024, 2));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 1000, filled(100, 9));
+
+        fileSystem = remount(image);
+        assertEquals(1024, fileSystem.getGeometry().getBlockSize());
+        assertEquals(2, fileSystem.getGeometry().getInitialBlockCount());
+        assertArrayEquals(filled(100, 9), read("file", 1000, 100));
+        assertTrue(fileSystem.createRegularFile("new"));
+        assertEquals(2048, size("new"));
+    }
+
+    @Test
+    void forgetsRemovedFiles() {
+        String image = format(Geometry.createDefaultInstance(16));
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+        assertTrue(fileSystem.unlink("file"));
+
+        fileSystem = remount(image);
+        assertNull(fileSystem.getRootDirectory().getFile("file"));
+    }
+
+    private String format(Geometry geometry) {
+        String image = directory.resolve("image").toString();
+        FileSystem.formatFileSystem(image, geometry, 1024);
+        return image;
+    }
+}
@@ -0,0 +1,146 @@
+package edu.demian.filesystem.journal;
+
+import edu.demian.filesystem.FileSystem;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysCommittedRecordsAfterReopen() {
+        Path path = directory.resolve("journal");
+        Journal journal = Journal.open(path);
+        journal.logAdded(0, "file", 1, Journal.TYPE_REGULAR, null);
+        journal.logAdded(0, "link", 2, Journal.TYPE_SYMBOLIC_LINK, "file");
+        journal.logResized(1, 100);
+        journal.commit(journal.logRemoved(0, "file"));
+        journal.close();
+
+        assertEquals(List.of("added 0 file 1 1 null", "added 0 link 2 3 file", "resized 1 100", "removed 0 file"), replay(path));
+    }
+
+    @Test
+    void dropsRecordsWhichWereNotCommitted() {
+        Path path = directory.resolve("journal");
+        Journal journal = Journal.open(path);
+        journal.commit(journal.logResized(1, 100));
+        journal.logResized(1, 200);
+        journal.close();
+
+        assertEquals(List.of("resized 1 100"), replay(path));
+    }
+
+    @Test
+    void checkpointKeepsRecordsAfterItsLsn() throws IOException {
+        Path path = directory.resolve("journal");
+        Journal journal = Journal.open(path);
+        long lsn = journal.logResized(1, 100);
+        journal.logResized(2, 200);
+        journal.checkpoint(lsn);
+        journal.commit(journal.logResized(3, 300));
+        journal.close();
+
+        assertEquals(List.of("resized 2 200", "resized 3 300"), replay(path));
+        // the temporary file of the checkpoint is renamed over the journal
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(path), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void checkpointOfAllRecordsEmptiesTheJournal() {
+        Path path = directory.resolve("journal");
+        Journal journal = Journal.open(path);
+        journal.logResized(1, 100);
+        journal.checkpoint(journal.logResized(2, 200));
+        assertTrue(journal.isEmpty());
+        journal.commit(journal.logResized(3, 300));
+        journal.close();
+
+        assertEquals(List.of("resized 3 300"), replay(path));
+    }
+
+    @Test
+    void replayStopsAtTornRecord() throws IOException {
+        Path path = directory.resolve("journal");
+        Journal journal = Journal.open(path);
+        journal.logResized(1, 100);
+        journal.commit(journal.logResized(2, 200));
+        journal.close();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertEquals(List.of("resized 1 100"), replay(path));
+    }
+
+    @Test
+    void mountReplaysChangesMadeSinceLastSync() throws IOException {
+        Path image = directory.resolve("image");
+        Path journalPath = directory.resolve("image.journal");
+        FileSystem.formatFileSystem(image.toString(), 16, 256);
+        try {
+            assertTrue(FileSystem.getInstance().createRegularFile("file"));
+            assertTrue(FileSystem.getInstance().createDirectory("directory"));
+            // the state a crash leaves behind: the changes are in the journal only
+            Files.copy(image, directory.resolve("crashed"));
+            Files.copy(journalPath, directory.resolve("crashed.journal"));
+        } finally {
+            FileSystem.unmountFileSystem();
+        }
+        Files.move(directory.resolve("crashed"), image, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(directory.resolve("crashed.journal"), journalPath, StandardCopyOption.REPLACE_EXISTING);
+
+        FileSystem.mountFileSystem(image.toString());
+        try {
+            assertNotNull(FileSystem.getInstance().getRootDirectory().getFile("file"));
+            assertNotNull(FileSystem.getInstance().getRootDirectory().getFile("directory"));
+        } finally {
+            FileSystem.unmountFileSystem();
+        }
+    }
+
+    private static List<String> replay(Path path) {
+        List<String> records = new ArrayList<>();
+        Journal journal = Journal.open(path);
+        try {
+            journal.replay(new Journal.RecordVisitor() {
+                @Override
+                public void added(int directoryInode, String name, int inode, int type, String content) {
+                    records.add(String.format("added %d %s %d %d %s", directoryInode, name, inode, type, content));
+                }
+
+                @Override
+                public void removed(int directoryInode, String name) {
+                    records.add(String.format("removed %d %s", directoryInode, name));
+                }
+
+                @Override
+                public void resized(int inode, int fileSizeInBytes) {
+                    records.add(String.format("resized %d %d", inode, fileSizeInBytes));
+                }
+            });
+        } finally {
+            journal.close();
+        }
+        return records;
+    }
+}
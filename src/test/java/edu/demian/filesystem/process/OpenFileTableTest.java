@@ -0,0 +1,113 @@
+package edu.demian.filesystem.process;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class OpenFileTableTest {
+
+    @Test
+    void opensLowestFreeNumber() {
+        OpenFileTable table = new OpenFileTable(16);
+        assertEquals(0, table.open(null));
+        assertEquals(1, table.open(null));
+        assertEquals(2, table.open(null));
+
+        assertNotNull(table.close(1));
+        assertEquals(1, table.open(null));
+        assertNotNull(table.close(2));
+        assertNotNull(table.close(0));
+        assertEquals(0, table.open(null));
+        assertEquals(2, table.open(null));
+        assertEquals(3, table.open(null));
+    }
+
+    @Test
+    void refusesOpensBeyondLimitAcrossWords() {
+        OpenFileTable table = new OpenFileTable(70);
+        for (int i = 0; i < 70; i++) {
+            assertEquals(i, table.open(null));
+        }
+        assertEquals(-1, table.open(null));
+
+        assertNotNull(table.close(65));
+        assertEquals(65, table.open(null));
+        assertEquals(-1, table.open(null));
+    }
+
+    @Test
+    void ignoresNumbersWhichAreNotOpen() {
+        OpenFileTable table = new OpenFileTable(8);
+        int fileDescriptor = table.open(null);
+
+        assertNull(table.get(-1));
+        assertNull(table.get(8));
+        assertNull(table.get(1));
+        assertNull(table.close(-1));
+        assertNull(table.close(8));
+        assertNull(table.close(1));
+        assertNotNull(table.close(fileDescriptor));
+        assertNull(table.close(fileDescriptor));
+        assertNull(table.get(fileDescriptor));
+    }
+
+    @Test
+    void concurrentOpensNeverShareNumber() throws InterruptedException {
+        int threadCount = 8;
+        int filesPerThread = 4;
+        int rounds = 20_000;
+        OpenFileTable table = new OpenFileTable(threadCount * filesPerThread);
+        // thread number + 1 holding each file descriptor, 0 if it is free
+        AtomicIntegerArray owners = new AtomicIntegerArray(threadCount * filesPerThread);
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int owner = t + 1;
+            Thread thread = new Thread(() -> {
+                int[] fileDescriptors = new int[filesPerThread];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int round = 0; round < rounds; round++) {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        fileDescriptors[i] = table.open(null);
+                        // the table holds a slot for every file of every thread
+                        if (fileDescriptors[i] < 0 || !owners.compareAndSet(fileDescriptors[i], 0, owner)) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                    }
+                    for (int fileDescriptor : fileDescriptors) {
+                        owners.set(fileDescriptor, 0);
+                        if (table.close(fileDescriptor) == null) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        for (int i = 0; i < threadCount * filesPerThread; i++) {
+            assertEquals(i, table.open(null));
+        }
+    }
+}
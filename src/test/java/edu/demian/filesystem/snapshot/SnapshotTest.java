@@ -0,0 +1,124 @@
+package edu.demian.filesystem.snapshot;
+
+import edu.demian.filesystem.FileSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static edu.demian.filesystem.TestFiles.filled;
+import static edu.demian.filesystem.TestFiles.read;
+import static edu.demian.filesystem.TestFiles.remount;
+import static edu.demian.filesystem.TestFiles.write;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void rollbackRestoresFilesAndFreesNewBlocks() {
+        FileSystem.initializeFileSystem(16);
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+        assertTrue(fileSystem.createSnapshot("snapshot"));
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+
+        write("file", 16, filled(16, 2));
+        assertTrue(fileSystem.createRegularFile("new"));
+        write("new", 0, filled(64, 3));
+        assertTrue(fileSystem.createDirectory("directory"));
+        assertTrue(fileSystem.rollbackSnapshot("snapshot"));
+
+        assertArrayEquals(filled(64, 1), read("file", 0, 64));
+        assertNull(fileSystem.getRootDirectory().getFile("new"));
+        assertNull(fileSystem.getRootDirectory().getFile("directory"));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void rollbackBringsBackRemovedFiles() {
+        FileSystem.initializeFileSystem(16);
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+        assertTrue(fileSystem.createSnapshot("snapshot"));
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+
+        assertTrue(fileSystem.unlink("file"));
+        // the blocks of the removed file stay with the snapshot
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+        assertTrue(fileSystem.rollbackSnapshot("snapshot"));
+
+        assertArrayEquals(filled(64, 1), read("file", 0, 64));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void rollbackToOlderSnapshotDropsNewerOnes() {
+        FileSystem.initializeFileSystem(16);
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+        assertTrue(fileSystem.createSnapshot("first"));
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        write("file", 0, filled(64, 2));
+        assertTrue(fileSystem.createSnapshot("second"));
+        write("file", 0, filled(32, 3));
+
+        assertTrue(fileSystem.rollbackSnapshot("first"));
+
+        assertArrayEquals(filled(64, 1), read("file", 0, 64));
+        assertNotNull(fileSystem.getSnapshots().get("first"));
+        assertNull(fileSystem.getSnapshots().get("second"));
+        assertFalse(fileSystem.rollbackSnapshot("second"));
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+
+    @Test
+    void rejectsDuplicateAndUnknownSnapshots() {
+        FileSystem.initializeFileSystem(16);
+        FileSystem fileSystem = FileSystem.getInstance();
+        assertTrue(fileSystem.createSnapshot("snapshot"));
+        assertFalse(fileSystem.createSnapshot("snapshot"));
+        assertFalse(fileSystem.rollbackSnapshot("unknown"));
+    }
+
+    @Test
+    void unmountFreesBlocksOnlySnapshotsReferTo() {
+        String image = directory.resolve("image").toString();
+        FileSystem.formatFileSystem(image, 16, 1024);
+        FileSystem fileSystem = remount(image);
+        int usedBlockCount = fileSystem.getBlockDevice().getUsedBlockCount();
+        assertTrue(fileSystem.createRegularFile("file"));
+        write("file", 0, filled(64, 1));
+
+        assertTrue(fileSystem.createSnapshot("snapshot"));
+        write("file", 0, filled(64, 2));
+        assertTrue(fileSystem.createRegularFile("removed"));
+        write("removed", 0, filled(64, 3));
+        assertTrue(fileSystem.unlink("removed"));
+        fileSystem = remount(image);
+
+        assertArrayEquals(filled(64, 2), read("file", 0, 64));
+        assertNull(fileSystem.getRootDirectory().getFile("removed"));
+        assertFalse(fileSystem.rollbackSnapshot("snapshot"));
+        // the image is clean, so its bitmap is trusted: blocks leaked by the snapshot would still be used
+        assertTrue(fileSystem.unlink("file"));
+        fileSystem = remount(image);
+        assertEquals(usedBlockCount, fileSystem.getBlockDevice().getUsedBlockCount());
+    }
+}
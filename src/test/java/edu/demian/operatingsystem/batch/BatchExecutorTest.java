@@ -0,0 +1,128 @@
+package edu.demian.operatingsystem.batch;
+
+import edu.demian.filesystem.FileSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BatchExecutorTest {
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void reportsResultsOfFileCalls() throws IOException {
+        List<CommandResult> results = execute(
+                "mkfs 16",
+                "create /a",
+                "create /a",
+                "open /a",
+                "pwrite 0 100 0",
+                "pread 0 200 0",
+                "close 0",
+                "close 0");
+
+        assertStatuses(results, "OK", "OK", "FAILED", "OK", "OK", "OK", "OK", "FAILED");
+        assertEquals(0, results.get(3).getValue());
+        assertEquals(100, results.get(4).getValue());
+        assertEquals(100, results.get(5).getValue());
+    }
+
+    @Test
+    void reportsFailedSnapshotsAndRollbacks() throws IOException {
+        List<CommandResult> results = execute(
+                "mkfs 16",
+                "snapshot a",
+                "snapshot a",
+                "rollback a",
+                "rollback nope");
+
+        assertStatuses(results, "OK", "OK", "FAILED", "OK", "FAILED");
+        assertEquals(-1, results.get(4).getValue());
+    }
+
+    @Test
+    void reportsFailedMountsAndUnmounts() throws IOException {
+        String image = directory.resolve("image").toString();
+        List<CommandResult> results = execute(
+                "mkfs 16",
+                "mkfs 16",
+                "umount",
+                "umount",
+                "sync",
+                "mount " + image);
+
+        assertStatuses(results, "OK", "FAILED", "OK", "FAILED", "FAILED", "FAILED");
+        // the missing image throws, the others return -1
+        assertEquals(-1, results.get(1).getValue());
+        assertNull(results.get(1).getMessage());
+        assertNotNull(results.get(5).getMessage());
+    }
+
+    @Test
+    void rejectsInvalidCommandsWithoutCallingThem() throws IOException {
+        List<CommandResult> results = execute(
+                "# comment",
+                "",
+                "mkfs 16",
+                "frobnicate",
+                "close x",
+                "pread 0 -1 0",
+                "ls /");
+
+        assertStatuses(results, "OK", "INVALID", "INVALID", "INVALID", "INVALID");
+        assertEquals(4, results.get(1).getLineNumber());
+    }
+
+    @Test
+    void writesWhatCallsPrintToOutputOfScriptOnly() throws IOException {
+        Path script = directory.resolve("script");
+        Files.write(script, List.of("mkfs 16", "create /a", "open /a", "write 0 4", "read 0 4", "stat /nope"), StandardCharsets.UTF_8);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchExecutor.createInstance(output).execute(script.toString());
+
+        assertEquals(String.join(System.lineSeparator(),
+                "File system was initialized with 16 file descriptors",
+                "File descriptor of file /a = 0",
+                "1 1 1 1 ",
+                "No such file",
+                ""), output.toString(StandardCharsets.UTF_8));
+        assertSame(System.out, FileSystem.getOutput());
+    }
+
+    private List<CommandResult> execute(String... lines) throws IOException {
+        Path script = directory.resolve("script");
+        Files.write(script, List.of(lines), StandardCharsets.UTF_8);
+        List<CommandResult> results = new ArrayList<>();
+        BatchReport report = BatchExecutor.createInstance(null).execute(script.toString(), results::add);
+        assertEquals(results.size(), report.getCommandCount());
+        return results;
+    }
+
+    private static void assertStatuses(List<CommandResult> results, String... statuses) {
+        List<String> actual = new ArrayList<>();
+        for (CommandResult result : results) {
+            actual.add(result.getStatus().name());
+        }
+        assertEquals(List.of(statuses), actual);
+    }
+}
@@ -0,0 +1,141 @@
+package edu.demian.operatingsystem.trace;
+
+import edu.demian.filesystem.FileSystem;
+import edu.demian.filesystem.exception.TraceFormatException;
+import edu.demian.operatingsystem.OperatingSystem;
+import edu.demian.operatingsystem.metrics.SystemCall;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static edu.demian.filesystem.TestFiles.size;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TraceTest {
+
+    @TempDir
+    Path directory;
+
+    private OperatingSystem operatingSystem;
+    private String tracePathname;
+
+    @BeforeEach
+    void setUp() {
+        operatingSystem = OperatingSystem.getInstance();
+        tracePathname = directory.resolve("trace").toString();
+        assertEquals(0, operatingSystem.mkfs(16));
+    }
+
+    @AfterEach
+    void tearDown() {
+        FileSystem.unmountFileSystem();
+    }
+
+    @Test
+    void readsRecordedCallsBack() {
+        // longer than the buffer of the recorder
+        String longPathname = "/" + "x".repeat(TraceRecorder.BUFFER_SIZE_IN_BYTES);
+        traceCalls(longPathname);
+
+        Trace trace = Trace.read(tracePathname);
+        assertEquals(FileSystem.getInstance().getGeometry().getNumberOfDescriptors(), trace.getGeometry().getNumberOfDescriptors());
+        List<TraceRecord> records = trace.getRecords();
+        assertEquals(List.of(SystemCall.CREATE, SystemCall.OPEN, SystemCall.PWRITE, SystemCall.WRITE, SystemCall.PREAD,
+                SystemCall.STAT, SystemCall.STAT, SystemCall.LINK, SystemCall.CLOSE, SystemCall.UNLINK), callsOf(records));
+        assertArrayEquals(new long[]{0, 0, 100, 10, 50, -1, -1, 0, 0, 0}, resultsOf(records));
+
+        TraceRecord pwrite = records.get(2);
+        assertFalse(pwrite.isConsole());
+        assertEquals(3, pwrite.getNumberCount());
+        assertEquals(List.of(0L, 100L, 0L), List.of(pwrite.getNumber(0), pwrite.getNumber(1), pwrite.getNumber(2)));
+        assertTrue(records.get(3).isConsole());
+        assertEquals("/nope", records.get(5).getString(0));
+        assertEquals(longPathname, records.get(6).getString(0));
+        assertEquals(List.of("/a", "b"), List.of(records.get(7).getString(0), records.get(7).getString(1)));
+        for (TraceRecord record : records) {
+            assertEquals(records.get(0).getPid(), record.getPid());
+            assertTrue(record.getTimestampNanos() >= 0 && record.getLatencyNanos() >= 0);
+        }
+    }
+
+    @Test
+    void replayGetsTracedResults() {
+        traceCalls("/missing");
+
+        TraceReplayReport report = TraceReplayer.createInstance(1, TraceReplayer.AS_FAST_AS_POSSIBLE)
+                .replay(Trace.read(tracePathname));
+
+        assertEquals(10, report.getCallCount());
+        assertEquals(2, report.getErrors());
+        assertEquals(0, report.getMismatches());
+        assertEquals(100, size("b"));
+    }
+
+    @Test
+    void dropsRecordCutOffAtEnd() throws IOException {
+        traceCalls("/missing");
+        byte[] data = Files.readAllBytes(Path.of(tracePathname));
+        Path cutOff = directory.resolve("cut-off");
+        Files.write(cutOff, Arrays.copyOf(data, data.length - 1));
+
+        List<TraceRecord> records = Trace.read(cutOff.toString()).getRecords();
+        assertEquals(9, records.size());
+        assertEquals(SystemCall.CLOSE, records.get(8).getCall());
+    }
+
+    @Test
+    void rejectsFileWhichIsNotTrace() throws IOException {
+        Path file = directory.resolve("file");
+        Files.write(file, new byte[64]);
+
+        assertThrows(TraceFormatException.class, () -> Trace.read(file.toString()));
+    }
+
+    private void traceCalls(String missingPathname) {
+        operatingSystem.trace(tracePathname);
+        try {
+            assertEquals(0, operatingSystem.create("/a"));
+            int fileDescriptor = operatingSystem.open("/a");
+            assertEquals(0, fileDescriptor);
+            assertEquals(100, operatingSystem.pwrite(fileDescriptor, ByteBuffer.allocate(100), 0));
+            assertEquals(10, operatingSystem.write(fileDescriptor, 10));
+            assertEquals(50, operatingSystem.pread(fileDescriptor, ByteBuffer.allocate(50), 20));
+            assertEquals(-1, operatingSystem.stat("/nope"));
+            assertEquals(-1, operatingSystem.stat(missingPathname));
+            assertEquals(0, operatingSystem.link("/a", "b"));
+            assertEquals(0, operatingSystem.close(fileDescriptor));
+            assertEquals(0, operatingSystem.unlink("/a"));
+        } finally {
+            operatingSystem.stopTrace();
+        }
+    }
+
+    private static List<SystemCall> callsOf(List<TraceRecord> records) {
+        List<SystemCall> calls = new ArrayList<>();
+        for (TraceRecord record : records) {
+            calls.add(record.getCall());
+        }
+        return calls;
+    }
+
+    private static long[] resultsOf(List<TraceRecord> records) {
+        long[] results = new long[records.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = records.get(i).getResult();
+        }
+        return results;
+    }
+}